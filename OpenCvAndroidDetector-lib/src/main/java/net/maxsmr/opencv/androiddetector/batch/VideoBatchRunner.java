@@ -0,0 +1,205 @@
+package net.maxsmr.opencv.androiddetector.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.commonutils.android.media.MetadataRetriever;
+import net.maxsmr.commonutils.data.FileHelper;
+import net.maxsmr.opencv.commondetector.model.IDetectVideoInfo;
+
+/**
+ * runs detection on several video files at once on a bounded pool; each worker thread uses its own detector instance
+ * created by {@link DetectorFactory}, results are returned in order of given files
+ *
+ * @param <D> detector type
+ * @param <I> video detection result type
+ */
+public abstract class VideoBatchRunner<D, I extends IDetectVideoInfo> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoBatchRunner.class);
+
+    public static final int DEFAULT_THREADS_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private final DetectorFactory<? extends D> factory;
+
+    private final int threadsCount;
+
+    private final List<D> createdDetectors = new ArrayList<D>();
+
+    private final ThreadLocal<D> workerDetector = new ThreadLocal<D>() {
+        @Override
+        protected D initialValue() {
+            D detector = factory.create();
+            if (detector == null) {
+                throw new NullPointerException("detector created by factory is null");
+            }
+            synchronized (createdDetectors) {
+                createdDetectors.add(detector);
+            }
+            return detector;
+        }
+    };
+
+    /**
+     * @param threadsCount videos processed at once; {@link #DEFAULT_THREADS_COUNT} if <= 0
+     */
+    public VideoBatchRunner(DetectorFactory<? extends D> factory, int threadsCount) {
+
+        if (factory == null)
+            throw new NullPointerException("factory is null");
+
+        this.factory = factory;
+        this.threadsCount = threadsCount > 0 ? threadsCount : DEFAULT_THREADS_COUNT;
+    }
+
+    public int getThreadsCount() {
+        return threadsCount;
+    }
+
+    /** detection of whole video file by worker's own detector */
+    protected abstract I detect(D detector, File videoFile);
+
+    /**
+     * called for each created detector after batch is finished, must release its native resources; batch entry points
+     * of detectors call their release()
+     */
+    protected void releaseDetector(D detector) {
+    }
+
+    /**
+     * @return results in order of given files; files failed to process are skipped
+     */
+    public List<I> run(List<File> videoFiles) {
+        logger.debug("run(), videoFiles=" + (videoFiles != null ? videoFiles.size() : null) + ", threadsCount=" + threadsCount);
+
+        if (videoFiles == null || videoFiles.isEmpty()) {
+            return new ArrayList<I>();
+        }
+
+        final long startTime = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadsCount, videoFiles.size()), new WorkerThreadFactory());
+
+        List<Future<I>> futures = new ArrayList<Future<I>>(videoFiles.size());
+
+        try {
+
+            for (final File videoFile : videoFiles) {
+                futures.add(executor.submit(new Callable<I>() {
+                    @Override
+                    public I call() throws Exception {
+                        logger.info("detecting in video file " + videoFile + "...");
+                        return detect(workerDetector.get(), videoFile);
+                    }
+                }));
+            }
+
+            List<I> results = new ArrayList<I>(videoFiles.size());
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    I result = futures.get(i).get();
+                    if (result != null) {
+                        results.add(result);
+                    }
+                } catch (ExecutionException e) {
+                    logger.error("detection in video file " + videoFiles.get(i) + " failed", e.getCause());
+                }
+            }
+
+            logger.info("batch of " + videoFiles.size() + " video file(s) processed in " + (System.currentTimeMillis() - startTime) + " ms");
+            return results;
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("batch was interrupted", e);
+            for (Future<I> f : futures) {
+                f.cancel(true);
+            }
+            return new ArrayList<I>();
+
+        } finally {
+            executor.shutdownNow();
+            synchronized (createdDetectors) {
+                for (D detector : createdDetectors) {
+                    releaseDetector(detector);
+                }
+                createdDetectors.clear();
+            }
+        }
+    }
+
+    /**
+     * @return correct video files from given directory, sorted by name
+     */
+    public static List<File> listVideoFiles(String videosPath) {
+
+        if (!FileHelper.isDirExists(videosPath)) {
+            throw new RuntimeException("directory " + videosPath + " is not exist");
+        }
+
+        File[] files = new File(videosPath).listFiles();
+
+        if (files == null || files.length == 0) {
+            throw new RuntimeException("no files to test");
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+
+        List<File> videoFiles = new ArrayList<File>(files.length);
+
+        for (File file : files) {
+
+            if (file.isDirectory()) {
+                continue;
+            }
+
+            if (!FileHelper.isFileCorrect(file) || !FileHelper.isVideo(FileHelper.getFileExtension(file.getName()))
+                    || MetadataRetriever.extractMediaDuration(file) <= 0) {
+                logger.error("incorrect video file: " + file);
+                continue;
+            }
+
+            videoFiles.add(file);
+        }
+
+        return Collections.unmodifiableList(videoFiles);
+    }
+
+    public interface DetectorFactory<D> {
+
+        /** @return new detector instance, used by one worker thread only */
+        D create();
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "VideoBatchRunner-" + threadNumber.getAndIncrement());
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }
+    }
+}
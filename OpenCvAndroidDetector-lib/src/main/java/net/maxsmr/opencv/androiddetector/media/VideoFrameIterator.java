@@ -0,0 +1,160 @@
+package net.maxsmr.opencv.androiddetector.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+
+/**
+ * pull-based iterator over evenly spaced video frames; each frame is decoded only when requested by {@link #next()},
+ * so only frames not recycled by caller are kept in memory
+ */
+public class VideoFrameIterator implements Iterator<VideoFrameIterator.Frame>, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoFrameIterator.class);
+
+    private final File videoFile;
+
+    private final int framesCount;
+
+    private final long durationMs;
+
+    private final long intervalMs;
+
+    private MediaMetadataRetriever retriever;
+
+    private int index = 0;
+
+    public VideoFrameIterator(File videoFile, int framesCount) {
+        logger.debug("VideoFrameIterator(), videoFile=" + videoFile + ", framesCount=" + framesCount);
+
+        if (videoFile == null)
+            throw new NullPointerException("videoFile is null");
+
+        if (framesCount <= 0)
+            throw new IllegalArgumentException("incorrect framesCount: " + framesCount);
+
+        this.videoFile = videoFile;
+
+        retriever = new MediaMetadataRetriever();
+
+        long duration = 0;
+
+        try {
+            retriever.setDataSource(videoFile.getAbsolutePath());
+            String durationStr = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            duration = durationStr != null ? Long.parseLong(durationStr) : 0;
+        } catch (RuntimeException e) {
+            logger.error("a RuntimeException occurred during setDataSource()", e);
+        }
+
+        this.durationMs = duration > 0 ? duration : 0;
+        this.framesCount = durationMs > 0 ? framesCount : 0;
+        this.intervalMs = this.framesCount > 0 ? durationMs / this.framesCount : 0;
+
+        if (this.framesCount == 0) {
+            close();
+        }
+    }
+
+    public File getVideoFile() {
+        return videoFile;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /** @return frames count that will be returned by iterator */
+    public int getFramesCount() {
+        return framesCount;
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return retriever != null && index < framesCount;
+    }
+
+    /**
+     * decodes next frame; {@link Frame#getBitmap()} is null if decoding at this position failed
+     */
+    @Override
+    public synchronized Frame next() {
+
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        final long positionMs = index * intervalMs;
+        index++;
+
+        Bitmap bitmap = null;
+
+        try {
+            bitmap = retriever.getFrameAtTime(positionMs * 1000, MediaMetadataRetriever.OPTION_CLOSEST);
+        } catch (RuntimeException e) {
+            logger.error("a RuntimeException occurred during getFrameAtTime(), position: " + positionMs + " ms", e);
+        }
+
+        if (index >= framesCount) {
+            close();
+        }
+
+        return new Frame(positionMs, bitmap);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public synchronized void close() {
+        if (retriever != null) {
+            retriever.release();
+            retriever = null;
+        }
+    }
+
+    public static class Frame {
+
+        private final long positionMs;
+
+        private Bitmap bitmap;
+
+        public Frame(long positionMs, Bitmap bitmap) {
+            this.positionMs = positionMs;
+            this.bitmap = bitmap;
+        }
+
+        public long getPositionMs() {
+            return positionMs;
+        }
+
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /** replaces bitmap, e.g. by reconfigured one; previous bitmap is not recycled */
+        public void setBitmap(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        public void recycle() {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+            bitmap = null;
+        }
+
+        @Override
+        public String toString() {
+            return "Frame [positionMs=" + positionMs + ", bitmap=" + bitmap + "]";
+        }
+    }
+}
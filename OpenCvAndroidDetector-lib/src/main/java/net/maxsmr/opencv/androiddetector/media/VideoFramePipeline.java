@@ -0,0 +1,507 @@
+package net.maxsmr.opencv.androiddetector.media;
+
+import java.io.Closeable;
+import java.io.File;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.graphics.Bitmap;
+
+import net.maxsmr.commonutils.graphic.GraphicUtils;
+
+/**
+ * video analysis split into stages joined by bounded queues: decode + preprocess (RGB_565 reconfigure, pixel data
+ * extraction) run on own thread, detect runs on the thread calling {@link #takeFrame()}, persisting frames runs on
+ * own thread; so decoding of next frame and writing of previous frame overlap with detection of current one
+ */
+public class VideoFramePipeline implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoFramePipeline.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 3;
+
+    private static final PreparedFrame END_OF_FRAMES = new PreparedFrame(-1, null, null, 0, 0);
+
+    private static final PersistTask END_OF_TASKS = new PersistTask(null, null, null);
+
+    private final VideoFrameIterator frameIterator;
+
+    private final BlockingQueue<PreparedFrame> framesQueue;
+
+    private final BlockingQueue<PersistTask> persistQueue;
+
+    private final StageStats decodeStats = new StageStats("decode");
+
+    private final StageStats detectStats = new StageStats("detect");
+
+    private final StageStats persistStats = new StageStats("persist");
+
+    private Thread decodeThread;
+
+    private Thread persistThread;
+
+    private boolean framesEnded = false;
+
+    /** set by decode thread before end of frames is handed over */
+    private volatile RuntimeException decodeError;
+
+    private boolean closed = false;
+
+    private long detectStartTime = 0;
+
+    public VideoFramePipeline(File videoFile, int framesCount) {
+        this(videoFile, framesCount, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public VideoFramePipeline(File videoFile, int framesCount, int queueCapacity) {
+        logger.debug("VideoFramePipeline(), videoFile=" + videoFile + ", framesCount=" + framesCount + ", queueCapacity=" + queueCapacity);
+
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("incorrect queueCapacity: " + queueCapacity);
+
+        frameIterator = new VideoFrameIterator(videoFile, framesCount);
+        framesQueue = new ArrayBlockingQueue<PreparedFrame>(queueCapacity);
+        persistQueue = new ArrayBlockingQueue<PersistTask>(queueCapacity);
+    }
+
+    public VideoFrameIterator getFrameIterator() {
+        return frameIterator;
+    }
+
+    public StageStats getDecodeStats() {
+        return decodeStats;
+    }
+
+    public StageStats getDetectStats() {
+        return detectStats;
+    }
+
+    public StageStats getPersistStats() {
+        return persistStats;
+    }
+
+    /**
+     * @return error that stopped decoding before the end of video, null if video was decoded completely or decoding
+     * was interrupted
+     */
+    public RuntimeException getDecodeError() {
+        return decodeError;
+    }
+
+    public synchronized boolean isStarted() {
+        return decodeThread != null;
+    }
+
+    public synchronized void start() {
+
+        if (closed)
+            throw new IllegalStateException("pipeline is closed");
+
+        if (decodeThread != null)
+            throw new IllegalStateException("pipeline is already started");
+
+        final String name = frameIterator.getVideoFile().getName();
+
+        decodeThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                decodeLoop();
+            }
+        }, VideoFramePipeline.class.getSimpleName() + "-decode-" + name);
+
+        persistThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                persistLoop();
+            }
+        }, VideoFramePipeline.class.getSimpleName() + "-persist-" + name);
+
+        decodeThread.start();
+        persistThread.start();
+    }
+
+    /**
+     * blocks until next frame is decoded and preprocessed; time between subsequent calls is accounted as detect stage
+     *
+     * @return next frame or null if there are no more frames; caller owns returned bitmap: it should be recycled or
+     * handed over to {@link #persist(File, Bitmap, Bitmap.CompressFormat)}
+     * @throws RuntimeException if decoding failed before the end of video (see {@link #getDecodeError()}), instead of
+     *                          returning null, so truncated video is not taken for a complete one
+     */
+    public PreparedFrame takeFrame() throws InterruptedException {
+
+        if (!isStarted())
+            throw new IllegalStateException("pipeline is not started");
+
+        final long now = System.currentTimeMillis();
+
+        if (detectStartTime > 0) {
+            detectStats.onProcessed(now - detectStartTime, framesQueue.size());
+            detectStartTime = 0;
+        }
+
+        if (framesEnded) {
+            checkDecodeError();
+            return null;
+        }
+
+        PreparedFrame frame = framesQueue.take();
+
+        if (frame == END_OF_FRAMES) {
+            framesEnded = true;
+            checkDecodeError();
+            return null;
+        }
+
+        detectStartTime = System.currentTimeMillis();
+        return frame;
+    }
+
+    /**
+     * hands bitmap over to persist stage; blocks only when persist queue is full; bitmap is recycled after writing
+     */
+    public void persist(File file, Bitmap bitmap, Bitmap.CompressFormat format) throws InterruptedException {
+
+        if (!isStarted())
+            throw new IllegalStateException("pipeline is not started");
+
+        if (file == null || bitmap == null || format == null) {
+            logger.error("incorrect persist task, file: " + file + ", bitmap: " + bitmap + ", format: " + format);
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            return;
+        }
+
+        persistQueue.put(new PersistTask(file, bitmap, format));
+    }
+
+    /**
+     * stops decoding, waits until pending frames are persisted and releases resources
+     */
+    @Override
+    public void close() {
+
+        final Thread decode;
+        final Thread persist;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            decode = decodeThread;
+            persist = persistThread;
+        }
+
+        if (decode != null) {
+            decode.interrupt();
+            try {
+                decode.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("interrupted during waiting decode thread", e);
+            }
+        }
+
+        PreparedFrame pending;
+        while ((pending = framesQueue.poll()) != null) {
+            pending.recycle();
+        }
+
+        if (persist != null) {
+            boolean offered = false;
+            try {
+                persistQueue.put(END_OF_TASKS);
+                offered = true;
+                persist.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("interrupted during waiting persist thread", e);
+                if (!offered) {
+                    persist.interrupt();
+                }
+            }
+        }
+
+        frameIterator.close();
+
+        logger.info("pipeline closed, stats: " + decodeStats + "; " + detectStats + "; " + persistStats);
+    }
+
+    private void checkDecodeError() {
+        final RuntimeException e = decodeError;
+        if (e != null) {
+            throw new RuntimeException("decoding of " + frameIterator.getVideoFile() + " failed, video is truncated", e);
+        }
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void decodeLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted() && frameIterator.hasNext()) {
+
+                final long startTime = System.currentTimeMillis();
+
+                final VideoFrameIterator.Frame frame = frameIterator.next();
+                final PreparedFrame prepared = prepare(frame);
+
+                if (prepared != null) {
+                    decodeStats.onProcessed(System.currentTimeMillis() - startTime, framesQueue.size());
+                    try {
+                        framesQueue.put(prepared);
+                    } catch (InterruptedException e) {
+                        prepared.recycle();
+                        throw e;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.debug("decode thread interrupted");
+        } catch (RuntimeException e) {
+            logger.error("a RuntimeException occurred during decoding " + frameIterator.getVideoFile(), e);
+            decodeError = e;
+        } finally {
+            frameIterator.close();
+            handOverEndOfFrames();
+        }
+    }
+
+    /**
+     * frames decoded before the end are kept for consumer; remaining frames are skipped only if pipeline is
+     * interrupted or closed
+     */
+    private void handOverEndOfFrames() {
+
+        if (!Thread.currentThread().isInterrupted() && !isClosed()) {
+            try {
+                framesQueue.put(END_OF_FRAMES);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.debug("decode thread interrupted during handing over end of frames");
+            }
+        }
+
+        // make sure consumer wakes up
+        while (!framesQueue.offer(END_OF_FRAMES)) {
+            PreparedFrame dropped = framesQueue.poll();
+            if (dropped != null) {
+                dropped.recycle();
+            }
+        }
+    }
+
+    private static PreparedFrame prepare(VideoFrameIterator.Frame frame) {
+
+        Bitmap frameBitmap = frame.getBitmap();
+
+        if (frameBitmap == null) {
+            logger.error("video frame at " + frame.getPositionMs() + " ms is null");
+            return null;
+        }
+
+        if (frameBitmap.getConfig() != Bitmap.Config.RGB_565) {
+            Bitmap convertedBitmap = GraphicUtils.reconfigureBitmap(frameBitmap, Bitmap.Config.RGB_565);
+            if (convertedBitmap != null && GraphicUtils.getBitmapByteCount(convertedBitmap) > 0) {
+                frameBitmap.recycle();
+                frameBitmap = convertedBitmap;
+                frame.setBitmap(frameBitmap);
+            } else {
+                logger.error("conversion to RGB_565 failed");
+                frame.recycle();
+                return null;
+            }
+        }
+
+        return new PreparedFrame(frame.getPositionMs(), frameBitmap, GraphicUtils.getBitmapData(frameBitmap), frameBitmap.getWidth(),
+                frameBitmap.getHeight());
+    }
+
+    private void persistLoop() {
+        try {
+            while (true) {
+
+                final PersistTask task = persistQueue.take();
+
+                if (task == END_OF_TASKS) {
+                    break;
+                }
+
+                final int depth = persistQueue.size();
+                final long startTime = System.currentTimeMillis();
+
+                try {
+                    if (!GraphicUtils.writeCompressedBitmapToFile(task.file, task.bitmap, task.format)) {
+                        logger.error("writing frame to " + task.file + " failed");
+                    }
+                } finally {
+                    task.bitmap.recycle();
+                }
+
+                persistStats.onProcessed(System.currentTimeMillis() - startTime, depth);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.debug("persist thread interrupted");
+        } finally {
+            PersistTask task;
+            while ((task = persistQueue.poll()) != null) {
+                if (task.bitmap != null) {
+                    task.bitmap.recycle();
+                }
+            }
+        }
+    }
+
+    public static class PreparedFrame {
+
+        private final long positionMs;
+
+        private Bitmap bitmap;
+
+        private final byte[] data;
+
+        private final int width;
+
+        private final int height;
+
+        PreparedFrame(long positionMs, Bitmap bitmap, byte[] data, int width, int height) {
+            this.positionMs = positionMs;
+            this.bitmap = bitmap;
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+
+        public long getPositionMs() {
+            return positionMs;
+        }
+
+        /** @return RGB_565 frame */
+        public Bitmap getBitmap() {
+            return bitmap;
+        }
+
+        /** @return pixel data of {@link #getBitmap()} */
+        public byte[] getData() {
+            return data;
+        }
+
+        /** @return frame width, available after bitmap is detached or recycled */
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /** @return bitmap, ownership is passed to caller */
+        public Bitmap detachBitmap() {
+            Bitmap b = bitmap;
+            bitmap = null;
+            return b;
+        }
+
+        public void recycle() {
+            if (bitmap != null && !bitmap.isRecycled()) {
+                bitmap.recycle();
+            }
+            bitmap = null;
+        }
+
+        @Override
+        public String toString() {
+            return "PreparedFrame [positionMs=" + positionMs + ", bitmap=" + bitmap + "]";
+        }
+    }
+
+    /**
+     * processed items count, accumulated time and queue depth of one stage
+     */
+    public static class StageStats {
+
+        private final String name;
+
+        private int processedCount;
+
+        private long totalTimeMs;
+
+        private long maxTimeMs;
+
+        private int lastQueueDepth;
+
+        private int maxQueueDepth;
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        synchronized void onProcessed(long timeMs, int queueDepth) {
+            processedCount++;
+            totalTimeMs += timeMs;
+            maxTimeMs = Math.max(maxTimeMs, timeMs);
+            lastQueueDepth = queueDepth;
+            maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized int getProcessedCount() {
+            return processedCount;
+        }
+
+        public synchronized long getTotalTimeMs() {
+            return totalTimeMs;
+        }
+
+        public synchronized long getAverageTimeMs() {
+            return processedCount > 0 ? totalTimeMs / processedCount : 0;
+        }
+
+        public synchronized long getMaxTimeMs() {
+            return maxTimeMs;
+        }
+
+        /** @return depth of stage output (decode) or input (persist) queue at last processed item */
+        public synchronized int getLastQueueDepth() {
+            return lastQueueDepth;
+        }
+
+        public synchronized int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "StageStats [name=" + name + ", processedCount=" + processedCount + ", totalTimeMs=" + totalTimeMs + ", averageTimeMs="
+                    + (processedCount > 0 ? totalTimeMs / processedCount : 0) + ", maxTimeMs=" + maxTimeMs + ", lastQueueDepth="
+                    + lastQueueDepth + ", maxQueueDepth=" + maxQueueDepth + "]";
+        }
+    }
+
+    private static class PersistTask {
+
+        final File file;
+
+        final Bitmap bitmap;
+
+        final Bitmap.CompressFormat format;
+
+        PersistTask(File file, Bitmap bitmap, Bitmap.CompressFormat format) {
+            this.file = file;
+            this.bitmap = bitmap;
+            this.format = format;
+        }
+    }
+}
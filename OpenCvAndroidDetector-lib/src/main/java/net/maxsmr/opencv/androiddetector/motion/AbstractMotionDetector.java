@@ -3,7 +3,6 @@ package net.maxsmr.opencv.androiddetector.motion;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.opencv.core.Scalar;
 import org.slf4j.Logger;
@@ -11,9 +10,9 @@ import org.slf4j.LoggerFactory;
 
 import android.graphics.Bitmap;
 
-import net.maxsmr.commonutils.android.media.MetadataRetriever;
 import net.maxsmr.commonutils.data.FileHelper;
-import net.maxsmr.commonutils.graphic.GraphicUtils;
+import net.maxsmr.opencv.androiddetector.batch.VideoBatchRunner;
+import net.maxsmr.opencv.androiddetector.media.VideoFramePipeline;
 import net.maxsmr.opencv.commondetector.model.DetectorSensivity;
 import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.model.motion.info.MotionDetectVideoInfo;
@@ -37,6 +36,37 @@ public abstract class AbstractMotionDetector {
 
     private int contourThickness = CONTOUR_THICKNESS_DEFAULT;
 
+    public static final boolean DIRECT_YUV_INGEST_DEFAULT = true;
+
+    /**
+     * releases native resources held by detector between videos; detector can be used again after that
+     */
+    public void release() {
+    }
+
+    private boolean directYuvIngest = DIRECT_YUV_INGEST_DEFAULT;
+
+    /**
+     * @return true if YUV preview data is wrapped into matrix and converted to RGBA (and to gray if grayscale, from the
+     * same matrix) by cvtColor; JPEG encode / decode round trip is used otherwise or for unsupported YUV formats
+     */
+    public boolean isDirectYuvIngest() {
+        return directYuvIngest;
+    }
+
+    public void setDirectYuvIngest(boolean toggle) {
+        this.directYuvIngest = toggle;
+    }
+
+    protected long lastIngestTime;
+
+    /**
+     * @return time in ms spent on converting last frame data to matrix
+     */
+    public long getLastIngestTime() {
+        return lastIngestTime;
+    }
+
     /**
      * @return last frame containing circled motion track if motion has been detected or without otherwise
      */
@@ -74,6 +104,10 @@ public abstract class AbstractMotionDetector {
 
     protected abstract void afterVideoDetect(File videoFile, int framesCount, DetectorSensivity sensitivity);
 
+    /**
+     * @throws RuntimeException if decoding failed or detection was interrupted (interrupt flag is restored), so
+     *                          partially processed video is not reported as complete one
+     */
     public synchronized MotionDetectVideoInfo detectMotionInVideoFile(File videoFile, int framesCount, DetectorSensivity sensitivity,
                                                                       List<Point> region, File savedFramesDir) {
         logger.debug("detectMotionInVideoFile(), videoFile=" + videoFile + ", framesCount=" + framesCount + ", sensitivity=" + sensitivity
@@ -83,11 +117,12 @@ public abstract class AbstractMotionDetector {
 
         final long startTime = System.currentTimeMillis();
 
-        final Map<Long, Bitmap> retrievedFrames = MetadataRetriever.extractFrames(videoFile, framesCount <= 1 ? FRAMES_TO_ANALYZE_COUNT_DEFAULT
+        final VideoFramePipeline pipeline = new VideoFramePipeline(videoFile, framesCount <= 1 ? FRAMES_TO_ANALYZE_COUNT_DEFAULT
                 : framesCount);
 
-        if (retrievedFrames.isEmpty()) {
-            throw new RuntimeException("retrievedFrames is null or empty");
+        if (!pipeline.getFrameIterator().hasNext()) {
+            pipeline.close();
+            throw new RuntimeException("no frames to retrieve from " + videoFile);
         }
 
         int extractedFramesCount = 0;
@@ -95,58 +130,56 @@ public abstract class AbstractMotionDetector {
         int detectedFramesCount = 0;
         List<Long> detectedFramesPositions = new ArrayList<Long>();
 
-        for (Map.Entry<Long, Bitmap> currentFrame : retrievedFrames.entrySet()) {
+        try {
+            pipeline.start();
 
-            Bitmap frameBitmap = currentFrame.getValue();
+            VideoFramePipeline.PreparedFrame currentFrame;
 
-            if (frameBitmap == null) {
-                logger.error("video frame at " + currentFrame.getKey() + " ms is null");
-                continue;
-            }
-
-            if (frameBitmap.getConfig() != Bitmap.Config.RGB_565) {
-                Bitmap convertedBitmap = GraphicUtils.reconfigureBitmap(frameBitmap, Bitmap.Config.RGB_565);
-                if (convertedBitmap != null && GraphicUtils.getBitmapByteCount(convertedBitmap) > 0) {
-                    frameBitmap.recycle();
-                    frameBitmap = convertedBitmap;
-                } else {
-                    logger.error("conversion to RGB_565 failed");
-                    continue;
-                }
-            }
+            while ((currentFrame = pipeline.takeFrame()) != null) {
 
-            extractedFramesCount++;
+                extractedFramesCount++;
 
-            if (savedFramesDir != null) {
-                logger.debug("saving source frame (position " + currentFrame.getKey() + " ms) to file...");
+                if (savedFramesDir != null) {
+                    logger.debug("saving source frame (position " + currentFrame.getPositionMs() + " ms) to file...");
 
-                GraphicUtils.writeCompressedBitmapToFile(new File(savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
-                        + File.separator + SOURCE_FRAME_DIR, videoFile.getName() + "_"
-                        + currentFrame.getKey() + "_ms"), frameBitmap, Bitmap.CompressFormat.PNG);
+                    pipeline.persist(new File(savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
+                            + File.separator + SOURCE_FRAME_DIR, videoFile.getName() + "_"
+                            + currentFrame.getPositionMs() + "_ms"), currentFrame.detachBitmap(), Bitmap.CompressFormat.PNG);
 
-                // ArchiveHelper.getInstance().saveImageBitmapToFile(ARCHIVE_MODE.DETECTOR_VIDEO_FRAME, null,
-                // Bitmap.CompressFormat.PNG,
-                // frameBitmap, videoFile.getName(), currentFrame.getPositionMs());
-            }
+                    // ArchiveHelper.getInstance().saveImageBitmapToFile(ARCHIVE_MODE.DETECTOR_VIDEO_FRAME, null,
+                    // Bitmap.CompressFormat.PNG,
+                    // frameBitmap, videoFile.getName(), currentFrame.getPositionMs());
+                }
 
-            if (detectMotionByByteArray(GraphicUtils.getBitmapData(frameBitmap), true, 0, frameBitmap.getWidth(), frameBitmap.getHeight(),
-                    sensitivity, region)) {
+                if (detectMotionByByteArray(currentFrame.getData(), true, 0, currentFrame.getWidth(), currentFrame.getHeight(),
+                        sensitivity, region)) {
 
-                logger.info("motion is detected in file " + videoFile.getName() + ", position: " + currentFrame.getKey() + " ms");
+                    logger.info("motion is detected in file " + videoFile.getName() + ", position: " + currentFrame.getPositionMs() + " ms");
 
-                detectedFramesPositions.add(currentFrame.getKey());
-                detectedFramesCount++;
+                    detectedFramesPositions.add(currentFrame.getPositionMs());
+                    detectedFramesCount++;
 
-                if (savedFramesDir != null) {
-                    logger.debug("saving detected frame (position " + currentFrame.getKey() + " ms) to file...");
+                    if (savedFramesDir != null) {
+                        logger.debug("saving detected frame (position " + currentFrame.getPositionMs() + " ms) to file...");
 
-                    GraphicUtils.writeCompressedBitmapToFile(new File(savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
-                            + File.separator + DETECTED_FRAME_DIR, videoFile.getName() + "_"
-                            + currentFrame.getKey() + "_ms"), getLastFrame(), Bitmap.CompressFormat.PNG);
+                        Bitmap lastFrame = getLastFrame();
+                        if (lastFrame != null) {
+                            pipeline.persist(new File(savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
+                                    + File.separator + DETECTED_FRAME_DIR, videoFile.getName() + "_"
+                                    + currentFrame.getPositionMs() + "_ms"), lastFrame, Bitmap.CompressFormat.PNG);
+                        }
+                    }
                 }
-            }
 
-            frameBitmap.recycle();
+                currentFrame.recycle();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // frames seen so far are not the whole video, so partial result is not returned
+            throw new RuntimeException("detection in " + videoFile + " was interrupted after " + extractedFramesCount + " frame(s)", e);
+        } finally {
+            pipeline.close();
+            afterVideoDetect(videoFile, framesCount, sensitivity);
         }
 
         final long detectionTime = System.currentTimeMillis() - startTime;
@@ -154,10 +187,8 @@ public abstract class AbstractMotionDetector {
         logger.info("motion has been detected: " + (detectedFramesCount > 0) + " (in " + extractedFramesCount + " frame(s))");
         logger.info("detection processing time: " + detectionTime + " ms");
 
-        afterVideoDetect(videoFile, framesCount, sensitivity);
-
-        return new MotionDetectVideoInfo(videoFile, (detectedFramesCount > 0),
-                (double) detectedFramesCount / (double) extractedFramesCount, detectedFramesPositions, detectionTime);
+        return new MotionDetectVideoInfo(videoFile, (detectedFramesCount > 0), extractedFramesCount > 0 ? (double) detectedFramesCount
+                / (double) extractedFramesCount : 0, detectedFramesPositions, detectionTime);
     }
 
     public static List<MotionDetectVideoInfo> testMotionDetector(AbstractMotionDetector detector, String videosPath, String detectInfoName,
@@ -173,31 +204,12 @@ public abstract class AbstractMotionDetector {
             throw new NullPointerException("detectorSettings is null");
         }
 
-        if (!FileHelper.isDirExists(videosPath)) {
-            throw new RuntimeException("directory " + videosPath + " is not exist");
-        }
-
-        File videosDir = new File(videosPath);
-        File[] files = videosDir.listFiles();
-
-        if (files == null || files.length == 0) {
-            throw new RuntimeException("no files to test");
-        }
+        List<File> files = VideoBatchRunner.listVideoFiles(videosPath);
 
-        List<MotionDetectVideoInfo> detectVideoInfos = new ArrayList<>(files.length);
+        List<MotionDetectVideoInfo> detectVideoInfos = new ArrayList<MotionDetectVideoInfo>(files.size());
 
         for (File file : files) {
 
-            if (file.isDirectory()) {
-                continue;
-            }
-
-            if (!FileHelper.isFileCorrect(file) || !FileHelper.isVideo(FileHelper.getFileExtension(file.getName()))
-                    || MetadataRetriever.extractMediaDuration(file) == 0) {
-                logger.error("incorrect video file: " + file);
-                continue;
-            }
-
             logger.info("detecting motion in video file " + file + "...");
             MotionDetectVideoInfo i = detector.detectMotionInVideoFile(file, detectorSettings.getFramesToAnalyze(),
                     detectorSettings.getSensitivity(), detectorSettings.getRegion(),
@@ -212,4 +224,44 @@ public abstract class AbstractMotionDetector {
 
         return detectVideoInfos;
     }
+
+    /**
+     * same as {@link #testMotionDetector(AbstractMotionDetector, String, String, String, MotionDetectorSettings)}, but processes up to threadsCount video
+     * files at once; each worker uses its own detector created by factory, results are in order of file names
+     */
+    public static List<MotionDetectVideoInfo> testMotionDetector(VideoBatchRunner.DetectorFactory<? extends AbstractMotionDetector> factory, int threadsCount,
+                                                                 String videosPath, String detectInfoName, String savedFramesPath,
+                                                                 final MotionDetectorSettings detectorSettings) {
+        logger.debug("testMotionDetector(), factory=" + factory + ", threadsCount=" + threadsCount + ", videosPath=" + videosPath
+                + ", detectInfoName=" + detectInfoName + ", savedFramesPath=" + savedFramesPath + ", detectorSettings=" + detectorSettings);
+
+        if (detectorSettings == null) {
+            throw new NullPointerException("detectorSettings is null");
+        }
+
+        final File savedFramesDir = (savedFramesPath != null && savedFramesPath.length() > 0) ? new File(savedFramesPath) : null;
+
+        VideoBatchRunner<AbstractMotionDetector, MotionDetectVideoInfo> runner = new VideoBatchRunner<AbstractMotionDetector, MotionDetectVideoInfo>(factory, threadsCount) {
+
+            @Override
+            protected MotionDetectVideoInfo detect(AbstractMotionDetector detector, File videoFile) {
+                MotionDetectVideoInfo i = detector.detectMotionInVideoFile(videoFile, detectorSettings.getFramesToAnalyze(),
+                        detectorSettings.getSensitivity(), detectorSettings.getRegion(), savedFramesDir);
+                logger.info("i=" + i);
+                return i;
+            }
+
+            @Override
+            protected void releaseDetector(AbstractMotionDetector detector) {
+                detector.release();
+            }
+        };
+
+        List<MotionDetectVideoInfo> detectVideoInfos = runner.run(VideoBatchRunner.listVideoFiles(videosPath));
+
+        if (detectInfoName != null && detectInfoName.length() > 0)
+            FileHelper.writeStringToFile(new File(videosPath, detectInfoName), detectVideoInfos.toString(), false);
+
+        return detectVideoInfos;
+    }
 }
@@ -20,6 +20,7 @@ import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.motion.BackgroundSubtractorDetector;
 import net.maxsmr.opencv.commondetector.motion.BaseDetector;
 
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
 
@@ -30,6 +31,8 @@ public class BsMotionDetector extends AbstractMotionDetector {
     private BackgroundSubtractorDetector bsDetector;
 
     private synchronized void initBackgroundSubtractorDetector() {
+        if (bsDetector != null)
+            bsDetector.release();
         bsDetector = new BackgroundSubtractorDetector(mixtures, history, backgroundRatio, noiseSigma, learningRate, minContourAreaRatio);
         bsDetector.setContourThickness(getContourThickness());
         bsDetector.setContourColor(getContourColor());
@@ -39,6 +42,8 @@ public class BsMotionDetector extends AbstractMotionDetector {
     }
 
     private synchronized void releaseBackgroundSubtractorDetector() {
+        if (bsDetector != null)
+            bsDetector.release();
         bsDetector = null;
     }
 
@@ -131,6 +136,19 @@ public class BsMotionDetector extends AbstractMotionDetector {
 
     private Mat lastFrame;
 
+    /** reusable buffer for raw YUV preview data */
+    private final Mat yuvFrame = new Mat();
+
+    @Override
+    public synchronized void release() {
+        releaseBackgroundSubtractorDetector();
+        if (lastFrame != null) {
+            lastFrame.release();
+            lastFrame = null;
+        }
+        yuvFrame.release();
+    }
+
     @Override
     public Bitmap getLastFrame() {
         return OpenCvUtils.convertMatToBitmap(lastFrame, false);
@@ -179,24 +197,57 @@ public class BsMotionDetector extends AbstractMotionDetector {
             return true;
         }
 
-        Bitmap frameBitmap;
+        final long ingestStartTime = System.currentTimeMillis();
+
+        Mat frame = null;
+
+        // gray image of direct YUV ingest, used only for detection
+        Mat frameGray = null;
 
         if (!isRgb) {
 
             if (!(yuvFormat == ImageFormat.NV16 || yuvFormat == ImageFormat.NV21 || yuvFormat == ImageFormat.YUY2 || yuvFormat == ImageFormat.YV12))
                 throw new IllegalArgumentException("image format is not YUV: " + yuvFormat);
 
-            frameBitmap = GraphicUtils.createBitmapByByteArray(GraphicUtils.convertYuvToJpeg(data, yuvFormat, imageWidth, imageHeight), 1);
+            if (isDirectYuvIngest() && OpenCvUtils.isYuvFormatSupported(yuvFormat, imageWidth)) {
+                // output frame has the same color space as jpeg decoded one
+                frame = new Mat();
+                frameGray = grayscale ? new Mat() : null;
+                if (!OpenCvUtils.convertYuvToRgba(data, yuvFormat, imageWidth, imageHeight, yuvFrame, frame, frameGray)) {
+                    logger.error("direct yuv conversion failed, falling back to jpeg");
+                    frame.release();
+                    frame = null;
+                    if (frameGray != null) {
+                        frameGray.release();
+                        frameGray = null;
+                    }
+                }
+            }
+        }
+
+        if (frame == null) {
 
-        } else {
+            Bitmap frameBitmap;
+
+            if (!isRgb) {
 
-            frameBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.RGB_565);
-            ByteBuffer frameBuffer = ByteBuffer.wrap(data);
-            frameBitmap.copyPixelsFromBuffer(frameBuffer);
+                frameBitmap = GraphicUtils.createBitmapByByteArray(GraphicUtils.convertYuvToJpeg(data, yuvFormat, imageWidth, imageHeight), 1);
+
+            } else {
+
+                frameBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.RGB_565);
+                ByteBuffer frameBuffer = ByteBuffer.wrap(data);
+                frameBitmap.copyPixelsFromBuffer(frameBuffer);
+            }
+
+            if (frameBitmap == null || GraphicUtils.getBitmapByteCount(frameBitmap) == 0)
+                throw new RuntimeException("frameBitmap is null or empty");
+
+            frame = OpenCvUtils.convertBitmapToMat(frameBitmap);
+            frameBitmap.recycle();
         }
 
-        if (frameBitmap == null || GraphicUtils.getBitmapByteCount(frameBitmap) == 0)
-            throw new RuntimeException("frameBitmap is null or empty");
+        lastIngestTime = System.currentTimeMillis() - ingestStartTime;
 
         // if (savedFramesDir != null) {
         // logger.debug("saving source frame " + imageWidth + "x" + imageHeight + "...");
@@ -205,8 +256,6 @@ public class BsMotionDetector extends AbstractMotionDetector {
         // + SOURCE_FRAME_DIR);
         // }
 
-        Mat frame = OpenCvUtils.convertBitmapToMat(frameBitmap);
-
         // if (grayscale) {
         // logger.debug("converting color space to gray...");
         // Mat frameGray = OpenCvUtils.colorToGray(frame);
@@ -251,7 +300,18 @@ public class BsMotionDetector extends AbstractMotionDetector {
             initBackgroundSubtractorDetector();
 
         logger.debug("detecting motion by matrix " + imageWidth + "x" + imageHeight + "...");
-        Mat resultMat = bsDetector.detect(frame, cvRegion);
+        final long detectStartTime = System.currentTimeMillis();
+        final FrameContext context = new FrameContext(frame, frameGray);
+        Mat resultMat;
+        try {
+            resultMat = bsDetector.detect(context, cvRegion);
+        } finally {
+            context.release();
+            if (frameGray != null) {
+                frameGray.release();
+            }
+        }
+        logger.debug("ingest time: " + lastIngestTime + " ms, detection time: " + (System.currentTimeMillis() - detectStartTime) + " ms");
 
         Bitmap resultBitmap = null;
 
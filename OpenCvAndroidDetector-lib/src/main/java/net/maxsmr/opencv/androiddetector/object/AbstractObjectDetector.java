@@ -3,7 +3,6 @@ package net.maxsmr.opencv.androiddetector.object;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.opencv.core.Mat;
 import org.opencv.core.Scalar;
@@ -13,14 +12,15 @@ import org.slf4j.LoggerFactory;
 import android.graphics.Bitmap;
 import android.util.Pair;
 
-import net.maxsmr.commonutils.android.media.MetadataRetriever;
 import net.maxsmr.commonutils.data.FileHelper;
-import net.maxsmr.commonutils.graphic.GraphicUtils;
+import net.maxsmr.opencv.androiddetector.batch.VideoBatchRunner;
+import net.maxsmr.opencv.androiddetector.media.VideoFramePipeline;
 import net.maxsmr.opencv.commondetector.model.DetectorSensivity;
 import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectVideoInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectDetectorSettings;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
@@ -39,6 +39,53 @@ public abstract class AbstractObjectDetector {
 
     public final static int FRAMES_TO_ANALYZE_COUNT_DEFAULT = 20;
 
+    public static final ResultMode RESULT_MODE_DEFAULT = ResultMode.FULL;
+    private ResultMode resultMode = RESULT_MODE_DEFAULT;
+
+    public ResultMode getResultMode() {
+        return resultMode;
+    }
+
+    /**
+     * @param mode {@link ResultMode#RESULT_ONLY} - frame infos contain only objects geometry, type and time, without
+     *             scene image copy; {@link #getLastFrame()} is annotated on request
+     */
+    public void setResultMode(ResultMode mode) {
+        if (mode != null)
+            this.resultMode = mode;
+    }
+
+    public static final boolean DIRECT_YUV_INGEST_DEFAULT = true;
+
+    /**
+     * releases native resources held by detector between videos; detector can be used again after that
+     */
+    public void release() {
+    }
+
+    private boolean directYuvIngest = DIRECT_YUV_INGEST_DEFAULT;
+
+    /**
+     * @return true if YUV preview data is wrapped into matrix and converted to RGBA (and to gray if grayscale, from the
+     * same matrix) by cvtColor; JPEG encode / decode round trip is used otherwise or for unsupported YUV formats
+     */
+    public boolean isDirectYuvIngest() {
+        return directYuvIngest;
+    }
+
+    public void setDirectYuvIngest(boolean toggle) {
+        this.directYuvIngest = toggle;
+    }
+
+    protected long lastIngestTime;
+
+    /**
+     * @return time in ms spent on converting last frame data to matrix
+     */
+    public long getLastIngestTime() {
+        return lastIngestTime;
+    }
+
     /**
      * @return last frame containing circled objects if it has been detected or without it otherwise
      */
@@ -76,6 +123,10 @@ public abstract class AbstractObjectDetector {
 
     protected abstract void afterVideoDetect(File videoFile, int framesCount);
 
+    /**
+     * @throws RuntimeException if decoding failed or detection was interrupted (interrupt flag is restored), so
+     *                          partially processed video is not reported as complete one
+     */
     public synchronized ObjectDetectVideoInfo detectObjectsInVideoFile(File videoFile, int framesCount, DetectorSensivity sensitivity,
                                                                        List<Point> region, File savedFramesDir) {
         logger.debug("detectObjectsInVideoFile(), videoFile=" + videoFile + ", framesCount=" + framesCount + ", sensitivity=" + sensitivity
@@ -85,11 +136,12 @@ public abstract class AbstractObjectDetector {
 
         final long startTime = System.currentTimeMillis();
 
-        final Map<Long, Bitmap> retrievedFrames = MetadataRetriever.extractFrames(videoFile, framesCount <= 1 ? FRAMES_TO_ANALYZE_COUNT_DEFAULT
+        final VideoFramePipeline pipeline = new VideoFramePipeline(videoFile, framesCount <= 1 ? FRAMES_TO_ANALYZE_COUNT_DEFAULT
                 : framesCount);
 
-        if (retrievedFrames.isEmpty()) {
-            throw new RuntimeException("retrievedFrames is null or empty");
+        if (!pipeline.getFrameIterator().hasNext()) {
+            pipeline.close();
+            throw new RuntimeException("no frames to retrieve from " + videoFile);
         }
 
         List<ObjectDetectFrameInfo> frameInfos = new ArrayList<ObjectDetectFrameInfo>();
@@ -99,64 +151,72 @@ public abstract class AbstractObjectDetector {
         int detectedFramesCount = 0;
         List<Long> detectedFramesPositions = new ArrayList<Long>();
 
-        for (Map.Entry<Long, Bitmap> currentFrame : retrievedFrames.entrySet()) {
+        try {
+            pipeline.start();
 
-            Bitmap frameBitmap = currentFrame.getValue();
+            VideoFramePipeline.PreparedFrame currentFrame;
 
-            if (frameBitmap == null) {
-                logger.error("video frame at " + currentFrame.getKey() + " ms is null");
-                continue;
-            }
+            while ((currentFrame = pipeline.takeFrame()) != null) {
 
-            if (frameBitmap.getConfig() != Bitmap.Config.RGB_565) {
-                Bitmap convertedBitmap = GraphicUtils.reconfigureBitmap(frameBitmap, Bitmap.Config.RGB_565);
-                if (convertedBitmap != null && GraphicUtils.getBitmapByteCount(convertedBitmap) > 0) {
-                    frameBitmap.recycle();
-                    frameBitmap = convertedBitmap;
-                } else {
-                    logger.error("conversion to RGB_565 failed");
-                    continue;
-                }
-            }
+                extractedFramesCount++;
 
-            extractedFramesCount++;
+                if (savedFramesDir != null) {
+                    logger.debug("saving source frame (position " + currentFrame.getPositionMs() + " ms) to file...");
 
-            if (savedFramesDir != null) {
-                logger.debug("saving source frame (position " + currentFrame.getKey() + " ms) to file...");
+                    pipeline.persist(new File(videoFile.getName() + "_"
+                            + currentFrame.getPositionMs() + "_ms", savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
+                            + File.separator + SOURCE_FRAME_DIR), currentFrame.detachBitmap(), Bitmap.CompressFormat.PNG);
+                }
 
-                GraphicUtils.writeCompressedBitmapToFile(new File(videoFile.getName() + "_"
-                        + currentFrame.getKey() + "_ms", savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
-                        + File.separator + SOURCE_FRAME_DIR), frameBitmap, Bitmap.CompressFormat.PNG);
+                ObjectDetectFrameInfo info = detectObjectByByteArray(currentFrame.getData(), true, 0, currentFrame.getWidth(),
+                        currentFrame.getHeight(), sensitivity, region);
+                frameInfos.add(info);
 
-            }
+                currentFrame.recycle();
 
-            ObjectDetectFrameInfo info = detectObjectByByteArray(GraphicUtils.getBitmapData(frameBitmap), true, 0, frameBitmap.getWidth(),
-                    frameBitmap.getHeight(), sensitivity, region);
-            frameInfos.add(info);
+                if (info == null) {
+                    logger.error("no detection result for frame at " + currentFrame.getPositionMs() + " ms");
+                    continue;
+                }
 
-            Mat resultMat = OpenCvUtils.convertByteArrayToMat(info.getSceneImage(), info.getWidth(), info.getHeight(), info.getType());
-            frameBitmap = OpenCvUtils.convertMatToBitmap(resultMat, true);
+                if (info.detected()) {
 
-            if (info.detected()) {
+                    logger.info(info.getObjects() + " object(s) detected in file " + videoFile.getName() + ", position: "
+                            + currentFrame.getPositionMs() + " ms");
 
-                logger.info(info.getObjects() + " object(s) detected in file " + videoFile.getName() + ", position: "
-                        + currentFrame.getKey() + " ms");
+                    detectedFramesPositions.add(currentFrame.getPositionMs());
+                    detectedFramesCount++;
 
-                detectedFramesPositions.add(currentFrame.getKey());
-                detectedFramesCount++;
+                    if (savedFramesDir != null) {
+                        logger.debug("saving detected frame (position " + currentFrame.getPositionMs() + " ms) to file...");
 
-                if (savedFramesDir != null) {
-                    logger.debug("saving detected frame (position " + currentFrame.getKey() + " ms) to file...");
+                        Bitmap frameBitmap;
 
-                    GraphicUtils.writeCompressedBitmapToFile(new File(videoFile.getName() + "_"
-                            + currentFrame.getKey() + "_ms", savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
-                            + File.separator + DETECTED_FRAME_DIR), frameBitmap, Bitmap.CompressFormat.PNG);
-                }
-            }
+                        if (info.hasSceneImage()) {
+                            Mat resultMat = OpenCvUtils.convertByteArrayToMat(info.getSceneImage(), info.getWidth(), info.getHeight(), info.getType());
+                            frameBitmap = OpenCvUtils.convertMatToBitmap(resultMat, true);
+                            if (resultMat != null) {
+                                resultMat.release();
+                            }
+                        } else {
+                            frameBitmap = getLastFrame();
+                        }
 
-            if (frameBitmap != null) {
-                frameBitmap.recycle();
+                        if (frameBitmap != null) {
+                            pipeline.persist(new File(videoFile.getName() + "_"
+                                    + currentFrame.getPositionMs() + "_ms", savedFramesDir.getAbsolutePath() + File.separator + videoFile.getName()
+                                    + File.separator + DETECTED_FRAME_DIR), frameBitmap, Bitmap.CompressFormat.PNG);
+                        }
+                    }
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // frames seen so far are not the whole video, so partial result is not returned
+            throw new RuntimeException("detection in " + videoFile + " was interrupted after " + extractedFramesCount + " frame(s)", e);
+        } finally {
+            pipeline.close();
+            afterVideoDetect(videoFile, framesCount);
         }
 
         final long detectionTime = System.currentTimeMillis() - startTime;
@@ -164,10 +224,8 @@ public abstract class AbstractObjectDetector {
         logger.info("object(s) has been detected: " + (detectedFramesCount > 0) + " (in " + extractedFramesCount + " frame(s))");
         logger.info("detection processing time: " + detectionTime + " ms");
 
-        afterVideoDetect(videoFile, framesCount);
-
-        return new ObjectDetectVideoInfo(videoFile, (detectedFramesCount > 0),
-                (double) detectedFramesCount / (double) extractedFramesCount, detectedFramesPositions, frameInfos, detectionTime);
+        return new ObjectDetectVideoInfo(videoFile, (detectedFramesCount > 0), extractedFramesCount > 0 ? (double) detectedFramesCount
+                / (double) extractedFramesCount : 0, detectedFramesPositions, frameInfos, detectionTime);
     }
 
     public static List<ObjectDetectVideoInfo> testObjectDetector(AbstractObjectDetector detector, String videosPath, String detectInfoName,
@@ -183,32 +241,14 @@ public abstract class AbstractObjectDetector {
             throw new NullPointerException("detectorSettings is null");
         }
 
-        if (!FileHelper.isDirExists(videosPath)) {
-            throw new RuntimeException("directory " + videosPath + " is not exist");
-        }
-
-        File videosDir = new File(videosPath);
-        File[] files = videosDir.listFiles();
+        List<File> files = VideoBatchRunner.listVideoFiles(videosPath);
 
-        if (files == null || files.length == 0) {
-            throw new RuntimeException("no files to test");
-        }
-
-        List<ObjectDetectVideoInfo> detectVideoInfos = new ArrayList<ObjectDetectVideoInfo>(files.length);
+        List<ObjectDetectVideoInfo> detectVideoInfos = new ArrayList<ObjectDetectVideoInfo>(files.size());
 
         for (File file : files) {
 
-            if (file.isDirectory()) {
-                continue;
-            }
-
-            if (!FileHelper.isFileCorrect(file) || !FileHelper.isVideo(FileHelper.getFileExtension(file.getName()))
-                    || MetadataRetriever.extractMediaDuration(file) <= 0) {
-                logger.error("incorrect video file: " + file);
-                continue;
-            }
-
             logger.info("detecting objects in video file " + file + "...");
+            detector.setResultMode(detectorSettings.getResultMode());
             ObjectDetectVideoInfo i = detector.detectObjectsInVideoFile(file, detectorSettings.getFramesToAnalyze(),
                     detectorSettings.getSensitivity(), detectorSettings.getRegion(),
                     (savedFramesPath != null && savedFramesPath.length() > 0) ? new File(savedFramesPath) : null);
@@ -223,4 +263,44 @@ public abstract class AbstractObjectDetector {
         return detectVideoInfos;
     }
 
+    /**
+     * same as {@link #testObjectDetector(AbstractObjectDetector, String, String, String, ObjectDetectorSettings)}, but processes up to threadsCount video
+     * files at once; each worker uses its own detector created by factory, results are in order of file names
+     */
+    public static List<ObjectDetectVideoInfo> testObjectDetector(VideoBatchRunner.DetectorFactory<? extends AbstractObjectDetector> factory, int threadsCount,
+                                                                 String videosPath, String detectInfoName, String savedFramesPath,
+                                                                 final ObjectDetectorSettings detectorSettings) {
+        logger.debug("testObjectDetector(), factory=" + factory + ", threadsCount=" + threadsCount + ", videosPath=" + videosPath
+                + ", detectInfoName=" + detectInfoName + ", savedFramesPath=" + savedFramesPath + ", detectorSettings=" + detectorSettings);
+
+        if (detectorSettings == null) {
+            throw new NullPointerException("detectorSettings is null");
+        }
+
+        final File savedFramesDir = (savedFramesPath != null && savedFramesPath.length() > 0) ? new File(savedFramesPath) : null;
+
+        VideoBatchRunner<AbstractObjectDetector, ObjectDetectVideoInfo> runner = new VideoBatchRunner<AbstractObjectDetector, ObjectDetectVideoInfo>(factory, threadsCount) {
+
+            @Override
+            protected ObjectDetectVideoInfo detect(AbstractObjectDetector detector, File videoFile) {
+                detector.setResultMode(detectorSettings.getResultMode());
+                ObjectDetectVideoInfo i = detector.detectObjectsInVideoFile(videoFile, detectorSettings.getFramesToAnalyze(),
+                        detectorSettings.getSensitivity(), detectorSettings.getRegion(), savedFramesDir);
+                logger.info("i=" + i);
+                return i;
+            }
+
+            @Override
+            protected void releaseDetector(AbstractObjectDetector detector) {
+                detector.release();
+            }
+        };
+
+        List<ObjectDetectVideoInfo> detectVideoInfos = runner.run(VideoBatchRunner.listVideoFiles(videosPath));
+
+        if (detectInfoName != null && detectInfoName.length() > 0)
+            FileHelper.writeStringToFile(new File(videosPath, detectInfoName), detectVideoInfos.toString(), false);
+
+        return detectVideoInfos;
+    }
 }
@@ -23,12 +23,16 @@ import net.maxsmr.opencv.androiddetector.object.cascade.classifiers.ClassifierRe
 import net.maxsmr.opencv.commondetector.model.DetectorSensivity;
 import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
+import net.maxsmr.opencv.commondetector.model.graphic.Rect;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 import net.maxsmr.opencv.commondetector.object.cascade.AbstractClassifierDetector;
 import net.maxsmr.opencv.commondetector.object.cascade.BaseClassifierDetector;
 import net.maxsmr.opencv.commondetector.object.cascade.CarClassifierDetector;
 
 
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
 public class ClassifierDetector extends AbstractObjectDetector {
@@ -41,7 +45,7 @@ public class ClassifierDetector extends AbstractObjectDetector {
 
     private ObjectType objectType = DEFAULT_OBJECT_TYPE;
 
-    private AbstractClassifierDetector classifierDetector;
+    private volatile AbstractClassifierDetector classifierDetector;
 
     private boolean grayscale = AbstractClassifierDetector.DEFAULT_GRAYSCALE;
 
@@ -49,6 +53,9 @@ public class ClassifierDetector extends AbstractObjectDetector {
 
     private Mat lastFrame;
 
+    /** objects not drawn on last frame yet ({@link ResultMode#RESULT_ONLY} mode) */
+    private List<Rect> lastFrameObjects;
+
     public ObjectType getObjectType() {
         return objectType;
     }
@@ -105,6 +112,7 @@ public class ClassifierDetector extends AbstractObjectDetector {
         classifierDetector.setContourThickness(getContourThickness());
         classifierDetector.setGrayscale(grayscale);
         classifierDetector.setSavedFramesDir(savedFramesDir);
+        classifierDetector.setResultMode(getResultMode());
     }
 
     public boolean grayscale() {
@@ -154,11 +162,35 @@ public class ClassifierDetector extends AbstractObjectDetector {
         setSavedFramesDir(savedFramesDir);
     }
 
+    /**
+     * releases last frame; YUV buffers are leased from {@link MatPool} per frame and are not held by detector
+     */
+    @Override
+    public synchronized void release() {
+        if (lastFrame != null) {
+            lastFrame.release();
+            lastFrame = null;
+        }
+        lastFrameObjects = null;
+    }
+
     @Override
-    public Bitmap getLastFrame() {
+    public synchronized Bitmap getLastFrame() {
+        if (lastFrameObjects != null) {
+            AbstractClassifierDetector.drawObjects(lastFrame, lastFrameObjects, getContourColor(), getContourThickness());
+            lastFrameObjects = null;
+        }
         return OpenCvUtils.convertMatToBitmap(lastFrame, false);
     }
 
+    @Override
+    public void setResultMode(ResultMode mode) {
+        super.setResultMode(mode);
+
+        if (classifierDetector != null)
+            classifierDetector.setResultMode(getResultMode());
+    }
+
     @Override
     protected boolean updateLastFrame(Bitmap frame) {
 
@@ -173,14 +205,18 @@ public class ClassifierDetector extends AbstractObjectDetector {
                 lastFrame.release();
 
             lastFrame = mat;
+            lastFrameObjects = null;
             return true;
         }
 
         return false;
     }
 
+    /**
+     * not synchronized: frames of several streams can be detected in parallel, only last frame update is locked
+     */
     @Override
-    public synchronized ObjectDetectFrameInfo detectObjectByByteArray(byte[] data, boolean isRgb, int yuvFormat, int imageWidth,
+    public ObjectDetectFrameInfo detectObjectByByteArray(byte[] data, boolean isRgb, int yuvFormat, int imageWidth,
                                                                       int imageHeight, DetectorSensivity sensitivity, List<Point> region) {
         // logger.debug("detectObjectByByteArray(), isRgb=" + isRgb + ", yuvFormat=" + yuvFormat + ", imageWidth=" +
         // imageWidth + ", imageHeight=" + imageHeight + ", region=" + region);
@@ -204,7 +240,12 @@ public class ClassifierDetector extends AbstractObjectDetector {
             throw new IllegalArgumentException("incorrect image size: " + imageWidth + "x" + imageHeight);
         }
 
-        final Bitmap frameBitmap;
+        final long ingestStartTime = System.currentTimeMillis();
+
+        Mat frame = null;
+
+        // gray image of direct YUV ingest, used only for detection
+        Mat frameGray = null;
 
         if (!isRgb) {
 
@@ -212,17 +253,53 @@ public class ClassifierDetector extends AbstractObjectDetector {
                 throw new IllegalArgumentException("image format is not YUV: " + yuvFormat);
             }
 
-            frameBitmap = GraphicUtils.createBitmapByByteArray(GraphicUtils.convertYuvToJpeg(data, yuvFormat, imageWidth, imageHeight), 1);
+            if (isDirectYuvIngest() && OpenCvUtils.isYuvFormatSupported(yuvFormat, imageWidth)) {
+                // output frame has the same color space as jpeg decoded one
+                frame = new Mat();
+                frameGray = grayscale ? new Mat() : null;
+                // buffer is leased per frame: frames of several streams can be converted in parallel
+                final Mat yuvBuffer = OpenCvUtils.leaseYuvBuffer(MatPool.getShared(), yuvFormat, imageWidth, imageHeight);
+                final boolean converted;
+                try {
+                    converted = OpenCvUtils.convertYuvToRgba(data, yuvFormat, imageWidth, imageHeight, yuvBuffer, frame, frameGray);
+                } finally {
+                    MatPool.getShared().release(yuvBuffer);
+                }
+                if (!converted) {
+                    logger.error("direct yuv conversion failed, falling back to jpeg");
+                    frame.release();
+                    frame = null;
+                    if (frameGray != null) {
+                        frameGray.release();
+                        frameGray = null;
+                    }
+                }
+            }
+        }
 
-        } else {
+        if (frame == null) {
+
+            final Bitmap frameBitmap;
+
+            if (!isRgb) {
+
+                frameBitmap = GraphicUtils.createBitmapByByteArray(GraphicUtils.convertYuvToJpeg(data, yuvFormat, imageWidth, imageHeight), 1);
+
+            } else {
+
+                frameBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.RGB_565);
+                ByteBuffer frameBuffer = ByteBuffer.wrap(data);
+                frameBitmap.copyPixelsFromBuffer(frameBuffer);
+            }
 
-            frameBitmap = Bitmap.createBitmap(imageWidth, imageHeight, Bitmap.Config.RGB_565);
-            ByteBuffer frameBuffer = ByteBuffer.wrap(data);
-            frameBitmap.copyPixelsFromBuffer(frameBuffer);
+            if (frameBitmap == null || GraphicUtils.getBitmapByteCount(frameBitmap) == 0)
+                throw new RuntimeException("frameBitmap is null or empty");
+
+            frame = OpenCvUtils.convertBitmapToMat(frameBitmap);
+            frameBitmap.recycle();
         }
 
-        if (frameBitmap == null || GraphicUtils.getBitmapByteCount(frameBitmap) == 0)
-            throw new RuntimeException("frameBitmap is null or empty");
+        lastIngestTime = System.currentTimeMillis() - ingestStartTime;
 
         // if (savedFramesDir != null) {
         // logger.debug("saving source frame " + imageWidth + "x" + imageHeight + "...");
@@ -231,8 +308,6 @@ public class ClassifierDetector extends AbstractObjectDetector {
         // + SOURCE_FRAME_DIR);
         // }
 
-        Mat frame = OpenCvUtils.convertBitmapToMat(frameBitmap);
-
         // if (grayscale) {
         // logger.debug("converting color space to gray...");
         // Mat frameGray = OpenCvUtils.colorToGray(frame);
@@ -269,64 +344,96 @@ public class ClassifierDetector extends AbstractObjectDetector {
 
         if (frame != null) {
 
+            final AbstractClassifierDetector classifierDetector = this.classifierDetector;
+
             logger.debug("detecting objects by matrix " + frame.cols() + "x" + frame.rows() + "...");
-            ObjectDetectFrameInfo objInfo = classifierDetector == null ? null : classifierDetector.detect(frame, null, cvRegion);
+            ObjectDetectFrameInfo objInfo = null;
+            if (classifierDetector != null) {
+                final FrameContext context = new FrameContext(frame, frameGray);
+                try {
+                    objInfo = classifierDetector.detect(context, null, cvRegion, classifierDetector.getResultMode());
+                } finally {
+                    context.release();
+                }
+            }
+            if (frameGray != null) {
+                frameGray.release();
+            }
+            logger.debug("ingest time: " + lastIngestTime + " ms, detection time: " + (objInfo != null ? objInfo.getProcessingTime() : 0) + " ms");
 
-            Bitmap resultBitmap = null;
+            synchronized (this) {
+                onFrameDetected(frame, objInfo);
+            }
 
-            if (objInfo == null || !objInfo.detected()) {
-                resultBitmap = OpenCvUtils.convertMatToBitmap(frame, false);
-                frame.release();
-                if (resultBitmap != null && updateLastFrame(resultBitmap))
-                    resultBitmap.recycle();
-                else
-                    logger.error("incorrect last frame");
+            return objInfo;
+        }
 
-            } else {
+        return null;
+    }
 
-                frame.release();
+    /**
+     * takes ownership of frame: keeps it as last frame or releases it
+     */
+    private void onFrameDetected(Mat frame, ObjectDetectFrameInfo objInfo) {
 
-                if (objInfo.getSceneImage() != null && objInfo.getSceneImage().length != 0 && objInfo.getType() >= 0 && objInfo.getWidth() > 0
-                        && objInfo.getHeight() > 0) {
+        if (objInfo != null && !objInfo.hasSceneImage() && getResultMode() == ResultMode.RESULT_ONLY) {
+            // keep source frame as is, objects will be drawn by getLastFrame()
+            if (lastFrame != null)
+                lastFrame.release();
+            lastFrame = frame;
+            lastFrameObjects = objInfo.detected() ? objInfo.getObjects() : null;
+            return;
+        }
 
-                    Mat resultMat = OpenCvUtils.convertByteArrayToMat(objInfo.getSceneImage(), objInfo.getWidth(), objInfo.getHeight(),
-                            objInfo.getType());
+        Bitmap resultBitmap = null;
 
-                    // resultBitmap = Bitmap.createBitmap(objInfo.getWidth(), objInfo.getHeight(), Bitmap.Config.RGB_565);
-                    // ByteBuffer imageBuffer = ByteBuffer.wrap(objInfo.getSceneImage());
-                    // resultBitmap.copyPixelsFromBuffer(imageBuffer);
+        if (objInfo == null || !objInfo.detected()) {
+            resultBitmap = OpenCvUtils.convertMatToBitmap(frame, false);
+            frame.release();
+            if (resultBitmap != null && updateLastFrame(resultBitmap))
+                resultBitmap.recycle();
+            else
+                logger.error("incorrect last frame");
 
-                    resultBitmap = OpenCvUtils.convertMatToBitmap(resultMat, false);
+        } else {
 
-                    if (updateLastFrame(resultBitmap)) {
+            frame.release();
 
-                        // if (savedFramesDir != null) {
-                        // logger.debug("saving detected frame " + resultBitmap.getWidth() + "x" + resultBitmap.getHeight()
-                        // + "...");
-                        // FileHelper.writeCompressedBitmapToFile(resultBitmap, Bitmap.CompressFormat.PNG,
-                        // "frame_" + dateFormatter.format(new Date().getTime()), savedFramesDir.getAbsolutePath() +
-                        // File.separator
-                        // + DETECTED_FRAME_DIR);
-                        // }
-                        if (resultMat != null) {
-                            resultMat.release();
-                        }
-                        if (resultBitmap != null) {
-                            resultBitmap.recycle();
-                        }
-                    } else
-                        logger.error("incorrect last frame");
+            if (objInfo.getSceneImage() != null && objInfo.getSceneImage().length != 0 && objInfo.getType() >= 0 && objInfo.getWidth() > 0
+                    && objInfo.getHeight() > 0) {
 
-                } else
-                    logger.error("incorrect last frame data (length: " + (objInfo.getSceneImage() != null ? objInfo.getSceneImage().length : 0)
-                            + ")" + " or size (" + objInfo.getWidth() + "x" + objInfo.getHeight() + ") or type (" + objInfo.getType() + ")");
-            }
+                Mat resultMat = OpenCvUtils.convertByteArrayToMat(objInfo.getSceneImage(), objInfo.getWidth(), objInfo.getHeight(),
+                        objInfo.getType());
 
-            return objInfo;
+                // resultBitmap = Bitmap.createBitmap(objInfo.getWidth(), objInfo.getHeight(), Bitmap.Config.RGB_565);
+                // ByteBuffer imageBuffer = ByteBuffer.wrap(objInfo.getSceneImage());
+                // resultBitmap.copyPixelsFromBuffer(imageBuffer);
 
-        }
+                resultBitmap = OpenCvUtils.convertMatToBitmap(resultMat, false);
 
-        return null;
+                if (updateLastFrame(resultBitmap)) {
+
+                    // if (savedFramesDir != null) {
+                    // logger.debug("saving detected frame " + resultBitmap.getWidth() + "x" + resultBitmap.getHeight()
+                    // + "...");
+                    // FileHelper.writeCompressedBitmapToFile(resultBitmap, Bitmap.CompressFormat.PNG,
+                    // "frame_" + dateFormatter.format(new Date().getTime()), savedFramesDir.getAbsolutePath() +
+                    // File.separator
+                    // + DETECTED_FRAME_DIR);
+                    // }
+                    if (resultMat != null) {
+                        resultMat.release();
+                    }
+                    if (resultBitmap != null) {
+                        resultBitmap.recycle();
+                    }
+                } else
+                    logger.error("incorrect last frame");
+
+            } else
+                logger.error("incorrect last frame data (length: " + (objInfo.getSceneImage() != null ? objInfo.getSceneImage().length : 0)
+                        + ")" + " or size (" + objInfo.getWidth() + "x" + objInfo.getHeight() + ") or type (" + objInfo.getType() + ")");
+        }
     }
 
     @Override
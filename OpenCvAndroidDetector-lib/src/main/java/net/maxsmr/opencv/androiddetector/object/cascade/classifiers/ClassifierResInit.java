@@ -10,49 +10,54 @@ import org.slf4j.LoggerFactory;
 
 import android.content.Context;
 
-import net.maxsmr.commonutils.data.FileHelper;
 import net.maxsmr.opencv.androiddetector.R;
+import net.maxsmr.opencv.commondetector.object.cascade.CascadeModelStore;
 
 public class ClassifierResInit {
 
     private static final Logger logger = LoggerFactory.getLogger(ClassifierResInit.class);
 
+    private static final int[] CAR_MAIN_CLASSIFIERS = new int[]{R.raw.lbpcascade_car_1, R.raw.lbpcascade_car_2,
+            R.raw.lbpcascade_car_3, R.raw.lbpcascade_car_4};
+
+    private static final int CAR_CHECK_CLASSIFIER = R.raw.lbpcascade_car_check;
+
+    /**
+     * @return extracted main car classifiers; files which can't be extracted are skipped
+     */
     public List<File> getCarMainClassifiers() {
         List<File> mainClassifiers = new ArrayList<File>();
-        mainClassifiers.add(CarClassifier.CAR1.getDestFile(mContext));
-        mainClassifiers.add(CarClassifier.CAR2.getDestFile(mContext));
-        mainClassifiers.add(CarClassifier.CAR3.getDestFile(mContext));
-        mainClassifiers.add(CarClassifier.CAR4.getDestFile(mContext));
+        for (int resId : CAR_MAIN_CLASSIFIERS) {
+            File f = getModelFile(resId);
+            if (f != null) {
+                mainClassifiers.add(f);
+            }
+        }
         return mainClassifiers;
     }
 
     public File getCarCheckClassifier() {
-        return CarClassifier.CAR_CHECK.getDestFile(mContext);
+        return getModelFile(CAR_CHECK_CLASSIFIER);
     }
 
-    private static void copyCarClassifiers(Context context) throws IOException, InterruptedException {
-        logger.debug("copyCarClassifiers()");
-
-        FileHelper.copyRawFile(context, R.raw.lbpcascade_car_check, CarClassifier.CAR_CHECK.getDestFile(context),
-                FileHelper.FILE_PERMISSIONS_ALL);
-        FileHelper.copyRawFile(context, R.raw.lbpcascade_car_1, CarClassifier.CAR1.getDestFile(context),
-                FileHelper.FILE_PERMISSIONS_ALL);
-        FileHelper.copyRawFile(context, R.raw.lbpcascade_car_2, CarClassifier.CAR2.getDestFile(context),
-                FileHelper.FILE_PERMISSIONS_ALL);
-        FileHelper.copyRawFile(context, R.raw.lbpcascade_car_3, CarClassifier.CAR3.getDestFile(context),
-                FileHelper.FILE_PERMISSIONS_ALL);
-        FileHelper.copyRawFile(context, R.raw.lbpcascade_car_4, CarClassifier.CAR4.getDestFile(context),
-                FileHelper.FILE_PERMISSIONS_ALL);
+    private File getModelFile(int resId) {
+        try {
+            return CascadeModelStore.getInstance(mContext).getFile(resId);
+        } catch (IOException e) {
+            logger.error("an IOException occurred during getFile()", e);
+            return null;
+        }
     }
 
+    /**
+     * car cascades are extracted once by {@link CascadeModelStore}, here only lazy background loading is started
+     */
     private ClassifierResInit(Context context) {
         mContext = context;
-        try {
-            copyCarClassifiers(mContext);
-        } catch (Exception e) {
-            e.printStackTrace();
-            logger.error("an Exception occurred during copyRawFile()", e);
-        }
+        int[] resIds = new int[CAR_MAIN_CLASSIFIERS.length + 1];
+        System.arraycopy(CAR_MAIN_CLASSIFIERS, 0, resIds, 0, CAR_MAIN_CLASSIFIERS.length);
+        resIds[CAR_MAIN_CLASSIFIERS.length] = CAR_CHECK_CLASSIFIER;
+        CascadeModelStore.getInstance(mContext).preloadAsync(true, resIds);
     }
 
     private static ClassifierResInit mInstance;
@@ -1,7 +1,9 @@
 package net.maxsmr.opencv.commondetector.model.object.info;
 
+import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.model.graphic.Rect;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -13,11 +15,15 @@ public class ObjectDetectFrameInfo implements Serializable {
 
 	private byte[] sceneImage;
 
-	/** @return Mat data with given size and type */
+	/** @return Mat data with given size and type; null if detected in {@link ResultMode#RESULT_ONLY} mode */
 	public byte[] getSceneImage() {
 		return sceneImage;
 	}
 
+	public boolean hasSceneImage() {
+		return sceneImage != null && sceneImage.length > 0;
+	}
+
 	public void setSceneImage(byte[] sceneImage) {
 		this.sceneImage = sceneImage;
 	}
@@ -103,6 +109,47 @@ public class ObjectDetectFrameInfo implements Serializable {
 	}
 
 	
+	private List<Long> trackIds;
+
+	/** @return stable ids of tracks corresponding to objects (same order); null if objects are not tracked */
+	public List<Long> getTrackIds() {
+		return trackIds;
+	}
+
+	public boolean hasTrackIds() {
+		return trackIds != null && !trackIds.isEmpty();
+	}
+
+	public void setTrackIds(List<Long> trackIds) {
+		this.trackIds = trackIds;
+	}
+
+	
+	private List<Point> objectQuad;
+
+	/** @return corners of object projected onto scene by homography (clockwise from top-left); null if not localized */
+	public List<Point> getObjectQuad() {
+		return objectQuad;
+	}
+
+	public void setObjectQuad(List<Point> objectQuad) {
+		this.objectQuad = objectQuad;
+	}
+
+	
+	private int inliersCount;
+
+	/** @return number of matches consistent with estimated homography */
+	public int getInliersCount() {
+		return inliersCount;
+	}
+
+	public void setInliersCount(int inliersCount) {
+		if (inliersCount >= 0)
+			this.inliersCount = inliersCount;
+	}
+
+	
 	private long processingTime;
 
 	public long getProcessingTime() {
@@ -131,7 +178,7 @@ public class ObjectDetectFrameInfo implements Serializable {
 	public String toString() {
 		return "ObjectDetectFrameInfo [sceneImage (length)=" + (sceneImage != null ? sceneImage.length : 0) + ", type=" + type + ", width="
 				+ width + ", height=" + height + ", detected=" + detected + ", objectType=" + objectType + ", objects=" + objects
-				+ ", processingTime=" + processingTime + "]";
+				+ ", trackIds=" + trackIds + ", objectQuad=" + objectQuad + ", inliersCount=" + inliersCount + ", processingTime=" + processingTime + "]";
 	}
 
 }
@@ -15,4 +15,6 @@ public class DefaultObjectDetectorSettings {
     public final static ObjectType DEFAULT_OBJECT_TYPE = ObjectType.UNKNOWN;
 
     public final static boolean DEFAULT_GRAYSCALE = true; // AbstractClassifierDetector.DEFAULT_GRAYSCALE
+
+    public final static ResultMode DEFAULT_RESULT_MODE = ResultMode.FULL; // AbstractClassifierDetector.DEFAULT_RESULT_MODE
 }
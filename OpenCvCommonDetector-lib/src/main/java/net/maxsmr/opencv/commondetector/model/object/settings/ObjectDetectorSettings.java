@@ -112,6 +112,18 @@ public class ObjectDetectorSettings implements IDetectorSettings, Serializable {
 			this.type = type;
 	}
 
+	
+	ResultMode resultMode = DefaultObjectDetectorSettings.DEFAULT_RESULT_MODE;
+
+	public ResultMode getResultMode() {
+		return resultMode;
+	}
+
+	public void setResultMode(ResultMode resultMode) {
+		if (resultMode != null)
+			this.resultMode = resultMode;
+	}
+
 	public ObjectDetectorSettings() {
 	}
 
@@ -136,6 +148,7 @@ public class ObjectDetectorSettings implements IDetectorSettings, Serializable {
 		result = prime * result + framesToAnalyze;
 		result = prime * result + (grayscale ? 1231 : 1237);
 		result = prime * result + ((region == null) ? 0 : region.hashCode());
+		result = prime * result + ((resultMode == null) ? 0 : resultMode.hashCode());
 		result = prime * result + ((sensitivity == null) ? 0 : sensitivity.hashCode());
 		result = prime * result + (takePhoto ? 1231 : 1237);
 		result = prime * result + ((type == null) ? 0 : type.hashCode());
@@ -164,6 +177,8 @@ public class ObjectDetectorSettings implements IDetectorSettings, Serializable {
 				return false;
 		} else if (!region.equals(other.region))
 			return false;
+		if (resultMode != other.resultMode)
+			return false;
 		if (sensitivity != other.sensitivity)
 			return false;
 		if (takePhoto != other.takePhoto)
@@ -177,7 +192,7 @@ public class ObjectDetectorSettings implements IDetectorSettings, Serializable {
 	public String toString() {
 		return "ObjectDetectorSettings [sensitivity=" + sensitivity + ", frameToDetect=" + frameToDetect + ", takePhoto=" + takePhoto
 				+ ", framesToAnalyze=" + framesToAnalyze + ", grayscale=" + grayscale + ", debug=" + debug + ", region=" + region
-				+ ", type=" + type + "]";
+				+ ", type=" + type + ", resultMode=" + resultMode + "]";
 	}
 
 }
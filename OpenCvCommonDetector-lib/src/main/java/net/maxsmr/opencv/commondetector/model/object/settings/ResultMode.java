@@ -0,0 +1,10 @@
+package net.maxsmr.opencv.commondetector.model.object.settings;
+
+public enum ResultMode {
+
+    /** annotated scene image is copied into result */
+    FULL,
+
+    /** only objects geometry, type and processing time; scene image is not annotated or copied */
+    RESULT_ONLY
+}
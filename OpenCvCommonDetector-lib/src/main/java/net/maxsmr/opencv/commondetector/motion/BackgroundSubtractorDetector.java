@@ -2,24 +2,24 @@ package net.maxsmr.opencv.commondetector.motion;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.video.BackgroundSubtractorMOG;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import net.maxsmr.commonutils.data.FileHelper;
 import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
 
+import net.maxsmr.opencv.commondetector.utils.FrameArchiver;
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
+import net.maxsmr.opencv.commondetector.utils.RegionMask;
 
 public final class BackgroundSubtractorDetector extends BaseDetector implements IDetector {
 
@@ -58,9 +58,15 @@ public final class BackgroundSubtractorDetector extends BaseDetector implements
 			throw new IllegalArgumentException("incorrect minContourAreaRatio parameter: " + minContourAreaRatio);
 	}
 
-	/** ring image buffer */
+	/** pre-processed frame buffer, leased from pool */
 	private Mat buf = null;
 	private final Mat fgMask = new Mat();
+	private final Mat hierarchy = new Mat();
+
+	private final RegionMask regionMask = new RegionMask();
+
+	/** bounding rects of motion contours found on last frame */
+	private final List<Rect> motionRects = new ArrayList<Rect>();
 
 	private final BackgroundSubtractorMOG bg;
 
@@ -103,6 +109,17 @@ public final class BackgroundSubtractorDetector extends BaseDetector implements
 		setMinContourAreaRatio(minContourAreaRatio);
 	}
 
+	/**
+	 * @return bounding rects of motion contours found on last frame (copies), empty if nothing was found
+	 */
+	public synchronized List<Rect> getMotionRects() {
+		List<Rect> result = new ArrayList<Rect>(motionRects.size());
+		for (Rect r : motionRects) {
+			result.add(r.clone());
+		}
+		return result;
+	}
+
 	/** @param source 1, 3 or 4 channel mat */
 	@Override
 	public synchronized Mat detect(Mat source, List<Point> region) throws NullPointerException, IllegalArgumentException {
@@ -111,98 +128,86 @@ public final class BackgroundSubtractorDetector extends BaseDetector implements
 		if (source == null)
 			throw new NullPointerException("source mat is null");
 
-		if (source.empty())
-			throw new IllegalArgumentException("source mat is empty");
+		FrameContext context = new FrameContext(source, null, matPool);
+		try {
+			return detect(context, region);
+		} finally {
+			context.release();
+		}
+	}
+
+	/**
+	 * gray image is taken from context shared with other detectors; motion contours are drawn on source after that
+	 *
+	 * @return source of context
+	 */
+	public synchronized Mat detect(FrameContext context, List<Point> region) throws NullPointerException {
+
+		if (context == null)
+			throw new NullPointerException("context is null");
 
-		if (!(source.channels() == 1 || source.channels() == 3 || source.channels() == 4))
-			throw new IllegalArgumentException("incorrect source mat channels number: " + source.channels());
+		final Mat source = context.getSource();
 
 		if (getSavedFramesDir() != null) {
 			logger.debug("saving source frame " + source.width() + "x" + source.height() + "...");
 
-			long time = new Date().getTime();
-			FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath() + File.separator
-					+ SOURCE_FRAMES_DIR);
-			Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR + File.separator + "frame_"
-					+ dateFormatter.format(time) + ".png", source);
+			FrameArchiver.getShared().archive(source, getSavedFramesDir().getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR);
 		}
 
-		// get current frame size
-		Size size = source.size();
+		// shared pre-processed images must not be modified
+		Mat input = grayscale() ? context.getGray() : source;
 
-		// allocate images at the beginning or
-		// reallocate them if the frame size is changed
-		if (buf == null || buf.width() != size.width || buf.height() != size.height) {
-			if (buf == null) {
-				buf = new Mat(size, CvType.CV_8UC1);
-				buf = Mat.zeros(size, CvType.CV_8UC1);
-			}
-		}
+		if (getMorphKernelSize() > 0) {
 
-		switch (source.channels()) {
-		case 4:
-			if (grayscale()) {
-				logger.debug("converting RGBA color space to gray...");
-				Imgproc.cvtColor(source, buf, Imgproc.COLOR_RGBA2GRAY);
-			} else
-				buf = source.clone();
-			break;
-		case 3:
-			if (grayscale()) {
-				logger.debug("converting RGB color space to gray...");
-				Imgproc.cvtColor(source, buf, Imgproc.COLOR_RGB2GRAY);
-			} else
-				buf = source.clone();
-			break;
-		case 1:
-			source.copyTo(buf);
-			break;
-		}
+			// get current frame size
+			Size size = source.size();
+
+			// allocate buffer at the beginning or
+			// reallocate it if the frame size or type is changed
+			if (buf == null || buf.width() != size.width || buf.height() != size.height || buf.type() != input.type()) {
+				matPool.release(buf);
+				buf = matPool.lease(size, input.type());
+			}
 
-		if (getMorphKernelSize() > 0) {
 			logger.debug("applying morphology (kernel size:" + getMorphKernelSize() + ")...");
-			Mat morph = OpenCvUtils.doMorphology(buf, grayscale(), getMorphKernelSize());
-			buf.release();
-			buf = morph;
+			OpenCvUtils.doMorphology(input, buf, getMorphKernelSize());
+			input = buf;
 		}
 
-		if (buf == null || buf.empty())
+		if (input == null || input.empty())
 			throw new RuntimeException("pre-processing failed: image is null or empty");
 
 		if ((grayscale() || getMorphKernelSize() > 0) && getSavedFramesDir() != null) {
-			logger.debug("saving pre-processed frame " + buf.width() + "x" + buf.height() + "...");
+			logger.debug("saving pre-processed frame " + input.width() + "x" + input.height() + "...");
 
-			long time = new Date().getTime();
-			FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath() + File.separator
-					+ PRE_PROCESSED_FRAMES_DIR);
-			Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR + File.separator + "frame_"
-					+ dateFormatter.format(time) + ".png", buf);
+			FrameArchiver.getShared().archive(input, getSavedFramesDir().getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR);
 		}
 
-		bg.apply(buf, fgMask, learningRate); // apply() exports a gray image by definition
+		bg.apply(input, fgMask, learningRate); // apply() exports a gray image by definition
+
+		// region is applied at pixel level, so found contours are already inside it
+		regionMask.apply(fgMask, region);
 
 		List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
 
-		Imgproc.findContours(fgMask, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+		Imgproc.findContours(fgMask, contours, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
 		// logContours(contours, source.cols(), source.rows());
 
-		List<MatOfPoint> filteredContours = DetectorHelper.filterContours(contours, region);
-		// logContours(filteredContours, source.cols(), source.rows());
+		motionRects.clear();
+		for (MatOfPoint contour : contours) {
+			motionRects.add(Imgproc.boundingRect(contour));
+		}
 
-		if (filteredContours != null && filteredContours.size() > 0) {
+		if (contours.size() > 0) {
 
-			Imgproc.drawContours(source, filteredContours, -1, contourColor, contourThickness);
-			targetDetected = DetectorHelper.findTotalContourAreaRatio(filteredContours, source.cols(), source.rows()) >= minContourAreaRatio;
+			Imgproc.drawContours(source, contours, -1, contourColor, contourThickness);
+			targetDetected = DetectorHelper.findTotalContourAreaRatio(contours, source.cols(), source.rows()) >= minContourAreaRatio;
 
 			if (targetDetected) {
 				if (getSavedFramesDir() != null) {
 					logger.debug("saving detected frame " + source.width() + "x" + source.height() + "...");
 
-					long time = new Date().getTime();
-					FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath()
-							+ File.separator + DETECTED_FRAMES_DIR);
-					Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR + File.separator
-							+ "frame_" + dateFormatter.format(time) + ".png", source);
+					FrameArchiver.getShared().archive(source, getSavedFramesDir().getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR);
 				}
 			}
 
@@ -213,4 +218,12 @@ public final class BackgroundSubtractorDetector extends BaseDetector implements
 
 		return source;
 	}
+
+	@Override
+	public synchronized void release() {
+		motionRects.clear();
+		regionMask.release();
+		matPool.release(buf);
+		buf = null;
+	}
 }
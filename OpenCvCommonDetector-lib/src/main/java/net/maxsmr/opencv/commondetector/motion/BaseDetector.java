@@ -1,6 +1,7 @@
 package net.maxsmr.opencv.commondetector.motion;
 
 import net.maxsmr.commonutils.data.FileHelper;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
 
 import java.io.File;
 import java.text.SimpleDateFormat;
@@ -68,6 +69,24 @@ public abstract class BaseDetector implements IDetector {
             throw new IllegalArgumentException("incorrect morphKernelSize parameter: " + morphKernelSize);
     }
 
+    protected MatPool matPool = MatPool.getShared();
+
+    public MatPool getMatPool() {
+        return matPool;
+    }
+
+    /** @param pool pool for frame buffers; {@link MatPool#getShared()} if null */
+    public synchronized void setMatPool(MatPool pool) {
+        release();
+        this.matPool = pool != null ? pool : MatPool.getShared();
+    }
+
+    /**
+     * returns frame buffers to the pool; detector may be used after that, buffers will be leased again
+     */
+    public synchronized void release() {
+    }
+
     protected static final SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss.SSS", Locale.getDefault());
 
     protected static final String SOURCE_FRAMES_DIR = "source";
@@ -11,7 +11,7 @@ import org.opencv.core.Point;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
-import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
+import net.maxsmr.opencv.commondetector.utils.RegionMask;
 
 public final class BasicDetector extends BaseDetector implements IDetector {
 
@@ -25,6 +25,10 @@ public final class BasicDetector extends BaseDetector implements IDetector {
 	private Mat[] buf = null;
 	private int last = 0;
 
+	private final Mat hierarchy = new Mat();
+
+	private final RegionMask regionMask = new RegionMask();
+
 	private final int threshold;
 
 	public BasicDetector(int threshold) {
@@ -32,7 +36,7 @@ public final class BasicDetector extends BaseDetector implements IDetector {
 	}
 
 	@Override
-	public Mat detect(Mat source, List<Point> region) {
+	public synchronized Mat detect(Mat source, List<Point> region) {
 		Size size = source.size(); // get current frame size
 		int i, idx1 = last, idx2;
 		Mat silh;
@@ -42,11 +46,12 @@ public final class BasicDetector extends BaseDetector implements IDetector {
 		if (buf == null || buf[0].width() != size.width || buf[0].height() != size.height) {
 			if (buf == null) {
 				buf = new Mat[N];
+			} else {
+				matPool.release(buf);
 			}
 
 			for (i = 0; i < N; i++) {
-				buf[i] = new Mat(size, CvType.CV_8UC1);
-				buf[i] = Mat.zeros(size, CvType.CV_8UC1);
+				buf[i] = matPool.leaseZeros(size, CvType.CV_8UC1);
 			}
 		}
 		// convert frame to gray scale
@@ -65,17 +70,17 @@ public final class BasicDetector extends BaseDetector implements IDetector {
 		Imgproc.threshold(silh, silh, threshold, 255, Imgproc.THRESH_BINARY);
 		// logger.info("Computed threshold: " + computedThreshold);
 
+		// region is applied at pixel level, so found contours are already inside it
+		regionMask.apply(silh, region);
+
 		List<MatOfPoint> contours = new ArrayList<MatOfPoint>();
 
-		Imgproc.findContours(silh, contours, new Mat(), Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+		Imgproc.findContours(silh, contours, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
 		// logContours(contours, source.cols(), source.rows());
 
-		List<MatOfPoint> filteredContours = DetectorHelper.filterContours(contours, region);
-		// logContours(filteredContours, source.cols(), source.rows());
-
-		if (filteredContours != null && filteredContours.size() > 0) {
+		if (contours.size() > 0) {
 
-			Imgproc.drawContours(source, filteredContours, -1, contourColor, contourThickness);
+			Imgproc.drawContours(source, contours, -1, contourColor, contourThickness);
 			targetDetected = true;
 
 		} else {
@@ -85,4 +90,13 @@ public final class BasicDetector extends BaseDetector implements IDetector {
 		return source;
 	}
 
+	@Override
+	public synchronized void release() {
+		regionMask.release();
+		if (buf != null) {
+			matPool.release(buf);
+			buf = null;
+		}
+	}
+
 }
@@ -1,9 +1,6 @@
 package net.maxsmr.opencv.commondetector.motion;
 
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 
 import org.opencv.android.CameraBridgeViewBase.CvCameraViewFrame;
@@ -21,6 +18,9 @@ import org.slf4j.LoggerFactory;
 import android.content.Context;
 
 import net.maxsmr.opencv.commondetector.R;
+import net.maxsmr.opencv.commondetector.object.cascade.CascadeModelStore;
+import net.maxsmr.opencv.commondetector.object.cascade.ClassifierPool;
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
 
 
 public final class FaceDetector extends BaseDetector implements IDetector {
@@ -29,8 +29,8 @@ public final class FaceDetector extends BaseDetector implements IDetector {
 
 	private static final Scalar FACE_RECT_COLOR = new Scalar(0, 255, 0, 255);
 
-	private File cascadeFile;
-	private CascadeClassifier faceDetector;
+	/** instances of face cascade, extracted to model store once */
+	private ClassifierPool faceDetectorPool;
 	private float relativeFaceSize = 0.2f;
 	private int absoluteFaceSize = 0;
 
@@ -38,27 +38,13 @@ public final class FaceDetector extends BaseDetector implements IDetector {
 		try {
 			setMinFaceSize(faceSize);
 
-			// load cascade file from application resources
-			InputStream is = ctx.getResources().openRawResource(R.raw.lbpcascade_frontalface);
-			File cascadeDir = ctx.getDir("cascade", Context.MODE_PRIVATE);
-			cascadeFile = new File(cascadeDir, "lbpcascade_frontalface.xml");
-			FileOutputStream os = new FileOutputStream(cascadeFile);
-
-			byte[] buffer = new byte[4096];
-			int bytesRead;
-			while ((bytesRead = is.read(buffer)) != -1) {
-				os.write(buffer, 0, bytesRead);
-			}
-			is.close();
-			os.close();
-
-			faceDetector = new CascadeClassifier(cascadeFile.getAbsolutePath());
-			if (faceDetector.empty()) {
+			// cascade file is extracted from application resources only once
+			faceDetectorPool = CascadeModelStore.getInstance(ctx).getPool(R.raw.lbpcascade_frontalface);
+			if (!faceDetectorPool.preload()) {
 				logger.error("Failed to load cascade classifier");
-				faceDetector = null;
+				faceDetectorPool = null;
 			} else
-				logger.info("Loaded cascade classifier from " + cascadeFile.getAbsolutePath());
-			cascadeDir.delete();
+				logger.info("Loaded cascade classifier from " + faceDetectorPool.getFile());
 		} catch (IOException e) {
 			logger.error("Failed to load cascade. Exception thrown: " + e, e);
 		}
@@ -71,9 +57,25 @@ public final class FaceDetector extends BaseDetector implements IDetector {
 
 	@Override
 	public synchronized Mat detect(CvCameraViewFrame frame) {
-		Mat cameraRgbaFrame = frame.rgba();
+		// camera gray frame is used as is, without conversion
+		FrameContext context = new FrameContext(frame.rgba(), frame.gray());
+		try {
+			return detect(context);
+		} finally {
+			context.release();
+		}
+	}
+
+	/**
+	 * gray image is taken from context shared with other detectors; found faces are drawn on source
+	 *
+	 * @return source of context
+	 */
+	public synchronized Mat detect(FrameContext context) {
+		Mat cameraRgbaFrame = context.getSource();
+		final CascadeClassifier faceDetector = faceDetectorPool != null ? faceDetectorPool.lease() : null;
 		if (faceDetector != null) {
-			Mat cameraGrayFrame = frame.gray();
+			Mat cameraGrayFrame = context.getGray();
 			if (absoluteFaceSize == 0) {
 				int height = cameraGrayFrame.rows();
 				if (Math.round(height * relativeFaceSize) > 0) {
@@ -81,7 +83,11 @@ public final class FaceDetector extends BaseDetector implements IDetector {
 				}
 			}
 			MatOfRect faces = new MatOfRect();
-			faceDetector.detectMultiScale(cameraGrayFrame, faces, 1.1, 2, 2, new Size(absoluteFaceSize, absoluteFaceSize), new Size());
+			try {
+				faceDetector.detectMultiScale(cameraGrayFrame, faces, 1.1, 2, 2, new Size(absoluteFaceSize, absoluteFaceSize), new Size());
+			} finally {
+				faceDetectorPool.release(faceDetector);
+			}
 
 			Rect[] facesArray = faces.toArray();
 			for (int i = 0; i < facesArray.length; i++) {
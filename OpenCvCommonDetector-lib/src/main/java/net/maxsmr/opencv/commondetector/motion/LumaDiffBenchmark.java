@@ -0,0 +1,146 @@
+package net.maxsmr.opencv.commondetector.motion;
+
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * measures {@link LumaDiffDetector#detect(byte[], int, int, java.util.List)} on synthetic luma frames (noisy background
+ * with moving bright square); doesn't need OpenCV natives, so can be run on plain JVM by {@link #main(String[])} and
+ * used as reference for perf regression tests
+ */
+public final class LumaDiffBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(LumaDiffBenchmark.class);
+
+	public static final int DEFAULT_WIDTH = 640;
+	public static final int DEFAULT_HEIGHT = 480;
+	public static final int DEFAULT_FRAMES_COUNT = 100;
+	public static final int DEFAULT_ITERATIONS = 10;
+	public static final int DEFAULT_THRESHOLD = 25;
+
+	/** amplitude of background noise, less than {@link #DEFAULT_THRESHOLD} so only moving square is detected */
+	private static final int NOISE = 8;
+
+	private static final int BACKGROUND = 100;
+	private static final int FOREGROUND = 220;
+
+	public static final class Result {
+
+		public final int width;
+
+		public final int height;
+
+		public final int framesCount;
+
+		public final int iterations;
+
+		/** average time of detection on one frame */
+		public final long nanosPerFrame;
+
+		/** frames with detected motion in last iteration */
+		public final int detectedFrames;
+
+		Result(int width, int height, int framesCount, int iterations, long nanosPerFrame, int detectedFrames) {
+			this.width = width;
+			this.height = height;
+			this.framesCount = framesCount;
+			this.iterations = iterations;
+			this.nanosPerFrame = nanosPerFrame;
+			this.detectedFrames = detectedFrames;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [width=" + width + ", height=" + height + ", framesCount=" + framesCount + ", iterations=" + iterations
+					+ ", nanosPerFrame=" + nanosPerFrame + ", detectedFrames=" + detectedFrames + "]";
+		}
+	}
+
+	private LumaDiffBenchmark() {
+		throw new AssertionError("no instances.");
+	}
+
+	/**
+	 * @return luma planes of noisy background with bright square moving by one side of it per frame
+	 */
+	public static byte[][] createFrames(int width, int height, int framesCount, long seed) {
+
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("incorrect frame size: " + width + "x" + height);
+
+		if (framesCount <= 0)
+			throw new IllegalArgumentException("incorrect framesCount: " + framesCount);
+
+		final Random random = new Random(seed);
+		final int side = Math.max(1, Math.min(width, height) / 8);
+
+		final byte[][] frames = new byte[framesCount][width * height];
+
+		for (int f = 0; f < framesCount; f++) {
+
+			final byte[] frame = frames[f];
+
+			for (int i = 0; i < frame.length; i++) {
+				frame[i] = (byte) (BACKGROUND + random.nextInt(2 * NOISE + 1) - NOISE);
+			}
+
+			final int squareX = (f * side) % Math.max(1, width - side + 1);
+			final int squareY = (height - side) / 2;
+
+			for (int y = squareY; y < squareY + side; y++) {
+				for (int x = squareX; x < squareX + side; x++) {
+					frame[y * width + x] = (byte) FOREGROUND;
+				}
+			}
+		}
+
+		return frames;
+	}
+
+	public static Result run(int width, int height, int framesCount, int iterations) {
+
+		if (iterations <= 0)
+			throw new IllegalArgumentException("incorrect iterations: " + iterations);
+
+		final byte[][] frames = createFrames(width, height, framesCount, 0);
+
+		final LumaDiffDetector detector = new LumaDiffDetector(DEFAULT_THRESHOLD);
+
+		// warming up JIT
+		for (byte[] frame : frames) {
+			detector.detect(frame, width, height, null);
+		}
+
+		int detectedFrames = 0;
+
+		final long startTime = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			detectedFrames = 0;
+			for (byte[] frame : frames) {
+				if (detector.detect(frame, width, height, null)) {
+					detectedFrames++;
+				}
+			}
+		}
+
+		final long nanosPerFrame = (System.nanoTime() - startTime) / ((long) iterations * framesCount);
+
+		Result result = new Result(width, height, framesCount, iterations, nanosPerFrame, detectedFrames);
+		logger.info("benchmark result: " + result);
+		return result;
+	}
+
+	/**
+	 * @param args [width height [framesCount [iterations]]]
+	 */
+	public static void main(String[] args) {
+		final int width = args.length > 1 ? Integer.parseInt(args[0]) : DEFAULT_WIDTH;
+		final int height = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HEIGHT;
+		final int framesCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_FRAMES_COUNT;
+		final int iterations = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_ITERATIONS;
+		System.out.println(run(width, height, framesCount, iterations));
+	}
+}
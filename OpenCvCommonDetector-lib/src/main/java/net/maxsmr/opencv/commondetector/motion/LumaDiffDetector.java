@@ -0,0 +1,271 @@
+package net.maxsmr.opencv.commondetector.motion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+import net.maxsmr.opencv.commondetector.model.graphic.Rect;
+import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
+
+/**
+ * frame differencing on 8-bit luma planes in plain Java, counterpart of {@link BasicDetector}: current frame is compared
+ * with the oldest one of {@link #N} buffered frames, pixels with difference above threshold form foreground mask;
+ * {@link #detect(byte[], int, int, List)} does not use OpenCV natives and does not allocate while frame size and region
+ * are unchanged; see {@link LumaDiffBenchmark} for measuring it on plain JVM
+ */
+public final class LumaDiffDetector extends BaseDetector implements IDetector {
+
+	// private static final Logger logger = LoggerFactory.getLogger(LumaDiffDetector.class);
+
+	/** number of cyclic frame buffers, same as in {@link BasicDetector} */
+	public static final int N = BasicDetector.N;
+
+	/** changed pixels ratio starting from which motion is detected; 0 - any changed pixel */
+	public static final double DEFAULT_MIN_CHANGED_RATIO = 0;
+
+	public static final byte FOREGROUND = (byte) 0xFF;
+
+	private final int threshold;
+
+	private double minChangedRatio = DEFAULT_MIN_CHANGED_RATIO;
+
+	// ring luma buffer
+	private byte[][] buf = null;
+	private int last = 0;
+	private int framesCount = 0;
+
+	private int width = 0;
+	private int height = 0;
+
+	private byte[] mask = null;
+
+	// pixels inside region, null if region is not set
+	private byte[] regionMask = null;
+	private List<Point> maskRegion = null;
+	private int regionPixelsCount = 0;
+
+	private int changedPixelsCount = 0;
+	private double changedRatio = 0;
+
+	// bounds of foreground: minX, minY, maxX, maxY
+	private final int[] bounds = new int[4];
+
+	// used by detect(Mat, List) only
+	private Mat gray = null;
+	private byte[] grayData = null;
+
+	public LumaDiffDetector(int threshold) {
+		if (threshold < 0 || threshold > 255)
+			throw new IllegalArgumentException("incorrect threshold: " + threshold);
+		this.threshold = threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public synchronized double getMinChangedRatio() {
+		return minChangedRatio;
+	}
+
+	public synchronized void setMinChangedRatio(double ratio) {
+		if (ratio < 0 || ratio > 1)
+			throw new IllegalArgumentException("incorrect minChangedRatio: " + ratio);
+		this.minChangedRatio = ratio;
+	}
+
+	/**
+	 * @param luma 8-bit luma plane, row by row without padding; Y plane of NV21 preview data can be passed as is, Y plane
+	 *             of YV12 only if width is multiple of 16 (otherwise its rows are padded)
+	 * @param region polygon to account changed pixels in; whole frame if null or empty
+	 * @return true if motion is detected
+	 */
+	public synchronized boolean detect(byte[] luma, int width, int height, List<Point> region) {
+
+		if (width <= 0 || height <= 0)
+			throw new IllegalArgumentException("incorrect frame size: " + width + "x" + height);
+
+		final int total = width * height;
+
+		if (luma == null || luma.length < total)
+			throw new IllegalArgumentException("incorrect luma plane length: " + (luma != null ? luma.length : 0) + ", expected at least "
+					+ total);
+
+		// allocate buffers at the beginning or
+		// reallocate them if the frame size is changed
+		if (buf == null || this.width != width || this.height != height) {
+			buf = new byte[N][total];
+			mask = new byte[total];
+			this.width = width;
+			this.height = height;
+			last = 0;
+			framesCount = 0;
+			maskRegion = null;
+		}
+
+		updateRegionMask(region);
+
+		System.arraycopy(luma, 0, buf[last], 0, total);
+		final byte[] current = buf[last];
+
+		// oldest buffered frame or the first one while ring is not full
+		final byte[] previous = framesCount >= N ? buf[(last + 1) % N] : buf[(last + N - framesCount) % N];
+
+		last = (last + 1) % N;
+		if (framesCount < N) {
+			framesCount++;
+		}
+
+		final byte[] mask = this.mask;
+		final byte[] regionMask = this.regionMask;
+		final int threshold = this.threshold;
+
+		int changed = 0;
+		int minX = width, minY = height, maxX = -1, maxY = -1;
+
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				int d = (current[i] & 0xFF) - (previous[i] & 0xFF);
+				if (d < 0) {
+					d = -d;
+				}
+				if (d > threshold && (regionMask == null || regionMask[i] != 0)) {
+					mask[i] = FOREGROUND;
+					changed++;
+					if (x < minX)
+						minX = x;
+					if (x > maxX)
+						maxX = x;
+					if (y < minY)
+						minY = y;
+					maxY = y;
+				} else {
+					mask[i] = 0;
+				}
+			}
+		}
+
+		bounds[0] = minX;
+		bounds[1] = minY;
+		bounds[2] = maxX;
+		bounds[3] = maxY;
+
+		changedPixelsCount = changed;
+		final int accountedPixels = regionMask != null ? regionPixelsCount : total;
+		changedRatio = accountedPixels > 0 ? (double) changed / (double) accountedPixels : 0;
+
+		targetDetected = changed > 0 && changedRatio >= minChangedRatio;
+		return targetDetected;
+	}
+
+	private void updateRegionMask(List<Point> region) {
+
+		if (region == null || region.isEmpty()) {
+			regionMask = null;
+			maskRegion = null;
+			regionPixelsCount = 0;
+			return;
+		}
+
+		if (regionMask != null && region.equals(maskRegion)) {
+			return;
+		}
+
+		final byte[] regionMask = new byte[width * height];
+		final Point p = new Point();
+		int count = 0;
+
+		for (int y = 0, i = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, i++) {
+				p.x = x;
+				p.y = y;
+				if (DetectorHelper.isPointInPolygon(region, p)) {
+					regionMask[i] = 1;
+					count++;
+				}
+			}
+		}
+
+		this.regionMask = regionMask;
+		this.maskRegion = new ArrayList<Point>(region);
+		this.regionPixelsCount = count;
+	}
+
+	/**
+	 * @return foreground mask of last frame ({@link #FOREGROUND} or 0 for each pixel); buffer is reused by next
+	 *         detection
+	 */
+	public synchronized byte[] getForegroundMask() {
+		return mask;
+	}
+
+	public synchronized int getChangedPixelsCount() {
+		return changedPixelsCount;
+	}
+
+	/** @return changed pixels count related to frame or region pixels count */
+	public synchronized double getChangedRatio() {
+		return changedRatio;
+	}
+
+	/** @return bounding rect of foreground of last frame or null if nothing is changed */
+	public synchronized Rect getForegroundBounds() {
+		if (changedPixelsCount == 0) {
+			return null;
+		}
+		return new Rect(bounds[0], bounds[1], bounds[2] - bounds[0] + 1, bounds[3] - bounds[1] + 1);
+	}
+
+	/**
+	 * same as {@link #detect(byte[], int, int, List)} for frames from camera or video; bounding rect of foreground is
+	 * drawn on source
+	 */
+	@Override
+	public synchronized Mat detect(Mat source, List<Point> region) {
+
+		final int rows = source.rows();
+		final int cols = source.cols();
+
+		if (gray == null || gray.rows() != rows || gray.cols() != cols) {
+			matPool.release(gray);
+			gray = matPool.lease(rows, cols, CvType.CV_8UC1);
+			grayData = new byte[rows * cols];
+		}
+
+		switch (source.channels()) {
+		case 4:
+			Imgproc.cvtColor(source, gray, Imgproc.COLOR_RGBA2GRAY);
+			break;
+		case 3:
+			Imgproc.cvtColor(source, gray, Imgproc.COLOR_BGR2GRAY);
+			break;
+		case 1:
+			source.copyTo(gray);
+			break;
+		default:
+			throw new IllegalArgumentException("incorrect source mat channels number: " + source.channels());
+		}
+
+		gray.get(0, 0, grayData);
+
+		if (detect(grayData, cols, rows, region)) {
+			Core.rectangle(source, new Point(bounds[0], bounds[1]), new Point(bounds[2], bounds[3]), contourColor, contourThickness);
+		}
+
+		return source;
+	}
+
+	@Override
+	public synchronized void release() {
+		if (gray != null) {
+			matPool.release(gray);
+			gray = null;
+			grayData = null;
+		}
+	}
+}
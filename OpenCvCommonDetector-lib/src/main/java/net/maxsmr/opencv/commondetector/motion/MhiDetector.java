@@ -42,16 +42,84 @@ public final class MhiDetector extends BaseDetector implements IDetector {
 	// motion segmentation map
 	private Mat segmask = null;
 
+	private static final Scalar ZERO = new Scalar(0);
+
 	private final int threshold;
 
+	public static final boolean DEFAULT_PERSISTENT_HISTORY = false;
+
+	private boolean persistentHistory = DEFAULT_PERSISTENT_HISTORY;
+
+	// timestamp of first frame in current history (ms), -1 if history is empty
+	private long historyStartTime = -1;
+
+	private long lastTimestamp = -1;
+
 	public MhiDetector(int threshold) {
 		this.threshold = threshold;
 	}
 
+	public synchronized boolean isPersistentHistory() {
+		return persistentHistory;
+	}
+
+	/**
+	 * @param toggle if true, MHI is kept and updated in place across frames, so history-based segmentation accounts
+	 *            previous frames within {@link #MHI_DURATION}; otherwise history is cleared on each frame
+	 */
+	public synchronized void setPersistentHistory(boolean toggle) {
+		if (persistentHistory != toggle) {
+			persistentHistory = toggle;
+			resetHistory();
+		}
+	}
+
+	/**
+	 * clears motion history and frame buffers, e.g. before feeding frames of another video
+	 */
+	public synchronized void resetHistory() {
+		if (mhi != null) {
+			mhi.setTo(ZERO);
+		}
+		if (buf != null) {
+			for (Mat m : buf) {
+				m.setTo(ZERO);
+			}
+		}
+		historyStartTime = -1;
+		lastTimestamp = -1;
+	}
+
+	/**
+	 * uses current system time as frame timestamp
+	 */
 	@Override
 	public synchronized Mat detect(Mat source, List<Point> region) {
-		// get current time in seconds
-		double timestamp = System.currentTimeMillis() / 1000.0;
+		return detect(source, region, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param timestampMs frame timestamp, e.g. presentation time of video frame; history is reset if it's less than
+	 *            timestamp of previous frame
+	 */
+	public synchronized Mat detect(Mat source, List<Point> region, long timestampMs) {
+
+		if (timestampMs < 0)
+			throw new IllegalArgumentException("incorrect timestampMs: " + timestampMs);
+
+		if (lastTimestamp >= 0 && timestampMs < lastTimestamp) {
+			// seek back or next video
+			resetHistory();
+		}
+
+		if (historyStartTime < 0) {
+			historyStartTime = timestampMs;
+		}
+		lastTimestamp = timestampMs;
+
+		// timestamp in seconds relative to history start; shifted by MHI_DURATION, so zero (empty) MHI pixels are
+		// always out of duration
+		double timestamp = MHI_DURATION + (timestampMs - historyStartTime) / 1000.0;
 		Size size = source.size(); // get current frame size
 		int i, idx1 = last, idx2;
 		Mat silh;
@@ -65,18 +133,20 @@ public final class MhiDetector extends BaseDetector implements IDetector {
 		// allocate images at the beginning or
 		// reallocate them if the frame size is changed
 		if (mhi == null || mhi.width() != size.width || mhi.height() != size.height) {
-			if (buf == null) {
-				buf = new Mat[N];
-			}
+			// return buffers of previous size to the pool
+			release();
+			buf = new Mat[N];
 
 			for (i = 0; i < N; i++) {
-				buf[i] = new Mat(size, CvType.CV_8UC1);
-				buf[i] = Mat.zeros(size, CvType.CV_8UC1);
+				buf[i] = matPool.leaseZeros(size, CvType.CV_8UC1);
 			}
-			mhi = new Mat(size, CvType.CV_32FC1);
-			orient = new Mat(size, CvType.CV_32FC1);
-			segmask = new Mat(size, CvType.CV_32FC1);
-			mask = new Mat(size, CvType.CV_8UC1);
+			mhi = matPool.leaseZeros(size, CvType.CV_32FC1);
+			// history of previous size is dropped
+			historyStartTime = lastTimestamp = timestampMs;
+			timestamp = MHI_DURATION;
+			orient = matPool.lease(size, CvType.CV_32FC1);
+			segmask = matPool.lease(size, CvType.CV_32FC1);
+			mask = matPool.lease(size, CvType.CV_8UC1);
 		}
 		// convert frame to gray scale
 		Imgproc.cvtColor(source, buf[last], Imgproc.COLOR_BGR2GRAY);
@@ -96,7 +166,9 @@ public final class MhiDetector extends BaseDetector implements IDetector {
 		// Log.i(TAG, "Computed threshold - " + computedThreshold);
 
 		// update MHI
-		mhi = Mat.zeros(size, CvType.CV_32FC1);
+		if (!persistentHistory) {
+			mhi.setTo(ZERO);
+		}
 		Video.updateMotionHistory(silh, mhi, timestamp, MHI_DURATION);
 
 		// convert MHI to blue 8u image
@@ -177,4 +249,19 @@ public final class MhiDetector extends BaseDetector implements IDetector {
 		return source;
 	}
 
+	@Override
+	public synchronized void release() {
+		if (buf != null) {
+			matPool.release(buf);
+			buf = null;
+		}
+		matPool.release(mhi);
+		matPool.release(orient);
+		matPool.release(segmask);
+		matPool.release(mask);
+		mhi = orient = segmask = mask = null;
+		historyStartTime = -1;
+		lastTimestamp = -1;
+	}
+
 }
@@ -0,0 +1,349 @@
+package net.maxsmr.opencv.commondetector.motion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.opencv.commondetector.utils.DetectorExecutors;
+import net.maxsmr.opencv.commondetector.utils.RegionMask;
+
+/**
+ * frame differencing split into grid of tiles which are diffed, thresholded and counted in parallel; besides
+ * {@link #isDetected()} gives per-tile activity matrix (changed pixels ratio of each tile) as coarse map of motion
+ */
+public final class TiledMotionDetector extends BaseDetector implements IDetector {
+
+	private static final Logger logger = LoggerFactory.getLogger(TiledMotionDetector.class);
+
+	public static final int DEFAULT_TILE_ROWS = 4;
+	public static final int DEFAULT_TILE_COLS = 4;
+
+	/** changed pixels ratio of tile starting from which it's considered active */
+	public static final double DEFAULT_MIN_TILE_ACTIVITY = 0.01;
+
+	private final int threshold;
+
+	private final int tileRows;
+	private final int tileCols;
+
+	private final ExecutorService executor;
+
+	private double minTileActivity = DEFAULT_MIN_TILE_ACTIVITY;
+
+	// current and previous gray frames
+	private final Mat[] buf = new Mat[2];
+	private int last = 0;
+	private boolean hasPrevious = false;
+
+	private Mat diff = null;
+
+	private Rect[] tiles = null;
+
+	// tile submats of buf[0], buf[1] and diff
+	private Mat[][] bufTiles = null;
+	private Mat[] diffTiles = null;
+
+	private final double[] activity;
+	private int activeTilesCount = 0;
+
+	private final RegionMask regionMask = new RegionMask();
+
+	// region pixels count of each tile, recounted only when region mask is compiled or tiles are changed
+	private int[] tileRegionPixels = null;
+	private int tileRegionPixelsVersion = -1;
+
+	public TiledMotionDetector(int threshold) {
+		this(threshold, DEFAULT_TILE_ROWS, DEFAULT_TILE_COLS, null);
+	}
+
+	/**
+	 * @param executor executor to process tiles on; {@link DetectorExecutors#getShared()} if null
+	 */
+	public TiledMotionDetector(int threshold, int tileRows, int tileCols, ExecutorService executor) {
+
+		if (tileRows <= 0 || tileCols <= 0)
+			throw new IllegalArgumentException("incorrect tiles grid: " + tileCols + "x" + tileRows);
+
+		this.threshold = threshold;
+		this.tileRows = tileRows;
+		this.tileCols = tileCols;
+		this.executor = executor != null ? executor : DetectorExecutors.getShared();
+		this.activity = new double[tileRows * tileCols];
+	}
+
+	public int getTileRows() {
+		return tileRows;
+	}
+
+	public int getTileCols() {
+		return tileCols;
+	}
+
+	public synchronized double getMinTileActivity() {
+		return minTileActivity;
+	}
+
+	public synchronized void setMinTileActivity(double activity) {
+		if (activity < 0 || activity > 1)
+			throw new IllegalArgumentException("incorrect minTileActivity: " + activity);
+		this.minTileActivity = activity;
+	}
+
+	/**
+	 * @return changed pixels ratio of each tile of last frame, [tileRows][tileCols]
+	 */
+	public synchronized double[][] getActivity() {
+		double[][] result = new double[tileRows][tileCols];
+		for (int r = 0; r < tileRows; r++) {
+			System.arraycopy(activity, r * tileCols, result[r], 0, tileCols);
+		}
+		return result;
+	}
+
+	public synchronized int getActiveTilesCount() {
+		return activeTilesCount;
+	}
+
+	/**
+	 * @return rects of tiles which activity of last frame is not less than min tile activity
+	 */
+	public synchronized List<Rect> getActiveTiles() {
+		List<Rect> result = new ArrayList<Rect>();
+		if (tiles != null) {
+			for (int i = 0; i < tiles.length; i++) {
+				if (activity[i] >= minTileActivity && activity[i] > 0) {
+					result.add(tiles[i].clone());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @throws RuntimeException if interrupted during waiting tiles (interrupt flag is restored); frame is not evaluated
+	 *                          then and activity of previous frame is kept
+	 */
+	@Override
+	public synchronized Mat detect(Mat source, List<Point> region) {
+
+		final int rows = source.rows();
+		final int cols = source.cols();
+
+		// allocate images at the beginning or
+		// reallocate them if the frame size is changed
+		if (diff == null || diff.rows() != rows || diff.cols() != cols) {
+			release();
+			allocate(rows, cols);
+		}
+
+		final Mat current = buf[last];
+
+		// convert frame to gray scale
+		switch (source.channels()) {
+		case 4:
+			Imgproc.cvtColor(source, current, Imgproc.COLOR_RGBA2GRAY);
+			break;
+		case 3:
+			Imgproc.cvtColor(source, current, Imgproc.COLOR_BGR2GRAY);
+			break;
+		case 1:
+			source.copyTo(current);
+			break;
+		default:
+			throw new IllegalArgumentException("incorrect source mat channels number: " + source.channels());
+		}
+
+		final int currentIdx = last;
+		final int previousIdx = hasPrevious ? 1 - last : last;
+
+		last = 1 - last;
+		hasPrevious = true;
+
+		final Mat mask = regionMask.getMask(rows, cols, region);
+
+		if (mask != null && tileRegionPixelsVersion != regionMask.getVersion()) {
+			countTileRegionPixels(mask);
+			tileRegionPixelsVersion = regionMask.getVersion();
+		}
+
+		final int[] tileRegionPixels = mask != null ? this.tileRegionPixels : null;
+
+		// tasks write to tile submats reused by next frame, so all of them must be finished before return
+		final AtomicBoolean skipped = new AtomicBoolean(false);
+		final CountDownLatch finished = new CountDownLatch(tiles.length);
+
+		List<Future<Double>> futures = new ArrayList<Future<Double>>(tiles.length);
+
+		for (int i = 0; i < tiles.length; i++) {
+			final int tileIdx = i;
+			try {
+				futures.add(executor.submit(new Callable<Double>() {
+					@Override
+					public Double call() throws Exception {
+						try {
+							return skipped.get() ? 0 : processTile(tileIdx, bufTiles[currentIdx][tileIdx], bufTiles[previousIdx][tileIdx], mask,
+									tileRegionPixels);
+						} finally {
+							finished.countDown();
+						}
+					}
+				}));
+			} catch (RuntimeException e) {
+				skipped.set(true);
+				for (int j = i; j < tiles.length; j++) {
+					finished.countDown();
+				}
+				awaitTiles(finished, skipped);
+				throw e;
+			}
+		}
+
+		if (awaitTiles(finished, skipped)) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted during processing tiles, frame is not evaluated");
+		}
+
+		activeTilesCount = 0;
+
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				activity[i] = futures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("interrupted during getting result of tile " + i, e);
+				activity[i] = 0;
+			} catch (ExecutionException e) {
+				logger.error("processing of tile " + i + " failed", e.getCause());
+				activity[i] = 0;
+			}
+			if (activity[i] > 0 && activity[i] >= minTileActivity) {
+				activeTilesCount++;
+				Rect tile = tiles[i];
+				Core.rectangle(source, tile.tl(), tile.br(), contourColor, contourThickness);
+			}
+		}
+
+		targetDetected = activeTilesCount > 0;
+		return source;
+	}
+
+	/**
+	 * waits for all submitted tile tasks; if interrupted, not yet started tasks are skipped, but running ones are still
+	 * waited for
+	 *
+	 * @return true if current thread was interrupted
+	 */
+	private static boolean awaitTiles(CountDownLatch finished, AtomicBoolean skipped) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				finished.await();
+				return interrupted;
+			} catch (InterruptedException e) {
+				logger.error("interrupted during waiting tiles, skipping not started ones", e);
+				interrupted = true;
+				skipped.set(true);
+			}
+		}
+	}
+
+	private double processTile(int tileIdx, Mat current, Mat previous, Mat mask, int[] tileRegionPixels) {
+
+		final Mat d = diffTiles[tileIdx];
+
+		Core.absdiff(current, previous, d);
+		Imgproc.threshold(d, d, threshold, 255, Imgproc.THRESH_BINARY);
+
+		final Rect tile = tiles[tileIdx];
+		double accountedPixels = tile.area();
+
+		if (mask != null) {
+			Mat maskTile = mask.submat(tile);
+			Core.bitwise_and(d, maskTile, d);
+			maskTile.release();
+			accountedPixels = tileRegionPixels[tileIdx];
+		}
+
+		return accountedPixels > 0 ? Core.countNonZero(d) / accountedPixels : 0;
+	}
+
+	private void countTileRegionPixels(Mat mask) {
+		for (int i = 0; i < tiles.length; i++) {
+			Mat maskTile = mask.submat(tiles[i]);
+			tileRegionPixels[i] = Core.countNonZero(maskTile);
+			maskTile.release();
+		}
+	}
+
+	private void allocate(int rows, int cols) {
+
+		final Size size = new Size(cols, rows);
+		buf[0] = matPool.leaseZeros(size, CvType.CV_8UC1);
+		buf[1] = matPool.leaseZeros(size, CvType.CV_8UC1);
+		diff = matPool.lease(rows, cols, CvType.CV_8UC1);
+		last = 0;
+		hasPrevious = false;
+
+		final int tileWidth = (cols + tileCols - 1) / tileCols;
+		final int tileHeight = (rows + tileRows - 1) / tileRows;
+
+		tiles = new Rect[tileRows * tileCols];
+		bufTiles = new Mat[2][tiles.length];
+		diffTiles = new Mat[tiles.length];
+		tileRegionPixels = new int[tiles.length];
+		tileRegionPixelsVersion = -1;
+
+		for (int r = 0, i = 0; r < tileRows; r++) {
+			for (int c = 0; c < tileCols; c++, i++) {
+				final int x = Math.min(c * tileWidth, cols - 1);
+				final int y = Math.min(r * tileHeight, rows - 1);
+				Rect tile = new Rect(x, y, Math.max(1, Math.min(tileWidth, cols - x)), Math.max(1, Math.min(tileHeight, rows - y)));
+				tiles[i] = tile;
+				bufTiles[0][i] = buf[0].submat(tile);
+				bufTiles[1][i] = buf[1].submat(tile);
+				diffTiles[i] = diff.submat(tile);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void release() {
+		if (bufTiles != null) {
+			for (Mat[] bufTile : bufTiles) {
+				for (Mat m : bufTile) {
+					m.release();
+				}
+			}
+			bufTiles = null;
+		}
+		if (diffTiles != null) {
+			for (Mat m : diffTiles) {
+				m.release();
+			}
+			diffTiles = null;
+		}
+		tiles = null;
+		tileRegionPixels = null;
+		tileRegionPixelsVersion = -1;
+		matPool.release(buf);
+		buf[0] = buf[1] = null;
+		matPool.release(diff);
+		diff = null;
+		regionMask.release();
+	}
+}
@@ -0,0 +1,198 @@
+package net.maxsmr.opencv.commondetector.object;
+
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.HOGDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.opencv.commondetector.utils.MatPool;
+
+/**
+ * long-lived HOG people detection engine: descriptor with default people SVM detector is created once, detection
+ * parameters are configurable; input can be downscaled to max width before detection, found rects are mapped back to
+ * original coordinates
+ */
+public class HogPeopleDetector {
+
+	private static final Logger logger = LoggerFactory.getLogger(HogPeopleDetector.class);
+
+	public static final Size DEFAULT_WIN_STRIDE = new Size(8, 8);
+	public static final Size DEFAULT_PADDING = new Size(0, 0);
+	public static final double DEFAULT_SCALE = 1.05;
+	public static final double DEFAULT_HIT_THRESHOLD = 0;
+	public static final double DEFAULT_FINAL_THRESHOLD = 2.0;
+	/** 0 - no downscaling */
+	public static final int DEFAULT_MAX_INPUT_WIDTH = 0;
+
+	private static HogPeopleDetector defaultInstance;
+
+	/**
+	 * @return shared engine with default parameters
+	 */
+	public static HogPeopleDetector getDefault() {
+		synchronized (HogPeopleDetector.class) {
+			if (defaultInstance == null) {
+				defaultInstance = new HogPeopleDetector();
+			}
+			return defaultInstance;
+		}
+	}
+
+	private final HOGDescriptor hog;
+
+	private Size winStride = DEFAULT_WIN_STRIDE;
+	private Size padding = DEFAULT_PADDING;
+	private double scale = DEFAULT_SCALE;
+	private double hitThreshold = DEFAULT_HIT_THRESHOLD;
+	private double finalThreshold = DEFAULT_FINAL_THRESHOLD;
+	private int maxInputWidth = DEFAULT_MAX_INPUT_WIDTH;
+
+	private MatPool matPool = MatPool.getShared();
+
+	public HogPeopleDetector() {
+		hog = new HOGDescriptor();
+		hog.setSVMDetector(HOGDescriptor.getDefaultPeopleDetector());
+	}
+
+	public synchronized Size getWinStride() {
+		return winStride.clone();
+	}
+
+	/** @param winStride must be multiple of block stride (8x8 for default descriptor) */
+	public synchronized void setWinStride(Size winStride) {
+		if (winStride == null || winStride.width <= 0 || winStride.height <= 0)
+			throw new IllegalArgumentException("incorrect winStride: " + winStride);
+		this.winStride = winStride.clone();
+	}
+
+	public synchronized Size getPadding() {
+		return padding.clone();
+	}
+
+	public synchronized void setPadding(Size padding) {
+		if (padding == null || padding.width < 0 || padding.height < 0)
+			throw new IllegalArgumentException("incorrect padding: " + padding);
+		this.padding = padding.clone();
+	}
+
+	public synchronized double getScale() {
+		return scale;
+	}
+
+	/** @param scale coefficient of detection window increase, greater than 1 */
+	public synchronized void setScale(double scale) {
+		if (scale <= 1)
+			throw new IllegalArgumentException("incorrect scale: " + scale);
+		this.scale = scale;
+	}
+
+	public synchronized double getHitThreshold() {
+		return hitThreshold;
+	}
+
+	public synchronized void setHitThreshold(double hitThreshold) {
+		this.hitThreshold = hitThreshold;
+	}
+
+	public synchronized double getFinalThreshold() {
+		return finalThreshold;
+	}
+
+	public synchronized void setFinalThreshold(double finalThreshold) {
+		if (finalThreshold < 0)
+			throw new IllegalArgumentException("incorrect finalThreshold: " + finalThreshold);
+		this.finalThreshold = finalThreshold;
+	}
+
+	public synchronized int getMaxInputWidth() {
+		return maxInputWidth;
+	}
+
+	/** @param maxInputWidth wider images are downscaled before detection; 0 - no downscaling */
+	public synchronized void setMaxInputWidth(int maxInputWidth) {
+		if (maxInputWidth < 0)
+			throw new IllegalArgumentException("incorrect maxInputWidth: " + maxInputWidth);
+		this.maxInputWidth = maxInputWidth;
+	}
+
+	/** @param pool pool for downscaled images; {@link MatPool#getShared()} if null */
+	public synchronized void setMatPool(MatPool pool) {
+		this.matPool = pool != null ? pool : MatPool.getShared();
+	}
+
+	/**
+	 * @param img 8-bit gray or color image
+	 * @param locations found rects in coordinates of img
+	 * @param weights weights of found rects
+	 */
+	public void detect(Mat img, MatOfRect locations, MatOfDouble weights) {
+
+		if (img == null || img.empty())
+			throw new IllegalArgumentException("image is null or empty");
+
+		if (img.depth() != CvType.CV_8U)
+			throw new IllegalArgumentException("incorrect image depth: " + img.depth());
+
+		final Size winStride;
+		final Size padding;
+		final double scale;
+		final double hitThreshold;
+		final double finalThreshold;
+		final int maxInputWidth;
+		final MatPool matPool;
+
+		synchronized (this) {
+			winStride = this.winStride;
+			padding = this.padding;
+			scale = this.scale;
+			hitThreshold = this.hitThreshold;
+			finalThreshold = this.finalThreshold;
+			maxInputWidth = this.maxInputWidth;
+			matPool = this.matPool;
+		}
+
+		final double ratio = maxInputWidth > 0 && img.cols() > maxInputWidth ? (double) maxInputWidth / img.cols() : 1;
+
+		Mat input = img;
+
+		if (ratio < 1) {
+			final int rows = Math.max(1, (int) Math.round(img.rows() * ratio));
+			input = matPool.lease(rows, maxInputWidth, img.type());
+			Imgproc.resize(img, input, input.size(), 0, 0, Imgproc.INTER_AREA);
+			logger.debug("image downscaled from " + img.cols() + "x" + img.rows() + " to " + input.cols() + "x" + input.rows());
+		}
+
+		try {
+			hog.detectMultiScale(input, locations, weights, hitThreshold, winStride, padding, scale, finalThreshold, false);
+		} finally {
+			if (input != img) {
+				matPool.release(input);
+			}
+		}
+
+		if (ratio < 1 && !locations.empty()) {
+			List<Rect> rects = locations.toList();
+			for (Rect r : rects) {
+				r.x = (int) Math.round(r.x / ratio);
+				r.y = (int) Math.round(r.y / ratio);
+				r.width = (int) Math.round(r.width / ratio);
+				r.height = (int) Math.round(r.height / ratio);
+			}
+			locations.fromList(rects);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HogPeopleDetector [winStride=" + winStride + ", padding=" + padding + ", scale=" + scale + ", hitThreshold=" + hitThreshold
+				+ ", finalThreshold=" + finalThreshold + ", maxInputWidth=" + maxInputWidth + "]";
+	}
+}
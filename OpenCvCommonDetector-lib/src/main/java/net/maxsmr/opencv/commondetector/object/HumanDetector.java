@@ -5,17 +5,13 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfDouble;
-import org.opencv.core.MatOfFloat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.highgui.Highgui;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.HOGDescriptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +21,9 @@ import net.maxsmr.commonutils.data.FileHelper;
 import net.maxsmr.commonutils.graphic.GraphicUtils;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
 public class HumanDetector {
@@ -33,37 +31,69 @@ public class HumanDetector {
 	private static final Logger logger = LoggerFactory.getLogger(HumanDetector.class);
 
 	public static ObjectDetectFrameInfo findHuman(Mat imgScene, Scalar rectColor, Scalar fontColor) {
-		logger.debug("findHuman(), imgScene=" + imgScene + ", rectColor=" + rectColor + ", fontColor=" + fontColor);
+		return findHuman(imgScene, rectColor, fontColor, ResultMode.FULL);
+	}
+
+	/**
+	 * @param resultMode {@link ResultMode#RESULT_ONLY} - result image is not annotated and copied
+	 */
+	public static ObjectDetectFrameInfo findHuman(Mat imgScene, Scalar rectColor, Scalar fontColor, ResultMode resultMode) {
+		return findHuman(imgScene, rectColor, fontColor, resultMode, HogPeopleDetector.getDefault());
+	}
+
+	/**
+	 * @param resultMode {@link ResultMode#RESULT_ONLY} - result image is not annotated and copied
+	 * @param engine configured HOG engine; {@link HogPeopleDetector#getDefault()} if null
+	 */
+	public static ObjectDetectFrameInfo findHuman(Mat imgScene, Scalar rectColor, Scalar fontColor, ResultMode resultMode,
+			HogPeopleDetector engine) {
 
 		if (imgScene.empty()) {
 			logger.error("scene image is empty");
 			return null;
 		}
-		logger.debug("imgScene: " + imgScene.toString());
 
-		Mat imgSceneGray = new Mat(imgScene.size(), CvType.CV_8UC1);
-		logger.debug("imgSceneGray: " + imgSceneGray.toString());
+		FrameContext context = new FrameContext(imgScene);
+		try {
+			return findHuman(context, rectColor, fontColor, resultMode, engine);
+		} finally {
+			context.release();
+		}
+	}
 
-		logger.debug("converting from ARGB to GRAY...");
-		Imgproc.cvtColor(imgScene, imgSceneGray, Imgproc.COLOR_RGBA2GRAY);
+	/**
+	 * @param context frame shared with other detectors, gray image is taken from it
+	 * @param resultMode {@link ResultMode#RESULT_ONLY} - result image is not annotated and copied
+	 * @param engine configured HOG engine; {@link HogPeopleDetector#getDefault()} if null
+	 */
+	public static ObjectDetectFrameInfo findHuman(FrameContext context, Scalar rectColor, Scalar fontColor, ResultMode resultMode,
+			HogPeopleDetector engine) {
+		logger.debug("findHuman(), context=" + context + ", rectColor=" + rectColor + ", fontColor=" + fontColor + ", resultMode="
+				+ resultMode + ", engine=" + engine);
+
+		if (engine == null) {
+			engine = HogPeopleDetector.getDefault();
+		}
+
+		// shared gray image must not be modified
+		Mat imgSceneGray = context.getGray();
+		logger.debug("imgSceneGray: " + imgSceneGray.toString());
 
 		final long startCalcTime = System.currentTimeMillis();
 		long execTime;
 
-		HOGDescriptor hog = new HOGDescriptor();
-		MatOfFloat descriptors = HOGDescriptor.getDefaultPeopleDetector();
-		hog.setSVMDetector(descriptors);
-
 		MatOfRect locations = new MatOfRect();
 		MatOfDouble weights = new MatOfDouble();
 
 		logger.debug("starting detection...");
-		hog.detectMultiScale(imgSceneGray, locations, weights);
+		engine.detect(imgSceneGray, locations, weights);
 		logger.debug("locations count: " + locations.rows());
 
 		boolean detectionResult = false;
 
-		Mat imgResult = imgSceneGray.clone();
+		final boolean resultOnly = resultMode == ResultMode.RESULT_ONLY;
+
+		Mat imgResult = resultOnly ? imgSceneGray : imgSceneGray.clone();
 
 		if (rectColor == null) {
 			rectColor = OpenCvUtils.COLOR_BLACK;
@@ -97,10 +127,12 @@ public class HumanDetector {
 				fontPoint.x = rect.x;
 				fontPoint.y = rect.y - 4;
 
-				Core.rectangle(imgResult, rectPoint1, rectPoint2, rectColor, 2);
-				Core.putText(imgResult, String.format("%1.2f", weight), fontPoint, Core.FONT_HERSHEY_PLAIN,
-						OpenCvUtils.getFontScaleByImgSize(imgSceneGray.cols(), imgSceneGray.rows(), null), fontColor, 2, Core.LINE_AA,
-						false);
+				if (!resultOnly) {
+					Core.rectangle(imgResult, rectPoint1, rectPoint2, rectColor, 2);
+					Core.putText(imgResult, String.format("%1.2f", weight), fontPoint, Core.FONT_HERSHEY_PLAIN,
+							OpenCvUtils.getFontScaleByImgSize(imgSceneGray.cols(), imgSceneGray.rows(), null), fontColor, 2, Core.LINE_AA,
+							false);
+				}
 			}
 
 			detectionResult = true;
@@ -114,13 +146,15 @@ public class HumanDetector {
 		execTime = System.currentTimeMillis() - startCalcTime;
 		logger.info("Algorithm duration: " + execTime + " ms");
 
-		Point fontPoint = new Point();
-		fontPoint.x = 15;
-		fontPoint.y = imgResult.rows() - 20;
+		if (!resultOnly) {
+			Point fontPoint = new Point();
+			fontPoint.x = 15;
+			fontPoint.y = imgResult.rows() - 20;
 
-		Core.putText(imgResult, "Processing time:" + execTime + " ms | width:" + imgResult.cols() + " height:" + imgResult.rows(),
-				fontPoint, Core.FONT_HERSHEY_PLAIN, OpenCvUtils.getFontScaleByImgSize(imgSceneGray.cols(), imgSceneGray.rows(), null),
-				fontColor, 2, Core.LINE_AA, false);
+			Core.putText(imgResult, "Processing time:" + execTime + " ms | width:" + imgResult.cols() + " height:" + imgResult.rows(),
+					fontPoint, Core.FONT_HERSHEY_PLAIN, OpenCvUtils.getFontScaleByImgSize(imgSceneGray.cols(), imgSceneGray.rows(), null),
+					fontColor, 2, Core.LINE_AA, false);
+		}
 
 		logger.debug("imgResult: " + imgResult.toString());
 
@@ -141,8 +175,8 @@ public class HumanDetector {
 
 		// GraphicUtils.getBitmapData(OpenCvUtils.convertMatToBitmap(imgResult, false))
 
-		return new ObjectDetectFrameInfo(OpenCvUtils.convertMatToByteArray(imgResult), imgResult.type(), imgResult.cols(),
-				imgResult.rows(), detectionResult, ObjectType.HUMAN, locations2, execTime);
+		return new ObjectDetectFrameInfo(!resultOnly ? OpenCvUtils.convertMatToByteArray(imgResult) : null, imgResult.type(),
+				imgResult.cols(), imgResult.rows(), detectionResult, ObjectType.HUMAN, locations2, execTime);
 	}
 
 	public static ObjectDetectFrameInfo findHuman(Bitmap sceneBitmap, Scalar rectColor, Scalar fontColor) {
@@ -0,0 +1,387 @@
+package net.maxsmr.opencv.commondetector.object;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
+import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
+import net.maxsmr.opencv.commondetector.motion.BackgroundSubtractorDetector;
+import net.maxsmr.opencv.commondetector.object.cascade.AbstractClassifierDetector;
+import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
+import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
+
+/**
+ * runs background subtraction first and object detection (cascade or HOG) only inside padded bounding ROIs of motion
+ * contours; found objects are translated back to frame coordinates; frames without motion skip object detection
+ * entirely
+ */
+public class MotionGatedObjectDetector {
+
+	private static final Logger logger = LoggerFactory.getLogger(MotionGatedObjectDetector.class);
+
+	/**
+	 * searches objects inside ROI image
+	 */
+	public interface ObjectSearcher {
+
+		/**
+		 * @param roi part of frame, must not be modified
+		 * @return found rects in ROI coordinates
+		 */
+		List<Rect> search(Mat roi);
+
+		/**
+		 * @return min size of image in which object can be found, used to enlarge small ROIs
+		 */
+		Rect getMinWindow();
+	}
+
+	public static ObjectSearcher forClassifier(final AbstractClassifierDetector detector, final int minWindowWidth,
+			final int minWindowHeight) {
+
+		if (detector == null)
+			throw new NullPointerException("detector is null");
+
+		return new ObjectSearcher() {
+
+			@Override
+			public List<Rect> search(Mat roi) {
+				// detection pre-processing may be made in place, so it works with copy
+				final MatPool pool = MatPool.getShared();
+				final Mat copy = pool.lease(roi.rows(), roi.cols(), roi.type());
+				try {
+					roi.copyTo(copy);
+					ObjectDetectFrameInfo info = detector.detect(copy, null, null, ResultMode.RESULT_ONLY);
+					List<Rect> result = new ArrayList<Rect>();
+					if (info != null && info.getObjects() != null) {
+						for (net.maxsmr.opencv.commondetector.model.graphic.Rect r : info.getObjects()) {
+							if (r != null) {
+								result.add(new Rect(r.x, r.y, r.width, r.height));
+							}
+						}
+					}
+					return result;
+				} finally {
+					pool.release(copy);
+				}
+			}
+
+			@Override
+			public Rect getMinWindow() {
+				return new Rect(0, 0, minWindowWidth, minWindowHeight);
+			}
+		};
+	}
+
+	/** default HOG people detector window */
+	public static final int HOG_WINDOW_WIDTH = 64;
+	public static final int HOG_WINDOW_HEIGHT = 128;
+
+	public static ObjectSearcher forHog(final HogPeopleDetector engine) {
+
+		if (engine == null)
+			throw new NullPointerException("engine is null");
+
+		return new ObjectSearcher() {
+
+			@Override
+			public List<Rect> search(Mat roi) {
+				MatOfRect locations = new MatOfRect();
+				MatOfDouble weights = new MatOfDouble();
+				engine.detect(roi, locations, weights);
+				List<Rect> result = locations.toList();
+				locations.release();
+				weights.release();
+				return result;
+			}
+
+			@Override
+			public Rect getMinWindow() {
+				return new Rect(0, 0, HOG_WINDOW_WIDTH, HOG_WINDOW_HEIGHT);
+			}
+		};
+	}
+
+	/** ROI padding as ratio of motion rect size */
+	public static final double DEFAULT_ROI_PADDING_RATIO = 0.25;
+
+	/** if ROIs cover bigger part of frame, whole frame is scanned once */
+	public static final double DEFAULT_MAX_ROI_AREA_RATIO = 0.6;
+
+	/** motion rects with smaller area ratio are ignored */
+	public static final double DEFAULT_MIN_MOTION_AREA_RATIO = 0.0005;
+
+	private final BackgroundSubtractorDetector motionDetector;
+
+	private final ObjectSearcher searcher;
+
+	private final ObjectType objectType;
+
+	private double roiPaddingRatio = DEFAULT_ROI_PADDING_RATIO;
+
+	private double maxRoiAreaRatio = DEFAULT_MAX_ROI_AREA_RATIO;
+
+	private double minMotionAreaRatio = DEFAULT_MIN_MOTION_AREA_RATIO;
+
+	private Scalar contourColor = AbstractClassifierDetector.CONTOUR_COLOR_DEFAULT;
+
+	private int contourThickness = AbstractClassifierDetector.CONTOUR_THICKNESS_DEFAULT;
+
+	private MatPool matPool = MatPool.getShared();
+
+	/** frame copy for motion detector which draws on its source */
+	private Mat motionFrame = null;
+
+	private final List<Rect> lastRois = new ArrayList<Rect>();
+
+	private long framesCount = 0;
+	private long skippedFramesCount = 0;
+
+	public MotionGatedObjectDetector(BackgroundSubtractorDetector motionDetector, ObjectSearcher searcher, ObjectType objectType) {
+
+		if (motionDetector == null)
+			throw new NullPointerException("motionDetector is null");
+
+		if (searcher == null)
+			throw new NullPointerException("searcher is null");
+
+		this.motionDetector = motionDetector;
+		this.searcher = searcher;
+		this.objectType = objectType != null ? objectType : ObjectType.UNKNOWN;
+	}
+
+	public BackgroundSubtractorDetector getMotionDetector() {
+		return motionDetector;
+	}
+
+	public ObjectType getObjectType() {
+		return objectType;
+	}
+
+	public synchronized double getRoiPaddingRatio() {
+		return roiPaddingRatio;
+	}
+
+	public synchronized void setRoiPaddingRatio(double ratio) {
+		if (ratio < 0)
+			throw new IllegalArgumentException("incorrect roiPaddingRatio: " + ratio);
+		this.roiPaddingRatio = ratio;
+	}
+
+	public synchronized double getMaxRoiAreaRatio() {
+		return maxRoiAreaRatio;
+	}
+
+	public synchronized void setMaxRoiAreaRatio(double ratio) {
+		if (ratio <= 0 || ratio > 1)
+			throw new IllegalArgumentException("incorrect maxRoiAreaRatio: " + ratio);
+		this.maxRoiAreaRatio = ratio;
+	}
+
+	public synchronized double getMinMotionAreaRatio() {
+		return minMotionAreaRatio;
+	}
+
+	public synchronized void setMinMotionAreaRatio(double ratio) {
+		if (ratio < 0 || ratio > 1)
+			throw new IllegalArgumentException("incorrect minMotionAreaRatio: " + ratio);
+		this.minMotionAreaRatio = ratio;
+	}
+
+	public synchronized void setContourColor(Scalar color) {
+		if (color != null)
+			this.contourColor = color;
+	}
+
+	public synchronized void setContourThickness(int thickness) {
+		if (thickness >= 1)
+			this.contourThickness = thickness;
+	}
+
+	/** @param pool pool for frame buffers; {@link MatPool#getShared()} if null */
+	public synchronized void setMatPool(MatPool pool) {
+		release();
+		this.matPool = pool != null ? pool : MatPool.getShared();
+	}
+
+	/**
+	 * @return ROIs scanned on last frame (copies), empty if object detection was skipped
+	 */
+	public synchronized List<Rect> getLastRois() {
+		List<Rect> result = new ArrayList<Rect>(lastRois.size());
+		for (Rect r : lastRois) {
+			result.add(r.clone());
+		}
+		return result;
+	}
+
+	public synchronized long getFramesCount() {
+		return framesCount;
+	}
+
+	/**
+	 * @return number of frames on which object detection was skipped because of no motion
+	 */
+	public synchronized long getSkippedFramesCount() {
+		return skippedFramesCount;
+	}
+
+	/**
+	 * @param frame 1, 3 or 4 channel mat; annotated with found objects unless {@link ResultMode#RESULT_ONLY}
+	 * @param region polygon to which motion and objects are restricted, may be null
+	 */
+	public synchronized ObjectDetectFrameInfo detect(Mat frame, List<Point> region, ResultMode resultMode) {
+
+		if (frame == null)
+			throw new NullPointerException("frame mat is null");
+
+		if (frame.empty())
+			throw new IllegalArgumentException("frame mat is empty");
+
+		final long startTime = System.currentTimeMillis();
+
+		framesCount++;
+
+		if (motionFrame == null || motionFrame.rows() != frame.rows() || motionFrame.cols() != frame.cols()
+				|| motionFrame.type() != frame.type()) {
+			matPool.release(motionFrame);
+			motionFrame = matPool.lease(frame.rows(), frame.cols(), frame.type());
+		}
+		frame.copyTo(motionFrame);
+
+		motionDetector.detect(motionFrame, region);
+
+		lastRois.clear();
+
+		if (motionDetector.isDetected()) {
+			lastRois.addAll(buildRois(motionDetector.getMotionRects(), frame.cols(), frame.rows()));
+		}
+
+		List<Rect> found = new ArrayList<Rect>();
+
+		if (lastRois.isEmpty()) {
+
+			skippedFramesCount++;
+			logger.debug("no motion, object detection skipped");
+
+		} else {
+
+			double roisArea = 0;
+			for (Rect roi : lastRois) {
+				roisArea += roi.area();
+			}
+
+			if (roisArea / ((double) frame.cols() * frame.rows()) > maxRoiAreaRatio) {
+				logger.debug("motion ROIs cover " + roisArea + " px, scanning whole frame...");
+				lastRois.clear();
+				lastRois.add(new Rect(0, 0, frame.cols(), frame.rows()));
+			}
+
+			for (Rect roi : lastRois) {
+				Mat roiMat = frame.submat(roi);
+				try {
+					for (Rect r : searcher.search(roiMat)) {
+						found.add(new Rect(r.x + roi.x, r.y + roi.y, r.width, r.height));
+					}
+				} finally {
+					roiMat.release();
+				}
+			}
+		}
+
+		List<Rect> filtered = DetectorHelper.filterRects(found, region);
+		List<net.maxsmr.opencv.commondetector.model.graphic.Rect> objects = new ArrayList<net.maxsmr.opencv.commondetector.model.graphic.Rect>();
+
+		final boolean resultOnly = resultMode == ResultMode.RESULT_ONLY;
+
+		for (Rect r : filtered) {
+			if (!resultOnly) {
+				Core.rectangle(frame, r.tl(), r.br(), contourColor, contourThickness);
+			}
+			objects.add(new net.maxsmr.opencv.commondetector.model.graphic.Rect(r.x, r.y, r.width, r.height));
+		}
+
+		return new ObjectDetectFrameInfo(!resultOnly ? OpenCvUtils.convertMatToByteArray(frame) : null, frame.type(), frame.cols(),
+				frame.rows(), !objects.isEmpty(), objectType, objects, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * pads motion rects, enlarges them to searcher min window, clips by frame and merges overlapping ones
+	 */
+	private List<Rect> buildRois(List<Rect> motionRects, int frameWidth, int frameHeight) {
+
+		final double minArea = minMotionAreaRatio * frameWidth * frameHeight;
+		final Rect minWindow = searcher.getMinWindow();
+
+		List<Rect> rois = new ArrayList<Rect>();
+
+		for (Rect r : motionRects) {
+
+			if (r.area() < minArea)
+				continue;
+
+			int padX = (int) Math.round(r.width * roiPaddingRatio);
+			int padY = (int) Math.round(r.height * roiPaddingRatio);
+
+			if (minWindow != null) {
+				padX = Math.max(padX, (minWindow.width - r.width + 1) / 2);
+				padY = Math.max(padY, (minWindow.height - r.height + 1) / 2);
+			}
+
+			rois.add(clip(new Rect(r.x - padX, r.y - padY, r.width + 2 * padX, r.height + 2 * padY), frameWidth, frameHeight));
+		}
+
+		// merge until there are no intersecting ROIs
+		boolean merged = true;
+		while (merged) {
+			merged = false;
+			for (int i = 0; i < rois.size() && !merged; i++) {
+				for (int j = i + 1; j < rois.size(); j++) {
+					if (intersects(rois.get(i), rois.get(j))) {
+						rois.set(i, union(rois.get(i), rois.get(j)));
+						rois.remove(j);
+						merged = true;
+						break;
+					}
+				}
+			}
+		}
+
+		return rois;
+	}
+
+	private static boolean intersects(Rect a, Rect b) {
+		return a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height;
+	}
+
+	private static Rect union(Rect a, Rect b) {
+		final int x = Math.min(a.x, b.x);
+		final int y = Math.min(a.y, b.y);
+		return new Rect(x, y, Math.max(a.x + a.width, b.x + b.width) - x, Math.max(a.y + a.height, b.y + b.height) - y);
+	}
+
+	private static Rect clip(Rect r, int width, int height) {
+		final int x = Math.max(0, r.x);
+		final int y = Math.max(0, r.y);
+		return new Rect(x, y, Math.max(1, Math.min(width, r.x + r.width) - x), Math.max(1, Math.min(height, r.y + r.height) - y));
+	}
+
+	public synchronized void release() {
+		matPool.release(motionFrame);
+		motionFrame = null;
+		lastRois.clear();
+		motionDetector.release();
+	}
+}
@@ -6,13 +6,21 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.core.MatOfDMatch;
 import org.opencv.core.MatOfKeyPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
 import org.opencv.core.Scalar;
+import org.opencv.features2d.KeyPoint;
 import org.opencv.features2d.DMatch;
 import org.opencv.features2d.DescriptorExtractor;
 import org.opencv.features2d.DescriptorMatcher;
@@ -44,14 +52,167 @@ public class RawObjectDetector {
 	private DescriptorExtractor descriptorExtractor;
 	private DescriptorMatcher descriptorMatcher;
 
-	private void initDetector() {
-		logger.debug("initDetector()");
+	/** features count detector and extractor are configured with; 0 - default config */
+	private int configuredFeaturesCount = -1;
+
+	/**
+	 * creates and configures detector, extractor and matcher once per features count; config temp file is written
+	 * only then
+	 */
+	private void initDetector(int featuresCount) {
+
+		if (featuresCount < 0) {
+			featuresCount = 0;
+		}
+
+		if (featureDetector != null && configuredFeaturesCount == featuresCount) {
+			return;
+		}
+
+		logger.debug("initDetector(), featuresCount=" + featuresCount);
 
 		featureDetector = FeatureDetector.create(FeatureDetector.ORB);
 		descriptorExtractor = DescriptorExtractor.create(FeatureDetector.ORB);
 		descriptorMatcher = DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
 
-		logger.debug("current feature detector config: " + getDetectorCurrentConf());
+		if (featuresCount > 0) {
+			// applySurfConfig(minHessian);
+			applyOrbConfig(featuresCount);
+		}
+
+		configuredFeaturesCount = featuresCount;
+
+		// templates computed with previous config are not valid anymore
+		clearTemplates();
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("current feature detector config: " + getDetectorCurrentConf());
+		}
+	}
+
+	public static final int DEFAULT_MAX_TEMPLATES = 8;
+
+	/**
+	 * keypoints and descriptors of object image computed with current detector config
+	 */
+	private static final class Template {
+
+		final long lastModified;
+		final long length;
+
+		final Mat image;
+		final MatOfKeyPoint keypoints;
+		final Mat descriptors;
+
+		Template(long lastModified, long length, Mat image, MatOfKeyPoint keypoints, Mat descriptors) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.image = image;
+			this.keypoints = keypoints;
+			this.descriptors = descriptors;
+		}
+
+		void release() {
+			image.release();
+			keypoints.release();
+			descriptors.release();
+		}
+	}
+
+	/** templates by object image path, least recently used are evicted */
+	private final LinkedHashMap<String, Template> templates = new LinkedHashMap<String, Template>(DEFAULT_MAX_TEMPLATES, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+			if (size() > DEFAULT_MAX_TEMPLATES) {
+				logger.debug("evicting template " + eldest.getKey());
+				eldest.getValue().release();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * @return template of given object image, computed if it's not registered yet or file was changed; null if image
+	 *         can't be read or has no features
+	 */
+	private Template getTemplate(File objectImageFile) {
+
+		final String path = objectImageFile.getAbsolutePath();
+		final long lastModified = objectImageFile.lastModified();
+		final long length = objectImageFile.length();
+
+		Template template = templates.get(path);
+
+		if (template != null) {
+			if (template.lastModified == lastModified && template.length == length) {
+				return template;
+			}
+			logger.info("object image " + path + " was changed, recomputing template...");
+			templates.remove(path);
+			template.release();
+		}
+
+		Mat imgObject = Highgui.imread(path);
+
+		if (imgObject.empty()) {
+			logger.error("object image is empty");
+			return null;
+		}
+
+		logger.debug("imgObject: " + imgObject.toString());
+
+		MatOfKeyPoint keyptsObj = new MatOfKeyPoint();
+		featureDetector.detect(imgObject, keyptsObj);
+
+		if (keyptsObj.empty()) {
+			logger.error("keyptsObj is empty");
+			imgObject.release();
+			return null;
+		}
+
+		Mat descriptorsObj = new Mat();
+		descriptorExtractor.compute(imgObject, keyptsObj, descriptorsObj);
+
+		if (descriptorsObj.empty()) {
+			logger.error("descriptorsObj is empty");
+			imgObject.release();
+			keyptsObj.release();
+			return null;
+		}
+
+		logger.debug("template computed: keyptsObj " + keyptsObj.rows() + ", descriptorsObj " + descriptorsObj.cols() + " x "
+				+ descriptorsObj.rows());
+
+		template = new Template(lastModified, length, imgObject, keyptsObj, descriptorsObj);
+		templates.put(path, template);
+		return template;
+	}
+
+	/**
+	 * computes and keeps keypoints and descriptors of object image in advance
+	 *
+	 * @return true if template is registered
+	 */
+	public synchronized boolean registerTemplate(File objectImageFile, int featuresCount) {
+
+		if (!FileHelper.isFileCorrect(objectImageFile) || !FileHelper.isPicture(FileHelper.getFileExtension(objectImageFile.getName()))) {
+			logger.error("incorrect find object file: " + objectImageFile);
+			return false;
+		}
+
+		initDetector(featuresCount);
+		return getTemplate(objectImageFile) != null;
+	}
+
+	public synchronized void clearTemplates() {
+		for (Template t : templates.values()) {
+			t.release();
+		}
+		templates.clear();
 	}
 
 	private String getDetectorCurrentConf() {
@@ -203,8 +364,12 @@ public class RawObjectDetector {
 		}
 	}
 
+	/**
+	 * keypoints and descriptors of object image are computed once and kept in registry (see
+	 * {@link #registerTemplate(File, int)}), so only scene is processed per call
+	 */
 	// FIXME
-	public ObjectDetectFrameInfo findObject(File sceneImageFile, File objectImageFile, int featuresCount, boolean drawMathesOrKeypoints) {
+	public synchronized ObjectDetectFrameInfo findObject(File sceneImageFile, File objectImageFile, int featuresCount, boolean drawMathesOrKeypoints) {
 		logger.debug("findObject(), sceneImageFile=" + sceneImageFile + ", objectImageFile=" + objectImageFile + ", featuresCount="
 				+ featuresCount + ", drawMathesOrKeypoints=" + drawMathesOrKeypoints);
 
@@ -219,71 +384,57 @@ public class RawObjectDetector {
 		}
 
 		Mat imgScene = Highgui.imread(sceneImageFile.getAbsolutePath());
-		Mat imgObject = Highgui.imread(objectImageFile.getAbsolutePath());
 
 		if (imgScene.empty()) {
 			logger.error("scene image is empty");
 			return null;
 		}
 
-		if (imgObject.empty()) {
-			logger.error("object image is empty");
-			return null;
-		}
-
 		logger.debug("imgScene: " + imgScene.toString());
-		logger.debug("imgObject: " + imgObject.toString());
 
 		final long startCalcTime = System.currentTimeMillis();
 
-		initDetector();
-
 		if (featuresCount <= 0) {
 			logger.error("incorrect features count value");
-		} else {
-			// applySurfConfig(minHessian);
-			applyOrbConfig(featuresCount);
 		}
 
+		initDetector(featuresCount);
+
+		final Template template = getTemplate(objectImageFile);
+
+		if (template == null) {
+			return null;
+		}
+
+		final Mat imgObject = template.image;
+		final MatOfKeyPoint keyptsObj = template.keypoints;
+		final Mat descriptorsObj = template.descriptors;
+
 		// ----Extract keypoints---
 		MatOfKeyPoint keyptsScene = new MatOfKeyPoint();
-		MatOfKeyPoint keyptsObj = new MatOfKeyPoint();
 
 		logger.debug("extracting keypoints...");
 		featureDetector.detect(imgScene, keyptsScene);
-		featureDetector.detect(imgObject, keyptsObj);
 
 		if (keyptsScene.empty()) {
 			logger.error("keyptsScene is empty");
 			return null;
 		}
 
-		if (keyptsObj.empty()) {
-			logger.error("keyptsObj is empty");
-			return null;
-		}
-
 		logger.debug("keyptsScene : " + keyptsScene.cols() + " x " + keyptsScene.rows());
 		logger.debug("keyptsObj : " + keyptsObj.cols() + " x " + keyptsObj.rows());
 
 		// ----Calculate descriptors (feature vectors)----
 		Mat descriptorsScene = new Mat();
-		Mat descriptorsObj = new Mat();
 
 		logger.debug("calculating descriptors (feature vectors)...");
 		descriptorExtractor.compute(imgScene, keyptsScene, descriptorsScene);
-		descriptorExtractor.compute(imgObject, keyptsObj, descriptorsObj);
 
 		if (descriptorsScene.empty()) {
 			logger.error("descriptorsScene is empty");
 			return null;
 		}
 
-		if (descriptorsObj.empty()) {
-			logger.error("descriptorsObj is empty");
-			return null;
-		}
-
 		logger.debug("descriptorsScene : " + descriptorsScene.cols() + " x " + descriptorsScene.rows());
 		logger.debug("descriptorsObj : " + descriptorsObj.cols() + " x " + descriptorsObj.rows());
 
@@ -402,14 +553,12 @@ public class RawObjectDetector {
 		// Core.line(resultImgMatches, new Point(sceneCorners.get(3, 0)), new Point(sceneCorners.get(0, 0)), new
 		// Scalar(0, 255, 0), 4);
 
+		// template mats are kept in registry
 		imgScene.release();
-		imgObject.release();
 
 		keyptsScene.release();
-		keyptsObj.release();
 
 		descriptorsScene.release();
-		descriptorsObj.release();
 
 		matches12.release();
 		matches21.release();
@@ -431,4 +580,188 @@ public class RawObjectDetector {
 					imgResult.rows(), false, ObjectType.UNKNOWN, null, 0);
 		}
 	}
+
+	public static final double DEFAULT_RATIO_TEST = 0.75;
+
+	public static final double DEFAULT_RANSAC_REPROJ_THRESHOLD = 3.0;
+
+	public static final int DEFAULT_MIN_INLIERS = 10;
+
+	private static final Scalar QUAD_COLOR = new Scalar(0, 255, 0);
+
+	/**
+	 * localization mode: scene matches of template descriptors are filtered by ratio test, RANSAC homography is
+	 * estimated and object corners are projected onto scene; scene is returned early (not detected, without scene
+	 * image) if there are too few matches or inliers
+	 *
+	 * @param ratio      nearest match is accepted if its distance is less than ratio of second nearest one
+	 * @param minInliers min number of homography inliers for object to be found
+	 * @param draw       if true, projected quad is drawn on scene copy returned as scene image
+	 * @return info with object quad, its bounding rect and inliers count; null if images are incorrect
+	 */
+	public synchronized ObjectDetectFrameInfo localizeObject(File sceneImageFile, File objectImageFile, int featuresCount, double ratio,
+			int minInliers, boolean draw) {
+		logger.debug("localizeObject(), sceneImageFile=" + sceneImageFile + ", objectImageFile=" + objectImageFile + ", featuresCount="
+				+ featuresCount + ", ratio=" + ratio + ", minInliers=" + minInliers + ", draw=" + draw);
+
+		if (ratio <= 0 || ratio > 1)
+			throw new IllegalArgumentException("incorrect ratio: " + ratio);
+
+		if (!FileHelper.isFileCorrect(sceneImageFile) || !FileHelper.isPicture(FileHelper.getFileExtension(sceneImageFile.getName()))) {
+			logger.error("incorrect scene image file: " + sceneImageFile);
+			return null;
+		}
+
+		if (!FileHelper.isFileCorrect(objectImageFile) || !FileHelper.isPicture(FileHelper.getFileExtension(objectImageFile.getName()))) {
+			logger.error("incorrect find object file: " + objectImageFile);
+			return null;
+		}
+
+		Mat imgScene = Highgui.imread(sceneImageFile.getAbsolutePath());
+
+		if (imgScene.empty()) {
+			logger.error("scene image is empty");
+			return null;
+		}
+
+		final long startCalcTime = System.currentTimeMillis();
+
+		initDetector(featuresCount);
+
+		final Template template = getTemplate(objectImageFile);
+
+		if (template == null) {
+			imgScene.release();
+			return null;
+		}
+
+		// at least 4 point pairs are needed for homography
+		minInliers = Math.max(4, minInliers);
+
+		MatOfKeyPoint keyptsScene = new MatOfKeyPoint();
+		Mat descriptorsScene = new Mat();
+
+		featureDetector.detect(imgScene, keyptsScene);
+
+		if (!keyptsScene.empty()) {
+			descriptorExtractor.compute(imgScene, keyptsScene, descriptorsScene);
+		}
+
+		if (descriptorsScene.rows() < minInliers) {
+			logger.info("too few scene features: " + descriptorsScene.rows());
+			keyptsScene.release();
+			descriptorsScene.release();
+			return notLocalized(imgScene, 0, startCalcTime);
+		}
+
+		List<MatOfDMatch> knnMatches = new ArrayList<MatOfDMatch>();
+		descriptorMatcher.knnMatch(template.descriptors, descriptorsScene, knnMatches, 2);
+
+		final List<KeyPoint> keyptsObjList = template.keypoints.toList();
+		final List<KeyPoint> keyptsSceneList = keyptsScene.toList();
+
+		List<Point> objPoints = new ArrayList<Point>();
+		List<Point> scenePoints = new ArrayList<Point>();
+
+		for (MatOfDMatch knn : knnMatches) {
+			DMatch[] pair = knn.toArray();
+			if (pair.length == 2 && pair[0].distance < ratio * pair[1].distance) {
+				objPoints.add(keyptsObjList.get(pair[0].queryIdx).pt);
+				scenePoints.add(keyptsSceneList.get(pair[0].trainIdx).pt);
+			}
+			knn.release();
+		}
+
+		keyptsScene.release();
+		descriptorsScene.release();
+
+		logger.info("matches passed ratio test: " + objPoints.size());
+
+		if (objPoints.size() < minInliers) {
+			return notLocalized(imgScene, 0, startCalcTime);
+		}
+
+		MatOfPoint2f obj = new MatOfPoint2f();
+		obj.fromList(objPoints);
+		MatOfPoint2f scene = new MatOfPoint2f();
+		scene.fromList(scenePoints);
+
+		Mat inliersMask = new Mat();
+		Mat hMat = Calib3d.findHomography(obj, scene, Calib3d.RANSAC, DEFAULT_RANSAC_REPROJ_THRESHOLD, inliersMask);
+
+		obj.release();
+		scene.release();
+
+		final int inliers = hMat.empty() || inliersMask.empty() ? 0 : Core.countNonZero(inliersMask);
+		inliersMask.release();
+
+		logger.info("homography inliers: " + inliers);
+
+		if (inliers < minInliers) {
+			hMat.release();
+			return notLocalized(imgScene, inliers, startCalcTime);
+		}
+
+		final Mat imgObject = template.image;
+
+		Mat objCorners = new Mat(4, 1, CvType.CV_32FC2);
+		Mat sceneCorners = new Mat(4, 1, CvType.CV_32FC2);
+
+		objCorners.put(0, 0, new double[] { 0, 0 });
+		objCorners.put(1, 0, new double[] { imgObject.cols(), 0 });
+		objCorners.put(2, 0, new double[] { imgObject.cols(), imgObject.rows() });
+		objCorners.put(3, 0, new double[] { 0, imgObject.rows() });
+
+		Core.perspectiveTransform(objCorners, sceneCorners, hMat);
+
+		Point[] corners = new Point[4];
+		List<net.maxsmr.opencv.commondetector.model.graphic.Point> quad = new ArrayList<net.maxsmr.opencv.commondetector.model.graphic.Point>(4);
+
+		int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+
+		for (int i = 0; i < 4; i++) {
+			corners[i] = new Point(sceneCorners.get(i, 0));
+			final int x = (int) Math.round(corners[i].x);
+			final int y = (int) Math.round(corners[i].y);
+			quad.add(new net.maxsmr.opencv.commondetector.model.graphic.Point(x, y));
+			minX = Math.min(minX, x);
+			minY = Math.min(minY, y);
+			maxX = Math.max(maxX, x);
+			maxY = Math.max(maxY, y);
+		}
+
+		objCorners.release();
+		sceneCorners.release();
+		hMat.release();
+
+		byte[] sceneImage = null;
+
+		if (draw) {
+			for (int i = 0; i < 4; i++) {
+				Core.line(imgScene, corners[i], corners[(i + 1) % 4], QUAD_COLOR, 4);
+			}
+			sceneImage = OpenCvUtils.convertMatToByteArray(imgScene);
+		}
+
+		List<net.maxsmr.opencv.commondetector.model.graphic.Rect> objects = new ArrayList<net.maxsmr.opencv.commondetector.model.graphic.Rect>();
+		objects.add(new net.maxsmr.opencv.commondetector.model.graphic.Rect(minX, minY, maxX - minX, maxY - minY));
+
+		ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(sceneImage, imgScene.type(), imgScene.cols(), imgScene.rows(), true,
+				ObjectType.UNKNOWN, objects, System.currentTimeMillis() - startCalcTime);
+		info.setObjectQuad(quad);
+		info.setInliersCount(inliers);
+
+		imgScene.release();
+
+		logger.info("object localized: " + quad + ", inliers: " + inliers);
+		return info;
+	}
+
+	private static ObjectDetectFrameInfo notLocalized(Mat imgScene, int inliers, long startCalcTime) {
+		ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(null, imgScene.type(), imgScene.cols(), imgScene.rows(), false,
+				ObjectType.UNKNOWN, null, System.currentTimeMillis() - startCalcTime);
+		info.setInliersCount(inliers);
+		imgScene.release();
+		return info;
+	}
 }
@@ -3,18 +3,14 @@ package net.maxsmr.opencv.commondetector.object.cascade;
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
-import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,7 +20,11 @@ import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
 import net.maxsmr.opencv.commondetector.model.graphic.Rect;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 
+import net.maxsmr.opencv.commondetector.utils.FrameArchiver;
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
 public abstract class AbstractClassifierDetector {
@@ -66,6 +66,37 @@ public abstract class AbstractClassifierDetector {
         this.grayscale = toggle;
     }
 
+    public static final boolean DEFAULT_DRAW_ON_SOURCE = false;
+    private boolean drawOnSource = DEFAULT_DRAW_ON_SOURCE;
+
+    public boolean drawOnSource() {
+        return drawOnSource;
+    }
+
+    /**
+     * @param toggle if true, detected objects are also drawn on frame passed to
+     *               {@link #detect(Mat, Size, List, ResultMode)}; source of {@link FrameContext} is never modified
+     */
+    public void setDrawOnSource(boolean toggle) {
+        this.drawOnSource = toggle;
+    }
+
+    public static final ResultMode DEFAULT_RESULT_MODE = ResultMode.FULL;
+    private ResultMode resultMode = DEFAULT_RESULT_MODE;
+
+    public ResultMode getResultMode() {
+        return resultMode;
+    }
+
+    /**
+     * @param mode {@link ResultMode#RESULT_ONLY} - don't annotate and copy scene image into result; it can be
+     *             annotated later by {@link #drawObjects(Mat, List, Scalar, int)}
+     */
+    public void setResultMode(ResultMode mode) {
+        if (mode != null)
+            this.resultMode = mode;
+    }
+
     protected static final SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss.SSS", Locale.getDefault());
 
     protected static final String SOURCE_FRAMES_DIR = "source";
@@ -115,7 +146,7 @@ public abstract class AbstractClassifierDetector {
             classifier = null;
         }
 
-        return classifier.empty() ? null : classifier;
+        return classifier != null && !classifier.empty() ? classifier : null;
     }
 
     protected static CascadeClassifier loadClassifiers(List<File> files) {
@@ -143,9 +174,59 @@ public abstract class AbstractClassifierDetector {
     }
 
     /**
-     * used for custom object detection by one or more classifiers
+     * used for custom object detection by one or more classifiers; detector's result mode is used
      */
-    public abstract ObjectDetectFrameInfo detect(Mat frame, Size scaleSize, List<org.opencv.core.Point> region);
+    public ObjectDetectFrameInfo detect(Mat frame, Size scaleSize, List<org.opencv.core.Point> region) {
+        return detect(frame, scaleSize, region, getResultMode());
+    }
+
+    /**
+     * used for custom object detection by one or more classifiers; frame is modified only if
+     * {@link #setDrawOnSource(boolean)} is enabled
+     *
+     * @param scaleSize if frame is larger, detection runs on its downscaled copy; result is in source frame coordinates
+     */
+    public ObjectDetectFrameInfo detect(Mat frame, Size scaleSize, List<org.opencv.core.Point> region, ResultMode resultMode) {
+        final ObjectDetectFrameInfo info;
+        final FrameContext context = new FrameContext(frame);
+        try {
+            info = detect(context, scaleSize, region, resultMode);
+        } finally {
+            context.release();
+        }
+        if (drawOnSource) {
+            drawObjects(frame, info.getObjects(), getContourColor(), getContourThickness());
+        }
+        return info;
+    }
+
+    /**
+     * used for custom object detection by one or more classifiers on frame shared with other detectors: pre-processed
+     * images are taken from context; source frame is not modified, scene image of result (if any) is annotated copy
+     * of it in source frame coordinates
+     *
+     * @param scaleSize if frame is larger, detection runs on its downscaled copy; result is in source frame coordinates
+     */
+    public abstract ObjectDetectFrameInfo detect(FrameContext context, Size scaleSize, List<org.opencv.core.Point> region,
+                                                 ResultMode resultMode);
+
+    /**
+     * draws bounding rects of detected objects, e.g. on frame detected in {@link ResultMode#RESULT_ONLY} mode
+     */
+    public static void drawObjects(Mat frame, List<Rect> objects, Scalar color, int thickness) {
+
+        if (frame == null || frame.empty() || objects == null)
+            return;
+
+        for (Rect rect : objects) {
+
+            if (rect == null)
+                continue;
+
+            Core.rectangle(frame, new org.opencv.core.Point(rect.x, rect.y), new org.opencv.core.Point(rect.x + rect.width, rect.y
+                    + rect.height), color, thickness);
+        }
+    }
 
     /**
      * base object detection by given cascade classifier, can be wrapped by implemented detect(); pre-processing
@@ -153,76 +234,259 @@ public abstract class AbstractClassifierDetector {
      */
     protected static ObjectDetectFrameInfo detect(CascadeClassifier classifier, ObjectType objectType, Mat frame, Size scaleSize,
                                                   List<org.opencv.core.Point> cvRegion, Scalar contourColor, boolean grayscale, File savedFramesDir) {
-        logger.debug("detect(), classifier=" + classifier + ", objectType=" + objectType + ", frame=" + frame + ", scaleSize=" + scaleSize
-                + ", cvRegion=" + cvRegion + ", contourColor=" + contourColor + ", grayscale=" + grayscale + ", savedFramesDir="
-                + savedFramesDir);
+        return detect(classifier, objectType, frame, scaleSize, cvRegion, contourColor, grayscale, savedFramesDir, ResultMode.FULL);
+    }
 
-        if (!isClassifierLoaded(classifier))
-            throw new RuntimeException("classifier is not loaded");
+    /**
+     * base object detection by given cascade classifier, can be wrapped by implemented detect(); pre-processing
+     * included
+     *
+     * @param resultMode {@link ResultMode#RESULT_ONLY} - objects are drawn only if frames are saved, scene image is not
+     *                   copied to result
+     */
+    protected static ObjectDetectFrameInfo detect(CascadeClassifier classifier, ObjectType objectType, Mat frame, Size scaleSize,
+                                                  List<org.opencv.core.Point> cvRegion, Scalar contourColor, boolean grayscale, File savedFramesDir,
+                                                  ResultMode resultMode) {
+        return detect(classifier, null, objectType, frame, scaleSize, cvRegion, contourColor, grayscale, savedFramesDir, resultMode);
+    }
+
+    /**
+     * @return part of frame to run cascade on: bounding box of region enlarged by window size to each side and clipped
+     * by frame; null if region is not set or crop covers whole frame
+     */
+    protected static org.opencv.core.Rect getRegionCrop(List<org.opencv.core.Point> region, Size windowSize, int cols, int rows) {
+
+        if (region == null || region.isEmpty()) {
+            return null;
+        }
+
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+        for (org.opencv.core.Point p : region) {
+            if (p == null) {
+                continue;
+            }
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+
+        if (minX > maxX || minY > maxY) {
+            return null;
+        }
+
+        final int marginX = windowSize != null ? (int) Math.ceil(windowSize.width) : 0;
+        final int marginY = windowSize != null ? (int) Math.ceil(windowSize.height) : 0;
+
+        final int x1 = Math.max(0, (int) Math.floor(minX) - marginX);
+        final int y1 = Math.max(0, (int) Math.floor(minY) - marginY);
+        final int x2 = Math.min(cols, (int) Math.ceil(maxX) + marginX + 1);
+        final int y2 = Math.min(rows, (int) Math.ceil(maxY) + marginY + 1);
+
+        if (x2 <= x1 || y2 <= y1) {
+            // region is out of frame
+            return new org.opencv.core.Rect(0, 0, 0, 0);
+        }
+
+        if (x1 == 0 && y1 == 0 && x2 == cols && y2 == rows) {
+            return null;
+        }
+
+        return new org.opencv.core.Rect(x1, y1, x2 - x1, y2 - y1);
+    }
+
+    /**
+     * runs cascade on region crop of frame (see {@link #getRegionCrop(List, Size, int, int)}) and translates found
+     * rects back to frame coordinates; rects are not filtered by region polygon here
+     */
+    protected static List<org.opencv.core.Rect> detectInRegion(CascadeClassifier classifier, Mat frame, List<org.opencv.core.Point> region,
+                                                              Size windowSize) {
+
+        final org.opencv.core.Rect crop = getRegionCrop(region, windowSize, frame.cols(), frame.rows());
+
+        if (crop == null) {
+            MatOfRect objects = new MatOfRect();
+            classifier.detectMultiScale(frame, objects);
+            List<org.opencv.core.Rect> result = objects.toList();
+            objects.release();
+            return result;
+        }
+
+        List<org.opencv.core.Rect> result = new ArrayList<org.opencv.core.Rect>();
+
+        if (crop.area() == 0 || (windowSize != null && (crop.width < windowSize.width || crop.height < windowSize.height))) {
+            logger.debug("region crop " + crop + " is smaller than window " + windowSize + ", nothing to detect");
+            return result;
+        }
+
+        logger.debug("detecting in region crop " + crop + " of " + frame.cols() + "x" + frame.rows());
+
+        MatOfRect objects = new MatOfRect();
+        Mat cropped = frame.submat(crop);
+        classifier.detectMultiScale(cropped, objects);
+        cropped.release();
+
+        for (org.opencv.core.Rect r : objects.toList()) {
+            r.x += crop.x;
+            r.y += crop.y;
+            result.add(r);
+        }
+
+        objects.release();
+        return result;
+    }
+
+    /**
+     * @return true if frame exceeds scale size and detection should run on downscaled copy
+     */
+    protected static boolean isScaleNeeded(Mat frame, Size scaleSize) {
+        return scaleSize != null && scaleSize.width >= 1 && scaleSize.height >= 1
+                && (frame.size().width > scaleSize.width || frame.size().height > scaleSize.height);
+    }
+
+    /**
+     * @param detectionSize size of frame to detect on, null for source size
+     * @return pre-processed frame from context: equalized gray if grayscale is set or source is 1 channel, source colors
+     * otherwise; must not be modified
+     */
+    protected static Mat getDetectionFrame(FrameContext context, Size detectionSize, boolean grayscale) {
+        return grayscale || context.getSource().channels() == 1 ? context.getEqualized(detectionSize) : context.getScaled(detectionSize);
+    }
+
+    /**
+     * @return region points multiplied by given factors, null if region is null
+     */
+    protected static List<org.opencv.core.Point> scalePoints(List<org.opencv.core.Point> region, double fx, double fy) {
+
+        if (region == null) {
+            return null;
+        }
+
+        List<org.opencv.core.Point> result = new ArrayList<org.opencv.core.Point>(region.size());
+
+        for (org.opencv.core.Point p : region) {
+            if (p == null) {
+                continue;
+            }
+            result.add(new org.opencv.core.Point(p.x * fx, p.y * fy));
+        }
+
+        return result;
+    }
+
+    /**
+     * @return rect found on frame scaled by given factors mapped back to source frame with given size
+     */
+    protected static org.opencv.core.Rect unscaleRect(org.opencv.core.Rect rect, double fx, double fy, int cols, int rows) {
+
+        final int x1 = Math.max(0, (int) Math.floor(rect.x / fx));
+        final int y1 = Math.max(0, (int) Math.floor(rect.y / fy));
+        final int x2 = Math.min(cols, (int) Math.ceil((rect.x + rect.width) / fx));
+        final int y2 = Math.min(rows, (int) Math.ceil((rect.y + rect.height) / fy));
+
+        return new org.opencv.core.Rect(x1, y1, Math.max(0, x2 - x1), Math.max(0, y2 - y1));
+    }
+
+    /**
+     * @return copy of source frame for drawing detected objects; must be returned by {@link MatPool#release(Mat)}
+     */
+    protected static Mat leaseOutputFrame(Mat sourceFrame) {
+        final Mat outputFrame = MatPool.getShared().lease(sourceFrame.size(), sourceFrame.type());
+        sourceFrame.copyTo(outputFrame);
+        return outputFrame;
+    }
+
+    /**
+     * base object detection by given cascade classifier, can be wrapped by implemented detect(); pre-processing
+     * included; if region is set, cascade runs only on its bounding box with margin of window size
+     *
+     * @param windowSize detection window size of classifier, see {@link ClassifierPool#getWindowSize()}; if null, no
+     *                   margin is added to region crop
+     * @param scaleSize  if frame is larger, cascade runs on downscaled copy of it; found rects, region and drawn objects
+     *                   stay in source frame coordinates; source frame is not modified, objects are drawn on its copy
+     * @param resultMode {@link ResultMode#RESULT_ONLY} - objects are drawn only if frames are saved, scene image is not
+     *                   copied to result
+     */
+    protected static ObjectDetectFrameInfo detect(CascadeClassifier classifier, Size windowSize, ObjectType objectType, Mat frame,
+                                                  Size scaleSize, List<org.opencv.core.Point> cvRegion, Scalar contourColor, boolean grayscale,
+                                                  File savedFramesDir, ResultMode resultMode) {
 
         if (frame == null)
             throw new NullPointerException("frame mat is null");
 
-        if (frame.empty())
-            throw new IllegalArgumentException("frame mat is empty");
+        final FrameContext context = new FrameContext(frame);
+        try {
+            return detect(classifier, windowSize, objectType, context, scaleSize, cvRegion, contourColor, grayscale, savedFramesDir,
+                    resultMode);
+        } finally {
+            context.release();
+        }
+    }
+
+    /**
+     * same as {@link #detect(CascadeClassifier, Size, ObjectType, Mat, Size, List, Scalar, boolean, File, ResultMode)},
+     * but gray, equalized and scaled frames are taken from context shared with other detectors
+     */
+    protected static ObjectDetectFrameInfo detect(CascadeClassifier classifier, Size windowSize, ObjectType objectType,
+                                                  FrameContext context, Size scaleSize, List<org.opencv.core.Point> cvRegion, Scalar contourColor,
+                                                  boolean grayscale, File savedFramesDir, ResultMode resultMode) {
+        logger.debug("detect(), classifier=" + classifier + ", windowSize=" + windowSize + ", objectType=" + objectType + ", context="
+                + context + ", scaleSize=" + scaleSize + ", cvRegion=" + cvRegion + ", contourColor=" + contourColor + ", grayscale="
+                + grayscale + ", savedFramesDir=" + savedFramesDir + ", resultMode=" + resultMode);
+
+        if (!isClassifierLoaded(classifier))
+            throw new RuntimeException("classifier is not loaded");
+
+        if (context == null)
+            throw new NullPointerException("context is null");
 
-        if (!(frame.channels() == 1 || frame.channels() == 3 || frame.channels() == 4))
-            throw new IllegalArgumentException("incorrect frame mat channels number: " + frame.channels());
+        final Mat sourceFrame = context.getSource();
 
         final long startTime = System.currentTimeMillis();
 
         if (savedFramesDir != null) {
-            logger.debug("saving source frame " + frame.width() + "x" + frame.height() + "...");
+            logger.debug("saving source frame " + sourceFrame.width() + "x" + sourceFrame.height() + "...");
 
-            long time = new Date().getTime();
-            FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", savedFramesDir.getAbsolutePath() + File.separator
-                    + SOURCE_FRAMES_DIR);
-            Highgui.imwrite(savedFramesDir.getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR + File.separator + "frame_"
-                    + dateFormatter.format(time) + ".png", frame);
+            FrameArchiver.getShared().archive(sourceFrame, savedFramesDir.getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR);
         }
 
-        if (scaleSize != null && (frame.size().width > scaleSize.width || frame.size().height > scaleSize.height))
-            Imgproc.resize(frame, frame, scaleSize);
-
-        if (grayscale) {
-            Mat frameGray = new Mat(frame.size(), CvType.CV_8UC1);
-
-            switch (frame.channels()) {
-                case 4:
-                    logger.debug("converting RGBA color space to gray...");
-                    Imgproc.cvtColor(frame, frameGray, Imgproc.COLOR_RGBA2GRAY);
-                    break;
-                case 3:
-                    logger.debug("converting RGB color space to gray...");
-                    Imgproc.cvtColor(frame, frameGray, Imgproc.COLOR_RGB2GRAY);
-                    break;
-                case 1:
-                    frame.copyTo(frameGray);
-                    break;
-            }
-
-            frame = frameGray;
-        }
+        final boolean scaled = isScaleNeeded(sourceFrame, scaleSize);
 
-        if (frame.channels() == 1)
-            Imgproc.equalizeHist(frame, frame); // frameGray, frameGray
+        final Mat frame = getDetectionFrame(context, scaled ? scaleSize : null, grayscale);
 
         if (frame == null || frame.empty())
             throw new RuntimeException("pre-processing failed: image is null or empty");
 
+        final double fx = (double) frame.cols() / sourceFrame.cols();
+        final double fy = (double) frame.rows() / sourceFrame.rows();
+
+        if (scaled) {
+            logger.debug("detecting on scaled copy " + frame.cols() + "x" + frame.rows());
+        }
+
         if (grayscale && savedFramesDir != null) {
             logger.debug("saving pre-processed frame " + frame.width() + "x" + frame.height() + "...");
 
-            long time = new Date().getTime();
-            FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", savedFramesDir.getAbsolutePath() + File.separator
-                    + PRE_PROCESSED_FRAMES_DIR);
-            Highgui.imwrite(savedFramesDir.getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR + File.separator + "frame_"
-                    + dateFormatter.format(time) + ".png", frame);
+            FrameArchiver.getShared().archive(frame, savedFramesDir.getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR);
         }
 
-        MatOfRect objects = new MatOfRect();
+        // cascade work is proportional to region size, not frame size
+        List<org.opencv.core.Rect> objects = detectInRegion(classifier, frame, scaled ? scalePoints(cvRegion, fx, fy) : cvRegion,
+                windowSize); // frameGray
 
-        classifier.detectMultiScale(frame, objects); // frameGray
+        final boolean drawObjects = resultMode != ResultMode.RESULT_ONLY || savedFramesDir != null;
+
+        if (scaled) {
+            List<org.opencv.core.Rect> sourceObjects = new ArrayList<org.opencv.core.Rect>(objects.size());
+            for (org.opencv.core.Rect r : objects) {
+                sourceObjects.add(unscaleRect(r, fx, fy, sourceFrame.cols(), sourceFrame.rows()));
+            }
+            objects = sourceObjects;
+        }
+
+        // source and pre-processed frames are shared through context, so objects are drawn on copy of source
+        final Mat outputFrame = drawObjects ? leaseOutputFrame(sourceFrame) : null;
 
         // frameGray.release();
 
@@ -241,7 +505,7 @@ public abstract class AbstractClassifierDetector {
         // } else
         // cvRegion = null;
 
-        List<org.opencv.core.Rect> cvFilteredObjects = DetectorHelper.filterRects(objects.toList(), cvRegion);
+        List<org.opencv.core.Rect> cvFilteredObjects = DetectorHelper.filterRects(objects, cvRegion);
         List<Rect> filteredObjects = null;
 
         // DetectorHelper.logRects(cvFilteredObjects);
@@ -255,27 +519,32 @@ public abstract class AbstractClassifierDetector {
                 if (rect == null)
                     continue;
 
-                Core.rectangle(frame, new org.opencv.core.Point(rect.x, rect.y), new org.opencv.core.Point(rect.x + rect.width, rect.y
-                        + rect.height), contourColor);
+                if (drawObjects) {
+                    Core.rectangle(outputFrame, new org.opencv.core.Point(rect.x, rect.y), new org.opencv.core.Point(rect.x + rect.width, rect.y
+                            + rect.height), contourColor);
+                }
                 filteredObjects.add(new Rect(rect.x, rect.y, rect.width, rect.height));
             }
         }
 
         if (filteredObjects != null && !filteredObjects.isEmpty()) {
             if (savedFramesDir != null) {
-                logger.debug("saving detected frame " + frame.width() + "x" + frame.height() + "...");
+                logger.debug("saving detected frame " + outputFrame.width() + "x" + outputFrame.height() + "...");
 
-                long time = new Date().getTime();
-                FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", savedFramesDir.getAbsolutePath() + File.separator
-                        + DETECTED_FRAMES_DIR);
-                Highgui.imwrite(savedFramesDir.getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR + File.separator + "frame_"
-                        + dateFormatter.format(time) + ".png", frame);
+                FrameArchiver.getShared().archive(outputFrame, savedFramesDir.getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR);
             }
         }
 
         // GraphicUtils.getBitmapData(OpenCvUtils.convertMatToBitmap(frame, false))
 
-        return new ObjectDetectFrameInfo(OpenCvUtils.convertMatToByteArray(frame), frame.type(), frame.cols(), frame.rows(),
+        ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(resultMode != ResultMode.RESULT_ONLY ? OpenCvUtils
+                .convertMatToByteArray(outputFrame) : null, sourceFrame.type(), sourceFrame.cols(), sourceFrame.rows(),
                 filteredObjects != null && !filteredObjects.isEmpty(), objectType, filteredObjects, System.currentTimeMillis() - startTime);
+
+        if (outputFrame != null) {
+            MatPool.getShared().release(outputFrame);
+        }
+
+        return info;
     }
 }
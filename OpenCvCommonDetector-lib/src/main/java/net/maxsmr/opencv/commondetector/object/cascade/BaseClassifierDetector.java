@@ -2,23 +2,24 @@ package net.maxsmr.opencv.commondetector.object.cascade;
 
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
 
 import java.io.File;
 import java.util.List;
 
-import org.opencv.core.Mat;
 import org.opencv.core.Point;
 import org.opencv.core.Size;
 import org.opencv.objdetect.CascadeClassifier;
 
 public class BaseClassifierDetector extends AbstractClassifierDetector {
 
-	/** the main cascade classifier; loads in constructor */
-	private CascadeClassifier baseClassifier;
+	/** instances of the main cascade classifier; first one loads in constructor */
+	private ClassifierPool basePool;
 
 	private boolean loadBaseClassifier(File f) {
-		baseClassifier = loadClassifier(f);
-		return isClassifierLoaded(baseClassifier);
+		basePool = f != null ? ClassifierPool.get(f) : null;
+		return basePool != null && basePool.preload();
 	}
 
 	private ObjectType objectType;
@@ -39,10 +40,25 @@ public class BaseClassifierDetector extends AbstractClassifierDetector {
 		setObjectType(objectType);
 	}
 
+	/**
+	 * not synchronized: each call leases own classifier instance from pool
+	 */
 	@Override
-	public synchronized ObjectDetectFrameInfo detect(Mat frame, Size scaleSize, List<Point> region) {
-		return AbstractClassifierDetector.detect(baseClassifier, objectType, frame, scaleSize, region, getContourColor(), grayscale(),
-				getSavedFramesDir());
+	public ObjectDetectFrameInfo detect(FrameContext context, Size scaleSize, List<Point> region, ResultMode resultMode) {
+
+		final ClassifierPool pool = basePool;
+
+		if (pool == null)
+			throw new RuntimeException("classifier is not loaded");
+
+		final CascadeClassifier baseClassifier = pool.lease();
+
+		try {
+			return AbstractClassifierDetector.detect(baseClassifier, pool.getWindowSize(), objectType, context, scaleSize, region,
+					getContourColor(), grayscale(), getSavedFramesDir(), resultMode);
+		} finally {
+			pool.release(baseClassifier);
+		}
 	}
 
 }
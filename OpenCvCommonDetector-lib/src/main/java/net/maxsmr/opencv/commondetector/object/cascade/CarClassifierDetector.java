@@ -6,24 +6,30 @@ import net.maxsmr.opencv.commondetector.model.graphic.Point;
 import net.maxsmr.opencv.commondetector.model.graphic.Rect;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
 
 import java.io.File;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.highgui.Highgui;
-import org.opencv.imgproc.Imgproc;
 import org.opencv.objdetect.CascadeClassifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import net.maxsmr.opencv.commondetector.utils.BoxSuppression;
+import net.maxsmr.opencv.commondetector.utils.DetectorExecutors;
+import net.maxsmr.opencv.commondetector.utils.FrameArchiver;
+import net.maxsmr.opencv.commondetector.utils.FrameContext;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 
 
@@ -31,26 +37,92 @@ public class CarClassifierDetector extends AbstractClassifierDetector {
 
 	private static final Logger logger = LoggerFactory.getLogger(CarClassifierDetector.class);
 
-	private List<File> mainClassifierFiles;
+	private volatile List<File> mainClassifierFiles;
 
+	/**
+	 * main cascade classifiers are leased from shared pools per file; pools are preloaded here and recreated only if
+	 * file is changed
+	 */
 	public void setMainClassifierFiles(List<File> files) {
 		mainClassifierFiles = files;
+		if (files != null) {
+			for (File f : files) {
+				if (!FileHelper.isFileCorrect(f) || !ClassifierPool.get(f).preload()) {
+					logger.error("failed loading main classifier: " + f);
+				}
+			}
+		}
 	}
 
-	/** the main cascade classifier; loads during detect() */
-	private CascadeClassifier mainClassifier;
+	/** instances of a test classifier; first one loads in constructor */
+	private volatile ClassifierPool checkPool;
 
-	private boolean loadMainClassifier(File f) {
-		mainClassifier = loadClassifier(f);
-		return isClassifierLoaded(mainClassifier);
+	public boolean loadCheckClassifier(File f) {
+		if (!FileHelper.isFileCorrect(f)) {
+			logger.error("incorrect check classifier file: " + f);
+			checkPool = null;
+			return false;
+		}
+		checkPool = ClassifierPool.get(f);
+		return checkPool.preload();
 	}
 
-	/** a test classifier; loads in constructor */
-	private CascadeClassifier checkClassifier;
+	public static final boolean DEFAULT_CONCURRENT = false;
 
-	public boolean loadCheckClassifier(File f) {
-		checkClassifier = loadClassifier(f);
-		return isClassifierLoaded(checkClassifier);
+	private volatile boolean concurrent = DEFAULT_CONCURRENT;
+
+	private volatile ExecutorService executor = DetectorExecutors.getShared();
+
+	public boolean isConcurrent() {
+		return concurrent;
+	}
+
+	/**
+	 * @param toggle if true, main cascades are evaluated in parallel, each with own main and check classifier
+	 *            instances; results are merged in order of main classifier files, so they are the same as in
+	 *            sequential mode; executor tasks don't wait for busy classifiers, such cascades are evaluated on
+	 *            calling thread
+	 */
+	public void setConcurrent(boolean toggle) {
+		this.concurrent = toggle;
+	}
+
+	/** @param executor executor for concurrent mode; {@link DetectorExecutors#getShared()} if null */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor != null ? executor : DetectorExecutors.getShared();
+	}
+
+	public static final BoxSuppression.Mode DEFAULT_SUPPRESSION_MODE = BoxSuppression.Mode.FUSION;
+
+	public static final double DEFAULT_SUPPRESSION_IOU = 0.5;
+
+	private volatile BoxSuppression.Mode suppressionMode = DEFAULT_SUPPRESSION_MODE;
+
+	private volatile double suppressionIou = DEFAULT_SUPPRESSION_IOU;
+
+	public BoxSuppression.Mode getSuppressionMode() {
+		return suppressionMode;
+	}
+
+	/**
+	 * @param mode how duplicates of the same car (confirmed by several nested hits or several main cascades) are
+	 *            merged before region filtering and drawing; score of candidate is number of nested hits of check
+	 *            classifier confirming it plus number of other main cascades found overlapping candidate, so best
+	 *            confirmed duplicate is kept
+	 */
+	public void setSuppressionMode(BoxSuppression.Mode mode) {
+		if (mode != null)
+			this.suppressionMode = mode;
+	}
+
+	public double getSuppressionIou() {
+		return suppressionIou;
+	}
+
+	public void setSuppressionIou(double iou) {
+		if (iou <= 0 || iou > 1)
+			throw new IllegalArgumentException("incorrect suppressionIou: " + iou);
+		this.suppressionIou = iou;
 	}
 
 	public CarClassifierDetector(List<File> mainClassifierFiles, File checkClassifierFile) {
@@ -71,167 +143,96 @@ public class CarClassifierDetector extends AbstractClassifierDetector {
 			new Scalar(128, 0, 128) };
 
 	@Override
-	public synchronized ObjectDetectFrameInfo detect(Mat frame, Size scaleSize, List<org.opencv.core.Point> region) {
-		logger.debug("detect(), frame=" + frame + ", scaleSize=" + scaleSize + ", region=" + region);
+	public ObjectDetectFrameInfo detect(FrameContext context, Size scaleSize, List<org.opencv.core.Point> region, ResultMode resultMode) {
+		logger.debug("detect(), context=" + context + ", scaleSize=" + scaleSize + ", region=" + region + ", resultMode=" + resultMode);
+
+		final List<File> mainClassifierFiles = this.mainClassifierFiles;
+		final ClassifierPool checkPool = this.checkPool;
 
-		if (!isClassifierLoaded(checkClassifier))
+		if (checkPool == null)
 			throw new RuntimeException("checkClassifier is not loaded");
 
 		if (mainClassifierFiles == null || mainClassifierFiles.isEmpty())
 			throw new RuntimeException("mainClassifierFiles is null or empty");
 
-		if (frame == null)
-			throw new NullPointerException("frame mat is null");
+		if (context == null)
+			throw new NullPointerException("context is null");
 
-		if (frame.empty())
-			throw new IllegalArgumentException("frame mat is empty");
-
-		if (!(frame.channels() == 1 || frame.channels() == 3 || frame.channels() == 4))
-			throw new IllegalArgumentException("incorrect frame mat channels number: " + frame.channels());
+		final Mat sourceFrame = context.getSource();
 
 		final long startTime = System.currentTimeMillis();
 
 		if (getSavedFramesDir() != null) {
-			logger.debug("saving source frame " + frame.width() + "x" + frame.height() + "...");
+			logger.debug("saving source frame " + sourceFrame.width() + "x" + sourceFrame.height() + "...");
 
-			long time = new Date().getTime();
-			FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath() + File.separator
-					+ SOURCE_FRAMES_DIR);
-			Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR + File.separator + "frame_"
-					+ dateFormatter.format(time) + ".png", frame);
+			FrameArchiver.getShared().archive(sourceFrame, getSavedFramesDir().getAbsolutePath() + File.separator + SOURCE_FRAMES_DIR);
 		}
 
-		if (scaleSize != null && (frame.size().width > scaleSize.width || frame.size().height > scaleSize.height))
-			Imgproc.resize(frame, frame, scaleSize);
-
-		if (grayscale()) {
-			Mat frameGray = new Mat(frame.size(), CvType.CV_8UC1);
-
-			switch (frame.channels()) {
-			case 4:
-				logger.debug("converting RGBA color space to gray...");
-				Imgproc.cvtColor(frame, frameGray, Imgproc.COLOR_RGBA2GRAY);
-				break;
-			case 3:
-				logger.debug("converting RGB color space to gray...");
-				Imgproc.cvtColor(frame, frameGray, Imgproc.COLOR_RGB2GRAY);
-				break;
-			case 1:
-				frame.copyTo(frameGray);
-				break;
-			}
+		final boolean scaled = isScaleNeeded(sourceFrame, scaleSize);
 
-			frame = frameGray;
-		}
-
-		if (frame.channels() == 1)
-			Imgproc.equalizeHist(frame, frame); // frameGray, frameGray
+		// pre-processed frame is shared through context and must not be modified
+		final Mat frame = getDetectionFrame(context, scaled ? scaleSize : null, grayscale());
 
 		if (frame == null || frame.empty())
 			throw new RuntimeException("pre-processing failed: image is null or empty");
 
+		final double fx = (double) frame.cols() / sourceFrame.cols();
+		final double fy = (double) frame.rows() / sourceFrame.rows();
+
+		if (scaled) {
+			logger.debug("detecting on scaled copy " + frame.cols() + "x" + frame.rows());
+		}
+
+		// cascades work in coordinates of detection frame
+		final List<org.opencv.core.Point> detectRegion = scaled ? scalePoints(region, fx, fy) : region;
+
 		if (grayscale() && getSavedFramesDir() != null) {
 			logger.debug("saving pre-processed frame " + frame.width() + "x" + frame.height() + "...");
 
-			long time = new Date().getTime();
-			FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath() + File.separator
-					+ PRE_PROCESSED_FRAMES_DIR);
-			Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR + File.separator + "frame_"
-					+ dateFormatter.format(time) + ".png", frame);
+			FrameArchiver.getShared().archive(frame, getSavedFramesDir().getAbsolutePath() + File.separator + PRE_PROCESSED_FRAMES_DIR);
 		}
 
 		// number of total cars detected
 		int detectedCarsCount = 0;
 		List<Rect> detectedCars = new ArrayList<Rect>();
 
-		Mat outputImage = new Mat(frame.size(), frame.type());
-		frame.copyTo(outputImage);
+		// annotated copy is needed only for result scene image or saved frames; source and pre-processed frames are
+		// shared through context, so objects are drawn in source coordinates on copy of source
+		final Mat outputImage = resultMode != ResultMode.RESULT_ONLY || getSavedFramesDir() != null ? leaseOutputFrame(sourceFrame)
+				: null;
 
-		for (File f : mainClassifierFiles) {
+		final List<List<Candidate>> cascadesCandidates = concurrent && mainClassifierFiles.size() > 1 ? evaluateConcurrently(
+				mainClassifierFiles, checkPool, frame, detectRegion) : evaluateSequentially(mainClassifierFiles, checkPool, frame, detectRegion);
 
-			if (!FileHelper.isFileCorrect(f)) {
-				logger.error("incorrect main classifier file: " + f);
-				continue;
+		// merging in order of main classifier files
+		final List<Candidate> merged = new ArrayList<Candidate>();
+		for (int i = 0; i < cascadesCandidates.size(); i++) {
+			for (Candidate candidate : cascadesCandidates.get(i)) {
+				candidate.cascadeIndex = i;
+				merged.add(candidate);
 			}
+		}
 
-			if (!loadMainClassifier(f)) {
-				logger.error("failed loading main classifier");
-				continue;
-			}
+		for (Candidate candidate : suppress(merged)) {
 
-			MatOfRect mainCars = new MatOfRect();
-			mainClassifier.detectMultiScale(frame, mainCars); // frameGray
+			final Rect car;
 
-			if (mainCars.empty()) {
-				logger.debug("no main cars detected by this main classifier (file: " + f + ")");
-				continue;
+			if (scaled) {
+				org.opencv.core.Rect r = unscaleRect(new org.opencv.core.Rect(candidate.rect.x, candidate.rect.y, candidate.rect.width,
+						candidate.rect.height), fx, fy, sourceFrame.cols(), sourceFrame.rows());
+				car = new Rect(r.x, r.y, r.width, r.height);
+			} else {
+				car = candidate.rect;
 			}
 
-			int colorIndex = 0;
-
-			for (org.opencv.core.Rect mainCar : mainCars.toList()) {
-
-				if (mainCar == null || mainCar.size().width == 0 || mainCar.size().height == 0) {
-					logger.error("incorrect main car rect: " + mainCar);
-					continue;
-				}
-
-				if (region != null && !region.isEmpty() && !DetectorHelper.isRectInPolygon(mainCar, region)) {
-					logger.warn("main car rect " + mainCar + " is out or region");
-					continue;
-				}
-
-				Mat roiImg = new Mat(frame, mainCar); // frameGray
-
-				MatOfRect nestedCars = new MatOfRect();
-
-				// getting points for bouding a rectangle over the car detected by main
-				int x0 = mainCar.x;
-				int y0 = mainCar.y;
-				int width = mainCar.width;
-				int height = mainCar.height;
-				int x1 = mainCar.x + width - 1;
-				int y1 = mainCar.y + height - 1;
-
-				checkClassifier.detectMultiScale(roiImg, nestedCars);
-
-				if (nestedCars.empty()) {
-					logger.debug("main car rect " + mainCar + " was rejected by check classifier (no detected nested cars)");
-					continue;
-				} else
-					logger.debug("nested cars (" + nestedCars.toList().size()
-							+ ") were detected by by check classifier with main car rect " + mainCar);
-
-				// testing the detected car by main using nested cars detected by checkcascade
-				for (org.opencv.core.Rect nestedCar : nestedCars.toList()) {
-
-					if (nestedCar == null || nestedCar.size().width == 0 || nestedCar.size().height == 0) {
-						logger.error("incorrect nested car rect: " + nestedCar);
-						continue;
-					}
-
-					// getting center points for bouding a circle over the car detected by checkcascade
-					Point center = new Point();
-					center.x = (int) Math.round(mainCar.x + nestedCar.x + nestedCar.width * 0.5);
-					center.y = (int) Math.round(mainCar.y + nestedCar.y + nestedCar.height * 0.5);
-
-					// if center of bounding circle is inside the rectangle boundary over a threshold the car is
-					// certified
-					if (center.x > (x0 + 15) && center.x < (x1 - 15) && center.y > (y0 + 15) && center.y < (y1 - 15)) {
-
-						// drawing boundary rectangle over the final result
-						Core.rectangle(outputImage, new org.opencv.core.Point(x0, y0), new org.opencv.core.Point(x1, y1),
-								detectedCarsColors[colorIndex % detectedCarsColors.length], getContourThickness());
-
-						detectedCars.add(new Rect(x0, y0, width, height));
-						detectedCarsCount++;
-					}
-				}
-
-				colorIndex++;
+			// drawing boundary rectangle over the final result
+			if (outputImage != null) {
+				Core.rectangle(outputImage, new org.opencv.core.Point(car.x, car.y), new org.opencv.core.Point(car.x + car.width - 1, car.y
+						+ car.height - 1), detectedCarsColors[candidate.colorIndex % detectedCarsColors.length], getContourThickness());
 			}
 
-			mainClassifier = null;
+			detectedCars.add(car);
+			detectedCarsCount++;
 		}
 
 		// frameGray.release();
@@ -265,24 +266,303 @@ public class CarClassifierDetector extends AbstractClassifierDetector {
 			detectedCars = null;
 
 		if (detectedCarsCount > 0) {
-			if (getSavedFramesDir() != null) {
+			if (getSavedFramesDir() != null && outputImage != null) {
 				logger.debug("saving detected frame " + outputImage.width() + "x" + outputImage.height() + "...");
 
-				long time = new Date().getTime();
-				FileHelper.createNewFile("frame_" + dateFormatter.format(time) + ".png", getSavedFramesDir().getAbsolutePath()
-						+ File.separator + DETECTED_FRAMES_DIR);
-				Highgui.imwrite(getSavedFramesDir().getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR + File.separator + "frame_"
-						+ dateFormatter.format(time) + ".png", outputImage);
+				FrameArchiver.getShared().archive(outputImage, getSavedFramesDir().getAbsolutePath() + File.separator + DETECTED_FRAMES_DIR);
 			}
 		}
 
 		// GraphicUtils.getBitmapData(OpenCvUtils.convertMatToBitmap(outputImage, false))
 
-		ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(OpenCvUtils.convertMatToByteArray(outputImage), outputImage.type(),
-				outputImage.cols(), outputImage.rows(), detectedCarsCount > 0, ObjectType.CAR, detectedCars, System.currentTimeMillis()
-						- startTime);
-		outputImage.release();
+		ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(resultMode != ResultMode.RESULT_ONLY ? OpenCvUtils.convertMatToByteArray(outputImage)
+				: null, sourceFrame.type(), sourceFrame.cols(), sourceFrame.rows(), detectedCarsCount > 0, ObjectType.CAR, detectedCars,
+				System.currentTimeMillis() - startTime);
+		if (outputImage != null) {
+			MatPool.getShared().release(outputImage);
+		}
 		return info;
 	}
 
+	/**
+	 * @return candidates left after suppression of duplicates, in order of best scored candidate of each group; score
+	 *         is candidate's nested confirmations plus number of other main cascades with overlapping candidates
+	 */
+	private List<Candidate> suppress(List<Candidate> candidates) {
+
+		final BoxSuppression.Mode mode = suppressionMode;
+		final int count = candidates.size();
+
+		if (mode == BoxSuppression.Mode.NONE || count < 2) {
+			return candidates;
+		}
+
+		final int[] boxes = new int[count * 4];
+		final double[] scores = new double[count];
+
+		for (int i = 0; i < count; i++) {
+			final Rect r = candidates.get(i).rect;
+			boxes[i * 4] = r.x;
+			boxes[i * 4 + 1] = r.y;
+			boxes[i * 4 + 2] = r.width;
+			boxes[i * 4 + 3] = r.height;
+		}
+
+		int cascadesCount = 0;
+		for (Candidate candidate : candidates) {
+			cascadesCount = Math.max(cascadesCount, candidate.cascadeIndex + 1);
+		}
+
+		for (int i = 0; i < count; i++) {
+			final Candidate candidate = candidates.get(i);
+			final boolean[] confirmedBy = new boolean[cascadesCount];
+			int cascades = 0;
+			for (int j = 0; j < count; j++) {
+				final int other = candidates.get(j).cascadeIndex;
+				if (other != candidate.cascadeIndex && !confirmedBy[other] && BoxSuppression.iou(boxes, i, j) >= suppressionIou) {
+					confirmedBy[other] = true;
+					cascades++;
+				}
+			}
+			scores[i] = candidate.confirmations + cascades;
+		}
+
+		List<Candidate> result = new ArrayList<Candidate>();
+
+		if (mode == BoxSuppression.Mode.NMS) {
+			for (int i : BoxSuppression.nonMaxSuppression(boxes, scores, suppressionIou)) {
+				result.add(candidates.get(i));
+			}
+		} else {
+			final int[] fusedBoxes = new int[boxes.length];
+			final double[] fusedScores = new double[count];
+			final int[] leads = new int[count];
+			final int clusters = BoxSuppression.fuse(boxes, scores, suppressionIou, fusedBoxes, fusedScores, leads);
+			for (int c = 0; c < clusters; c++) {
+				final Candidate lead = candidates.get(leads[c]);
+				Candidate fused = new Candidate(new Rect(fusedBoxes[c * 4], fusedBoxes[c * 4 + 1], fusedBoxes[c * 4 + 2],
+						fusedBoxes[c * 4 + 3]), lead.colorIndex, (int) Math.round(fusedScores[c]));
+				fused.cascadeIndex = lead.cascadeIndex;
+				result.add(fused);
+			}
+		}
+
+		logger.debug("candidates suppressed: " + count + " -> " + result.size());
+		return result;
+	}
+
+	private List<List<Candidate>> evaluateSequentially(List<File> mainClassifierFiles, ClassifierPool checkPool, Mat frame,
+			List<org.opencv.core.Point> region) {
+		List<List<Candidate>> result = new ArrayList<List<Candidate>>(mainClassifierFiles.size());
+		for (File f : mainClassifierFiles) {
+			result.add(evaluateCascade(f, checkPool, frame, region));
+		}
+		return result;
+	}
+
+	private List<List<Candidate>> evaluateConcurrently(List<File> mainClassifierFiles, final ClassifierPool checkPool, final Mat frame,
+			final List<org.opencv.core.Point> region) {
+
+		final int count = mainClassifierFiles.size();
+
+		List<Future<List<Candidate>>> futures = new ArrayList<Future<List<Candidate>>>(count);
+
+		for (int i = 0; i < count; i++) {
+			final File f = mainClassifierFiles.get(i);
+			futures.add(executor.submit(new Callable<List<Candidate>>() {
+				@Override
+				public List<Candidate> call() throws Exception {
+					// executor threads never wait for classifiers leased by other detections
+					return evaluateCascade(f, checkPool, frame, region, false);
+				}
+			}));
+		}
+
+		List<List<Candidate>> result = new ArrayList<List<Candidate>>(count);
+
+		for (int i = 0; i < count; i++) {
+			try {
+				List<Candidate> candidates = futures.get(i).get();
+				if (candidates == null) {
+					// no free instances for task, evaluating on calling thread as in sequential mode
+					logger.debug("classifiers of " + mainClassifierFiles.get(i) + " are busy, evaluating sequentially");
+					candidates = evaluateCascade(mainClassifierFiles.get(i), checkPool, frame, region);
+				}
+				result.add(candidates);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				for (Future<List<Candidate>> future : futures) {
+					future.cancel(true);
+				}
+				throw new RuntimeException("interrupted during evaluating main cascades", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("evaluating main cascade " + mainClassifierFiles.get(i) + " failed", e.getCause());
+			}
+		}
+
+		return result;
+	}
+
+	private List<Candidate> evaluateCascade(File f, ClassifierPool checkPool, Mat frame, List<org.opencv.core.Point> region) {
+		return evaluateCascade(f, checkPool, frame, region, true);
+	}
+
+	/**
+	 * leases main classifier of given file and then check classifier (always in this order, so concurrent evaluations
+	 * can't block each other)
+	 *
+	 * @param wait if false, classifiers are leased without waiting
+	 * @return null if wait is false and classifiers can't be leased at once (busy or failed to load); caller
+	 *         evaluates again with waiting
+	 */
+	private List<Candidate> evaluateCascade(File f, ClassifierPool checkPool, Mat frame, List<org.opencv.core.Point> region, boolean wait) {
+
+		if (!FileHelper.isFileCorrect(f)) {
+			logger.error("incorrect main classifier file: " + f);
+			return new ArrayList<Candidate>();
+		}
+
+		final ClassifierPool mainPool = ClassifierPool.get(f);
+		final CascadeClassifier mainClassifier = wait ? mainPool.lease() : mainPool.tryLease();
+
+		if (mainClassifier == null) {
+			if (!wait) {
+				return null;
+			}
+			logger.error("failed loading main classifier");
+			return new ArrayList<Candidate>();
+		}
+
+		try {
+			final CascadeClassifier checkClassifier = wait ? checkPool.lease() : checkPool.tryLease();
+
+			if (checkClassifier == null) {
+				if (!wait) {
+					return null;
+				}
+				throw new RuntimeException("checkClassifier is not loaded");
+			}
+
+			try {
+				return evaluateCascade(f, mainClassifier, mainPool.getWindowSize(), checkClassifier, frame, region);
+			} finally {
+				checkPool.release(checkClassifier);
+			}
+		} finally {
+			mainPool.release(mainClassifier);
+		}
+	}
+
+	/**
+	 * @return cars detected by given main classifier and confirmed by check classifier, in order of detection
+	 */
+	private List<Candidate> evaluateCascade(File f, CascadeClassifier mainClassifier, Size mainWindowSize, CascadeClassifier checkClassifier,
+			Mat frame, List<org.opencv.core.Point> region) {
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+
+		if (!isClassifierLoaded(mainClassifier)) {
+			logger.error("failed loading main classifier");
+			return candidates;
+		}
+
+		// main cascade runs only on region crop
+		List<org.opencv.core.Rect> mainCars = detectInRegion(mainClassifier, frame, region, mainWindowSize); // frameGray
+
+		if (mainCars.isEmpty()) {
+			logger.debug("no main cars detected by this main classifier (file: " + f + ")");
+			return candidates;
+		}
+
+		int colorIndex = 0;
+
+		for (org.opencv.core.Rect mainCar : mainCars) {
+
+			if (mainCar == null || mainCar.size().width == 0 || mainCar.size().height == 0) {
+				logger.error("incorrect main car rect: " + mainCar);
+				continue;
+			}
+
+			if (region != null && !region.isEmpty() && !DetectorHelper.isRectInPolygon(mainCar, region)) {
+				logger.warn("main car rect " + mainCar + " is out or region");
+				continue;
+			}
+
+			Mat roiImg = new Mat(frame, mainCar); // frameGray
+
+			MatOfRect nestedCars = new MatOfRect();
+
+			// getting points for bouding a rectangle over the car detected by main
+			int x0 = mainCar.x;
+			int y0 = mainCar.y;
+			int width = mainCar.width;
+			int height = mainCar.height;
+			int x1 = mainCar.x + width - 1;
+			int y1 = mainCar.y + height - 1;
+
+			checkClassifier.detectMultiScale(roiImg, nestedCars);
+			roiImg.release();
+
+			if (nestedCars.empty()) {
+				logger.debug("main car rect " + mainCar + " was rejected by check classifier (no detected nested cars)");
+				nestedCars.release();
+				continue;
+			} else
+				logger.debug("nested cars (" + nestedCars.toList().size() + ") were detected by by check classifier with main car rect "
+						+ mainCar);
+
+			int confirmations = 0;
+
+			// testing the detected car by main using nested cars detected by checkcascade
+			for (org.opencv.core.Rect nestedCar : nestedCars.toList()) {
+
+				if (nestedCar == null || nestedCar.size().width == 0 || nestedCar.size().height == 0) {
+					logger.error("incorrect nested car rect: " + nestedCar);
+					continue;
+				}
+
+				// getting center points for bouding a circle over the car detected by checkcascade
+				Point center = new Point();
+				center.x = (int) Math.round(mainCar.x + nestedCar.x + nestedCar.width * 0.5);
+				center.y = (int) Math.round(mainCar.y + nestedCar.y + nestedCar.height * 0.5);
+
+				// if center of bounding circle is inside the rectangle boundary over a threshold the car is
+				// certified
+				if (center.x > (x0 + 15) && center.x < (x1 - 15) && center.y > (y0 + 15) && center.y < (y1 - 15)) {
+					confirmations++;
+				}
+			}
+
+			nestedCars.release();
+
+			// one candidate per main car, scored by number of nested hits confirming it
+			if (confirmations > 0) {
+				candidates.add(new Candidate(new Rect(x0, y0, width, height), colorIndex, confirmations));
+			}
+
+			colorIndex++;
+		}
+
+		return candidates;
+	}
+
+	private static final class Candidate {
+
+		final Rect rect;
+
+		final int colorIndex;
+
+		/** nested hits of check classifier confirming candidate */
+		final int confirmations;
+
+		/** index of main cascade found candidate, set on merging */
+		int cascadeIndex;
+
+		Candidate(Rect rect, int colorIndex, int confirmations) {
+			this.rect = rect;
+			this.colorIndex = colorIndex;
+			this.confirmations = confirmations;
+		}
+	}
+
 }
@@ -0,0 +1,276 @@
+package net.maxsmr.opencv.commondetector.object.cascade;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+/**
+ * cascade models extracted from raw resources once: each resource is stored under name of its content SHA-1 hash and
+ * recorded in index with size and package update time, so while application is not updated resource is neither copied
+ * nor read again; parsed classifiers are handed out through shared {@link ClassifierPool} of extracted file
+ */
+public final class CascadeModelStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(CascadeModelStore.class);
+
+    public static final String STORE_DIR_NAME = "cascade";
+
+    private static final String INDEX_FILE_NAME = "index.properties";
+
+    private static final String MODEL_FILE_EXT = ".xml";
+
+    private static CascadeModelStore instance;
+
+    public static CascadeModelStore getInstance(Context context) {
+        synchronized (CascadeModelStore.class) {
+            if (instance == null) {
+                instance = new CascadeModelStore(context.getApplicationContext());
+            }
+            return instance;
+        }
+    }
+
+    private final Context context;
+
+    private final File storeDir;
+
+    private final File indexFile;
+
+    private final Properties index = new Properties();
+
+    /** extracted files of resources requested by this process */
+    private final Map<Integer, File> files = new HashMap<Integer, File>();
+
+    private final ExecutorService preloadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, CascadeModelStore.class.getSimpleName());
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    });
+
+    private CascadeModelStore(Context context) {
+        this.context = context;
+        this.storeDir = context.getDir(STORE_DIR_NAME, Context.MODE_PRIVATE);
+        this.indexFile = new File(storeDir, INDEX_FILE_NAME);
+        readIndex();
+    }
+
+    public File getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * @return extracted model file of given raw resource; resource is extracted only if it's not in store yet or
+     * application was updated since
+     */
+    public synchronized File getFile(int rawResId) throws IOException {
+
+        File file = files.get(rawResId);
+
+        if (file != null && file.isFile()) {
+            return file;
+        }
+
+        final String name = context.getResources().getResourceEntryName(rawResId);
+        final String stamp = String.valueOf(getPackageUpdateTime());
+
+        // stamp:hash:size
+        final String record = index.getProperty(name);
+
+        if (record != null) {
+            String[] parts = record.split(":");
+            if (parts.length == 3 && parts[0].equals(stamp)) {
+                File stored = new File(storeDir, parts[1] + MODEL_FILE_EXT);
+                if (stored.isFile() && String.valueOf(stored.length()).equals(parts[2])) {
+                    logger.debug("model " + name + " is in store: " + stored);
+                    files.put(rawResId, stored);
+                    return stored;
+                }
+            }
+        }
+
+        file = extract(rawResId, name);
+
+        index.setProperty(name, stamp + ":" + file.getName().substring(0, file.getName().length() - MODEL_FILE_EXT.length()) + ":"
+                + file.length());
+        writeIndex();
+
+        files.put(rawResId, file);
+        return file;
+    }
+
+    /**
+     * @return shared pool of parsed classifiers of given raw resource
+     */
+    public ClassifierPool getPool(int rawResId) throws IOException {
+        return ClassifierPool.get(getFile(rawResId));
+    }
+
+    /**
+     * extracts given resources in background thread and optionally parses first classifier instance of each (native
+     * OpenCV library must be loaded by then)
+     */
+    public Future<?> preloadAsync(final boolean parse, final int... rawResIds) {
+        return preloadExecutor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int resId : rawResIds) {
+                    try {
+                        File f = getFile(resId);
+                        if (parse && !ClassifierPool.get(f).preload()) {
+                            logger.error("failed parsing model " + f);
+                        }
+                    } catch (IOException e) {
+                        logger.error("failed extracting model resource " + resId, e);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return leased classifier of given raw resource; must be returned to {@link #getPool(int)}
+     */
+    public CascadeClassifier lease(int rawResId) throws IOException {
+        return getPool(rawResId).lease();
+    }
+
+    private File extract(int rawResId, String name) throws IOException {
+
+        final long startTime = System.currentTimeMillis();
+
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available", e);
+        }
+
+        File tempFile = File.createTempFile(name, ".tmp", storeDir);
+
+        InputStream is = null;
+        OutputStream os = null;
+
+        try {
+            is = context.getResources().openRawResource(rawResId);
+            os = new FileOutputStream(tempFile);
+
+            byte[] buffer = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                os.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    logger.error("an IOException occurred during close()", e);
+                }
+            }
+            if (os != null) {
+                os.close();
+            }
+        }
+
+        final File file = new File(storeDir, toHex(digest.digest()) + MODEL_FILE_EXT);
+
+        if (file.isFile() && file.length() == tempFile.length()) {
+            // same content is already stored
+            if (!tempFile.delete()) {
+                logger.warn("can't delete temp file " + tempFile);
+            }
+        } else if (!tempFile.renameTo(file)) {
+            if (!tempFile.delete()) {
+                logger.warn("can't delete temp file " + tempFile);
+            }
+            throw new IOException("can't move " + tempFile + " to " + file);
+        }
+
+        logger.info("model " + name + " extracted to " + file + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return file;
+    }
+
+    private long getPackageUpdateTime() {
+        try {
+            return context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            logger.error("can't get package info", e);
+            return 0;
+        }
+    }
+
+    private void readIndex() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        InputStream is = null;
+        try {
+            is = new FileInputStream(indexFile);
+            index.load(is);
+        } catch (IOException e) {
+            logger.error("an IOException occurred during reading index " + indexFile, e);
+            index.clear();
+        } finally {
+            if (is != null) {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    logger.error("an IOException occurred during close()", e);
+                }
+            }
+        }
+    }
+
+    private void writeIndex() {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(indexFile);
+            index.store(os, null);
+        } catch (IOException e) {
+            logger.error("an IOException occurred during writing index " + indexFile, e);
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    logger.error("an IOException occurred during close()", e);
+                }
+            }
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,317 @@
+package net.maxsmr.opencv.commondetector.object.cascade;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * pool of loaded {@link CascadeClassifier} instances of one model file; instance is leased for single detection and
+ * released after it, so concurrent detections with the same model don't need detector-wide lock; instances are
+ * loaded lazily (one xml parse per instance) up to max instances count, after that {@link #lease()} waits for released
+ * one
+ * <p>
+ * pools are shared through {@link #get(File)}: registry is bounded (least recently used pools are evicted) and pool
+ * is recreated if model file modification time or length is changed
+ */
+public final class ClassifierPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassifierPool.class);
+
+    public static final int DEFAULT_MAX_INSTANCES = Runtime.getRuntime().availableProcessors();
+
+    public static final int DEFAULT_MAX_POOLS = 16;
+
+    /** used if window size can't be read from model file */
+    public static final Size DEFAULT_WINDOW_SIZE = new Size(24, 24);
+
+    /** window size is in header, so only first lines are scanned */
+    private static final int WINDOW_SIZE_MAX_LINES = 256;
+
+    private static final Pattern WIDTH_PATTERN = Pattern.compile("<width>\\s*(\\d+)\\s*</width>");
+    private static final Pattern HEIGHT_PATTERN = Pattern.compile("<height>\\s*(\\d+)\\s*</height>");
+    // old haar format
+    private static final Pattern SIZE_PATTERN = Pattern.compile("<size>\\s*(\\d+)\\s+(\\d+)\\s*</size>");
+
+    private static final LinkedHashMap<String, ClassifierPool> pools = new LinkedHashMap<String, ClassifierPool>(DEFAULT_MAX_POOLS,
+            0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClassifierPool> eldest) {
+            if (size() > DEFAULT_MAX_POOLS) {
+                logger.debug("evicting classifier pool " + eldest.getKey());
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * @return shared pool of given model file
+     */
+    public static ClassifierPool get(File file) {
+
+        if (file == null)
+            throw new NullPointerException("file is null");
+
+        final String path = file.getAbsolutePath();
+        final long lastModified = file.lastModified();
+        final long length = file.length();
+
+        synchronized (pools) {
+
+            ClassifierPool pool = pools.get(path);
+
+            if (pool != null && pool.lastModified == lastModified && pool.length == length) {
+                return pool;
+            }
+
+            if (pool != null) {
+                logger.info("classifier file " + path + " was changed, recreating pool...");
+            }
+
+            pool = new ClassifierPool(file, lastModified, length, DEFAULT_MAX_INSTANCES);
+            pools.put(path, pool);
+            return pool;
+        }
+    }
+
+    /**
+     * drops all shared pools; leased instances remain valid
+     */
+    public static void clearAll() {
+        synchronized (pools) {
+            pools.clear();
+        }
+    }
+
+    private final File file;
+
+    private final long lastModified;
+
+    private final long length;
+
+    private final int maxInstances;
+
+    private final LinkedList<CascadeClassifier> idle = new LinkedList<CascadeClassifier>();
+
+    private int createdCount = 0;
+
+    private boolean loadFailed = false;
+
+    /** modification time and length of file which failed to load, to retry when it's changed */
+    private long failedLastModified;
+    private long failedLength;
+
+    private Size windowSize = null;
+
+    private ClassifierPool(File file, long lastModified, long length, int maxInstances) {
+
+        if (maxInstances <= 0)
+            throw new IllegalArgumentException("incorrect maxInstances: " + maxInstances);
+
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.maxInstances = maxInstances;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getMaxInstances() {
+        return maxInstances;
+    }
+
+    public synchronized int getCreatedCount() {
+        return createdCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * @return detection window size (min object size) of the model, read from file once; {@link #DEFAULT_WINDOW_SIZE}
+     * if it can't be read
+     */
+    public synchronized Size getWindowSize() {
+        if (windowSize == null) {
+            windowSize = readWindowSize(file);
+            logger.debug("window size of " + file + ": " + windowSize);
+        }
+        return windowSize.clone();
+    }
+
+    private static Size readWindowSize(File file) {
+
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(file));
+
+            int width = 0;
+            int height = 0;
+
+            String line;
+            int lines = 0;
+
+            while ((line = reader.readLine()) != null && lines++ < WINDOW_SIZE_MAX_LINES) {
+
+                Matcher m = SIZE_PATTERN.matcher(line);
+                if (m.find()) {
+                    return new Size(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)));
+                }
+
+                if (width == 0 && (m = WIDTH_PATTERN.matcher(line)).find()) {
+                    width = Integer.parseInt(m.group(1));
+                }
+                if (height == 0 && (m = HEIGHT_PATTERN.matcher(line)).find()) {
+                    height = Integer.parseInt(m.group(1));
+                }
+                if (width > 0 && height > 0) {
+                    return new Size(width, height);
+                }
+            }
+
+        } catch (IOException e) {
+            logger.error("an IOException occurred during reading " + file, e);
+        } catch (NumberFormatException e) {
+            logger.error("incorrect window size in " + file, e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.error("an IOException occurred during close()", e);
+                }
+            }
+        }
+
+        logger.warn("window size is not found in " + file + ", using default");
+        return DEFAULT_WINDOW_SIZE.clone();
+    }
+
+    /**
+     * loads first instance if it's not loaded yet
+     *
+     * @return true if model can be loaded
+     */
+    public boolean preload() {
+        CascadeClassifier c = lease();
+        if (c != null) {
+            release(c);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return idle or newly loaded instance, waiting for released one if max instances are leased; null if model can't
+     * be loaded or waiting was interrupted; leased instance must be returned by {@link #release(CascadeClassifier)};
+     * loading is retried if file is changed after failure
+     */
+    public CascadeClassifier lease() {
+        return lease(true);
+    }
+
+    /**
+     * same as {@link #lease()}, but doesn't wait: for tasks on shared executors, which must not block its threads
+     *
+     * @return null also if max instances are leased
+     */
+    public CascadeClassifier tryLease() {
+        return lease(false);
+    }
+
+    private CascadeClassifier lease(boolean wait) {
+
+        synchronized (this) {
+
+            if (loadFailed && (file.lastModified() != failedLastModified || file.length() != failedLength)) {
+                logger.info("classifier file " + file + " was changed after failed loading, retrying...");
+                loadFailed = false;
+            }
+
+            while (idle.isEmpty() && createdCount >= maxInstances && !loadFailed) {
+                if (!wait) {
+                    return null;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.error("interrupted during waiting classifier " + file, e);
+                    return null;
+                }
+            }
+
+            if (!idle.isEmpty()) {
+                return idle.removeFirst();
+            }
+
+            if (loadFailed) {
+                return null;
+            }
+
+            createdCount++;
+        }
+
+        CascadeClassifier classifier = null;
+
+        try {
+            // parsing outside of lock, so released instances are available meanwhile
+            classifier = AbstractClassifierDetector.loadClassifier(file);
+        } finally {
+            // slot is freed on failure or any Throwable (e.g. native library is not loaded yet)
+            synchronized (this) {
+                if (classifier == null) {
+                    createdCount--;
+                    notifyAll();
+                } else {
+                    loadFailed = false;
+                }
+            }
+        }
+
+        if (classifier == null) {
+            synchronized (this) {
+                loadFailed = true;
+                failedLastModified = file.lastModified();
+                failedLength = file.length();
+                notifyAll();
+            }
+            logger.error("failed loading classifier " + file);
+        } else {
+            logger.debug("classifier instance loaded from " + file + ", max instances: " + maxInstances);
+        }
+
+        return classifier;
+    }
+
+    public synchronized void release(CascadeClassifier classifier) {
+        if (classifier != null) {
+            idle.addLast(classifier);
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ClassifierPool [file=" + file + ", maxInstances=" + maxInstances + ", createdCount=" + createdCount + ", idleCount="
+                + idle.size() + ", loadFailed=" + loadFailed + "]";
+    }
+}
@@ -0,0 +1,500 @@
+package net.maxsmr.opencv.commondetector.object.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * binary descriptors (e.g. ORB) of many templates packed to long[] and indexed by multi-index hashing: each
+ * descriptor is split into 16-bit substrings, each substring has own table; scene descriptor is compared (by
+ * {@link Long#bitCount(long)} of xor) only with descriptors sharing at least one substring with it, so index is
+ * approximate: descriptors within distance less than substrings count are always found, farther ones with decreasing
+ * probability
+ * <p>
+ * query gives templates ranked by number of cross-checked matches: each scene descriptor takes its nearest descriptor
+ * across all templates and keeps it only if that scene descriptor is also nearest to it over the whole scene; while
+ * maxDistance is less than substrings count this equals the same cross-check done by brute force over all templates
+ * at once (see {@link HammingIndexBenchmark})
+ */
+public class HammingIndex {
+
+	private static final Logger logger = LoggerFactory.getLogger(HammingIndex.class);
+
+	public static final int SUBSTRING_BITS = 16;
+
+	private static final int TABLE_SIZE = 1 << SUBSTRING_BITS;
+
+	public static final int DEFAULT_MAX_DISTANCE = 64;
+
+	/** scene descriptors count per parallel task */
+	public static final int DEFAULT_ROWS_PER_TASK = 64;
+
+	public static final class Match {
+
+		public final int queryIdx;
+
+		/** index of descriptor within its template */
+		public final int trainIdx;
+
+		public final int distance;
+
+		Match(int queryIdx, int trainIdx, int distance) {
+			this.queryIdx = queryIdx;
+			this.trainIdx = trainIdx;
+			this.distance = distance;
+		}
+
+		@Override
+		public String toString() {
+			return "Match [queryIdx=" + queryIdx + ", trainIdx=" + trainIdx + ", distance=" + distance + "]";
+		}
+	}
+
+	public static final class Candidate {
+
+		public final String templateId;
+
+		public final int templateIndex;
+
+		public final List<Match> matches;
+
+		Candidate(String templateId, int templateIndex, List<Match> matches) {
+			this.templateId = templateId;
+			this.templateIndex = templateIndex;
+			this.matches = matches;
+		}
+
+		public double getMeanDistance() {
+			if (matches.isEmpty())
+				return 0;
+			long sum = 0;
+			for (Match m : matches) {
+				sum += m.distance;
+			}
+			return (double) sum / matches.size();
+		}
+
+		@Override
+		public String toString() {
+			return "Candidate [templateId=" + templateId + ", matches=" + matches.size() + ", meanDistance=" + getMeanDistance() + "]";
+		}
+	}
+
+	/**
+	 * @param descriptors CV_8U descriptors, one per row
+	 * @return rows packed to words of 64 bits (little-endian bytes order), zero-padded to whole words
+	 */
+	public static long[] pack(Mat descriptors) {
+
+		if (descriptors == null)
+			throw new NullPointerException("descriptors is null");
+
+		if (descriptors.depth() != CvType.CV_8U || descriptors.channels() != 1)
+			throw new IllegalArgumentException("incorrect descriptors type: " + CvType.typeToString(descriptors.type()));
+
+		final int rows = descriptors.rows();
+		final int bytes = descriptors.cols();
+
+		final byte[] buf = new byte[rows * bytes];
+		if (rows > 0) {
+			(descriptors.isContinuous() ? descriptors : descriptors.clone()).get(0, 0, buf);
+		}
+
+		return pack(buf, rows, bytes);
+	}
+
+	/**
+	 * @param data            descriptors of given length, one after another
+	 * @param descriptorBytes length of each descriptor, e.g. 32 for ORB
+	 * @return rows packed to words of 64 bits (little-endian bytes order), zero-padded to whole words
+	 */
+	public static long[] pack(byte[] data, int rows, int descriptorBytes) {
+
+		if (data == null)
+			throw new NullPointerException("data is null");
+
+		if (rows < 0 || descriptorBytes <= 0 || data.length < rows * descriptorBytes)
+			throw new IllegalArgumentException("incorrect rows " + rows + " or descriptorBytes " + descriptorBytes + " for data length "
+					+ data.length);
+
+		final int words = wordsCount(descriptorBytes);
+
+		final long[] packed = new long[rows * words];
+		for (int r = 0; r < rows; r++) {
+			for (int b = 0; b < descriptorBytes; b++) {
+				packed[r * words + (b >> 3)] |= (data[r * descriptorBytes + b] & 0xFFL) << ((b & 7) << 3);
+			}
+		}
+		return packed;
+	}
+
+	public static int wordsCount(int descriptorBytes) {
+		return (descriptorBytes + 7) >> 3;
+	}
+
+	public static int distance(long[] a, int aOffset, long[] b, int bOffset, int words) {
+		int d = 0;
+		for (int w = 0; w < words; w++) {
+			d += Long.bitCount(a[aOffset + w] ^ b[bOffset + w]);
+		}
+		return d;
+	}
+
+	private final int words;
+
+	private final int substrings;
+
+	private final List<String> templateIds = new ArrayList<String>();
+
+	/** first descriptor of each template, templatesCount + 1 values */
+	private int[] templateStarts = new int[] { 0 };
+
+	private long[] data = new long[0];
+
+	/** template index of each descriptor */
+	private int[] owners = new int[0];
+
+	private int count = 0;
+
+	// substring tables in compressed form: items of bucket k are bucketItems[bucketOffsets[k]..bucketOffsets[k + 1])
+	private int[] bucketOffsets = null;
+	private int[] bucketItems = null;
+
+	/**
+	 * @param descriptorBytes length of each descriptor, e.g. 32 for ORB
+	 */
+	public HammingIndex(int descriptorBytes) {
+
+		if (descriptorBytes <= 0)
+			throw new IllegalArgumentException("incorrect descriptorBytes: " + descriptorBytes);
+
+		this.words = wordsCount(descriptorBytes);
+		this.substrings = words * (64 / SUBSTRING_BITS);
+	}
+
+	public int getWordsCount() {
+		return words;
+	}
+
+	/**
+	 * @return number of substrings; descriptors within distance less than it are always found by query
+	 */
+	public int getSubstringsCount() {
+		return substrings;
+	}
+
+	public synchronized int getTemplatesCount() {
+		return templateIds.size();
+	}
+
+	public synchronized int getDescriptorsCount() {
+		return count;
+	}
+
+	public synchronized String getTemplateId(int templateIndex) {
+		return templateIds.get(templateIndex);
+	}
+
+	/**
+	 * @return index of added template
+	 */
+	public int add(String templateId, Mat descriptors) {
+		if (descriptors == null)
+			throw new NullPointerException("descriptors is null");
+		if (wordsCount(descriptors.cols()) != words)
+			throw new IllegalArgumentException("incorrect descriptor length: " + descriptors.cols());
+		return add(templateId, pack(descriptors));
+	}
+
+	/**
+	 * @param packed descriptors packed by {@link #pack(Mat)}
+	 * @return index of added template
+	 */
+	public synchronized int add(String templateId, long[] packed) {
+
+		if (packed == null)
+			throw new NullPointerException("packed is null");
+
+		if (packed.length % words != 0)
+			throw new IllegalArgumentException("packed length " + packed.length + " is not multiple of " + words);
+
+		final int added = packed.length / words;
+
+		if ((count + added) * words > data.length) {
+			final int capacity = Math.max(count + added, count * 2);
+			data = Arrays.copyOf(data, capacity * words);
+			owners = Arrays.copyOf(owners, capacity);
+		}
+
+		final int templateIndex = templateIds.size();
+
+		System.arraycopy(packed, 0, data, count * words, packed.length);
+		Arrays.fill(owners, count, count + added, templateIndex);
+		count += added;
+
+		templateIds.add(templateId);
+		templateStarts = Arrays.copyOf(templateStarts, templateStarts.length + 1);
+		templateStarts[templateStarts.length - 1] = count;
+
+		// tables are rebuilt on next query
+		bucketOffsets = null;
+		bucketItems = null;
+
+		return templateIndex;
+	}
+
+	public synchronized void clear() {
+		templateIds.clear();
+		templateStarts = new int[] { 0 };
+		data = new long[0];
+		owners = new int[0];
+		count = 0;
+		bucketOffsets = null;
+		bucketItems = null;
+	}
+
+	private int substring(long[] descriptors, int offset, int s) {
+		return (int) ((descriptors[offset + s / 4] >>> ((s % 4) * SUBSTRING_BITS)) & (TABLE_SIZE - 1));
+	}
+
+	private void buildTables() {
+
+		final long startTime = System.currentTimeMillis();
+
+		final int[] offsets = new int[substrings * TABLE_SIZE + 1];
+
+		for (int i = 0; i < count; i++) {
+			for (int s = 0; s < substrings; s++) {
+				offsets[s * TABLE_SIZE + substring(data, i * words, s) + 1]++;
+			}
+		}
+
+		for (int k = 1; k < offsets.length; k++) {
+			offsets[k] += offsets[k - 1];
+		}
+
+		final int[] items = new int[count * substrings];
+		final int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+
+		for (int i = 0; i < count; i++) {
+			for (int s = 0; s < substrings; s++) {
+				items[fill[s * TABLE_SIZE + substring(data, i * words, s)]++] = i;
+			}
+		}
+
+		bucketOffsets = offsets;
+		bucketItems = items;
+
+		logger.debug("tables of " + count + " descriptors (" + templateIds.size() + " templates) built in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+	}
+
+	/**
+	 * immutable state used by query without lock
+	 */
+	private static final class Snapshot {
+		long[] data;
+		int[] owners;
+		int[] templateStarts;
+		String[] templateIds;
+		int count;
+		int[] bucketOffsets;
+		int[] bucketItems;
+	}
+
+	private synchronized Snapshot snapshot() {
+		if (bucketOffsets == null) {
+			buildTables();
+		}
+		Snapshot s = new Snapshot();
+		s.data = data;
+		s.owners = owners;
+		s.templateStarts = templateStarts;
+		s.templateIds = templateIds.toArray(new String[templateIds.size()]);
+		s.count = count;
+		s.bucketOffsets = bucketOffsets;
+		s.bucketItems = bucketItems;
+		return s;
+	}
+
+	public List<Candidate> query(Mat sceneDescriptors, int maxDistance, int minMatches, ExecutorService executor) {
+		if (sceneDescriptors == null)
+			throw new NullPointerException("sceneDescriptors is null");
+		if (wordsCount(sceneDescriptors.cols()) != words)
+			throw new IllegalArgumentException("incorrect descriptor length: " + sceneDescriptors.cols());
+		return query(pack(sceneDescriptors), maxDistance, minMatches, executor);
+	}
+
+	/**
+	 * @param scene       scene descriptors packed by {@link #pack(Mat)}
+	 * @param maxDistance max hamming distance of match
+	 * @param minMatches  min cross-checked matches count of returned candidate
+	 * @param executor    executor to split scene descriptors on; query is made on calling thread if null
+	 * @return templates ranked by cross-checked matches count (descending) and mean distance (ascending)
+	 */
+	public List<Candidate> query(final long[] scene, final int maxDistance, int minMatches, ExecutorService executor) {
+
+		if (scene == null)
+			throw new NullPointerException("scene is null");
+
+		if (scene.length % words != 0)
+			throw new IllegalArgumentException("scene length " + scene.length + " is not multiple of " + words);
+
+		if (maxDistance < 0)
+			throw new IllegalArgumentException("incorrect maxDistance: " + maxDistance);
+
+		final Snapshot snapshot = snapshot();
+
+		final int rows = scene.length / words;
+
+		// index of nearest descriptor and distance to it for each scene row, -1 if not matched
+		final int[] nearest = new int[rows];
+		final int[] distances = new int[rows];
+
+		if (executor == null || rows <= DEFAULT_ROWS_PER_TASK) {
+			matchRows(snapshot, scene, 0, rows, maxDistance, nearest, distances);
+		} else {
+
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+
+			for (int from = 0; from < rows; from += DEFAULT_ROWS_PER_TASK) {
+				final int start = from;
+				final int end = Math.min(rows, from + DEFAULT_ROWS_PER_TASK);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						matchRows(snapshot, scene, start, end, maxDistance, nearest, distances);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					for (Future<?> f : futures) {
+						f.cancel(true);
+					}
+					throw new RuntimeException("interrupted during query", e);
+				} catch (ExecutionException e) {
+					throw new RuntimeException("query failed", e.getCause());
+				}
+			}
+		}
+
+		final int templatesCount = snapshot.templateIds.length;
+
+		List<List<Match>> matchesByTemplate = new ArrayList<List<Match>>(templatesCount);
+		for (int t = 0; t < templatesCount; t++) {
+			matchesByTemplate.add(null);
+		}
+
+		for (int q = 0; q < rows; q++) {
+			final int g = nearest[q];
+			if (g < 0)
+				continue;
+			final int t = snapshot.owners[g];
+			List<Match> matches = matchesByTemplate.get(t);
+			if (matches == null) {
+				matches = new ArrayList<Match>();
+				matchesByTemplate.set(t, matches);
+			}
+			matches.add(new Match(q, g - snapshot.templateStarts[t], distances[q]));
+		}
+
+		List<Candidate> candidates = new ArrayList<Candidate>();
+
+		for (int t = 0; t < templatesCount; t++) {
+			List<Match> matches = matchesByTemplate.get(t);
+			if (matches != null && matches.size() >= minMatches && matches.size() > 0) {
+				candidates.add(new Candidate(snapshot.templateIds[t], t, matches));
+			}
+		}
+
+		Collections.sort(candidates, new Comparator<Candidate>() {
+			@Override
+			public int compare(Candidate lhs, Candidate rhs) {
+				if (lhs.matches.size() != rhs.matches.size()) {
+					return rhs.matches.size() - lhs.matches.size();
+				}
+				return Double.compare(lhs.getMeanDistance(), rhs.getMeanDistance());
+			}
+		});
+
+		return candidates;
+	}
+
+	/**
+	 * finds nearest indexed descriptor of each scene row in [from, to) and keeps it only if that row is also nearest
+	 * scene descriptor for it (cross-check)
+	 */
+	private void matchRows(Snapshot s, long[] scene, int from, int to, int maxDistance, int[] nearest, int[] distances) {
+
+		final int rows = scene.length / words;
+
+		// stamps of descriptors already compared with current row
+		final int[] visited = new int[s.count];
+
+		for (int q = from; q < to; q++) {
+
+			final int stamp = q + 1;
+			final int qOffset = q * words;
+
+			int best = -1;
+			int bestDistance = maxDistance + 1;
+
+			for (int sub = 0; sub < substrings; sub++) {
+				final int bucket = sub * TABLE_SIZE + substring(scene, qOffset, sub);
+				for (int k = s.bucketOffsets[bucket], end = s.bucketOffsets[bucket + 1]; k < end; k++) {
+					final int g = s.bucketItems[k];
+					if (visited[g] == stamp)
+						continue;
+					visited[g] = stamp;
+					final int d = distance(scene, qOffset, s.data, g * words, words);
+					if (d < bestDistance || (d == bestDistance && g < best)) {
+						bestDistance = d;
+						best = g;
+					}
+				}
+			}
+
+			if (best >= 0) {
+				// reverse nearest over whole scene, first one wins on equal distances
+				int reverse = -1;
+				int reverseDistance = Integer.MAX_VALUE;
+				for (int r = 0; r < rows; r++) {
+					final int d = distance(scene, r * words, s.data, best * words, words);
+					if (d < reverseDistance) {
+						reverseDistance = d;
+						reverse = r;
+					}
+				}
+				if (reverse != q) {
+					best = -1;
+				}
+			}
+
+			nearest[q] = best;
+			distances[q] = best >= 0 ? bestDistance : -1;
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "HammingIndex [words=" + words + ", substrings=" + substrings + ", templates=" + templateIds.size() + ", descriptors="
+				+ count + "]";
+	}
+}
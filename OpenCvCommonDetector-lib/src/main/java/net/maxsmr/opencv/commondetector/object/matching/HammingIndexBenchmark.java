@@ -0,0 +1,206 @@
+package net.maxsmr.opencv.commondetector.object.matching;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDMatch;
+import org.opencv.features2d.DMatch;
+import org.opencv.features2d.DescriptorMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * compares {@link HammingIndex} with native brute force hamming matcher on the same descriptors; both sides count the
+ * same thing: each scene descriptor takes its nearest descriptor across all templates (native matcher trained with all
+ * templates at once), match is kept if its distance is not greater than maxDistance and that scene descriptor is also
+ * nearest to it over the whole scene (cross-check), then kept matches are counted per template
+ * <p>
+ * with maxDistance less than {@link HammingIndex#getSubstringsCount()} index search is exact, so per template counts
+ * should be equal (except for descriptors at equal distances); with greater maxDistance index may miss some matches
+ */
+public final class HammingIndexBenchmark {
+
+	private static final Logger logger = LoggerFactory.getLogger(HammingIndexBenchmark.class);
+
+	public static final class Result {
+
+		public final int templatesCount;
+
+		public final int iterations;
+
+		/** average time of matching scene against all templates by native matcher */
+		public final long nativeNanos;
+
+		public final long indexBuildNanos;
+
+		/** average time of index query */
+		public final long indexQueryNanos;
+
+		/** cross-checked matches count of each template by native matcher */
+		public final int[] nativeMatches;
+
+		/** cross-checked matches count of each template by index */
+		public final int[] indexMatches;
+
+		/** templates which matches counts differ */
+		public final int mismatchedTemplates;
+
+		/** template with max cross-checked matches (first one of equal), -1 if nothing is matched */
+		public final int nativeBestTemplate;
+
+		public final int nativeBestMatches;
+
+		public final int indexBestTemplate;
+
+		public final int indexBestMatches;
+
+		Result(int iterations, long nativeNanos, long indexBuildNanos, long indexQueryNanos, int[] nativeMatches, int[] indexMatches) {
+			this.templatesCount = nativeMatches.length;
+			this.iterations = iterations;
+			this.nativeNanos = nativeNanos;
+			this.indexBuildNanos = indexBuildNanos;
+			this.indexQueryNanos = indexQueryNanos;
+			this.nativeMatches = nativeMatches;
+			this.indexMatches = indexMatches;
+
+			int mismatched = 0;
+			for (int t = 0; t < nativeMatches.length; t++) {
+				if (nativeMatches[t] != indexMatches[t]) {
+					mismatched++;
+				}
+			}
+			this.mismatchedTemplates = mismatched;
+
+			this.nativeBestTemplate = bestTemplate(nativeMatches);
+			this.nativeBestMatches = nativeBestTemplate >= 0 ? nativeMatches[nativeBestTemplate] : 0;
+			this.indexBestTemplate = bestTemplate(indexMatches);
+			this.indexBestMatches = indexBestTemplate >= 0 ? indexMatches[indexBestTemplate] : 0;
+		}
+
+		private static int bestTemplate(int[] matches) {
+			int best = -1;
+			for (int t = 0; t < matches.length; t++) {
+				if (matches[t] > 0 && (best < 0 || matches[t] > matches[best])) {
+					best = t;
+				}
+			}
+			return best;
+		}
+
+		@Override
+		public String toString() {
+			return "Result [templatesCount=" + templatesCount + ", iterations=" + iterations + ", nativeNanos=" + nativeNanos
+					+ ", indexBuildNanos=" + indexBuildNanos + ", indexQueryNanos=" + indexQueryNanos + ", mismatchedTemplates="
+					+ mismatchedTemplates + ", nativeBestTemplate=" + nativeBestTemplate + ", nativeBestMatches=" + nativeBestMatches
+					+ ", indexBestTemplate=" + indexBestTemplate + ", indexBestMatches=" + indexBestMatches + ", nativeMatches="
+					+ Arrays.toString(nativeMatches) + ", indexMatches=" + Arrays.toString(indexMatches) + "]";
+		}
+	}
+
+	private HammingIndexBenchmark() {
+		throw new AssertionError("no instances.");
+	}
+
+	/**
+	 * @param sceneDescriptors     CV_8U scene descriptors
+	 * @param templatesDescriptors CV_8U descriptors of each template, same length as scene ones
+	 * @param executor             executor for index query, may be null
+	 */
+	public static Result run(Mat sceneDescriptors, List<Mat> templatesDescriptors, int maxDistance, int iterations,
+			ExecutorService executor) {
+
+		if (sceneDescriptors == null || sceneDescriptors.empty())
+			throw new IllegalArgumentException("sceneDescriptors is null or empty");
+
+		if (templatesDescriptors == null || templatesDescriptors.isEmpty())
+			throw new IllegalArgumentException("templatesDescriptors is null or empty");
+
+		if (iterations <= 0)
+			throw new IllegalArgumentException("incorrect iterations: " + iterations);
+
+		final DescriptorMatcher matcher = DescriptorMatcher.create(DescriptorMatcher.BRUTEFORCE_HAMMING);
+		matcher.add(templatesDescriptors);
+		matcher.train();
+
+		int[] nativeMatches = null;
+
+		long startTime = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			nativeMatches = crossCheckedMatches(matcher, sceneDescriptors, templatesDescriptors, maxDistance);
+		}
+
+		final long nativeNanos = (System.nanoTime() - startTime) / iterations;
+
+		matcher.clear();
+
+		startTime = System.nanoTime();
+
+		final HammingIndex index = new HammingIndex(sceneDescriptors.cols());
+		for (int t = 0; t < templatesDescriptors.size(); t++) {
+			index.add(String.valueOf(t), templatesDescriptors.get(t));
+		}
+		final long[] scene = HammingIndex.pack(sceneDescriptors);
+		// first query builds tables
+		index.query(scene, maxDistance, 1, null);
+
+		final long indexBuildNanos = System.nanoTime() - startTime;
+
+		List<HammingIndex.Candidate> candidates = null;
+
+		startTime = System.nanoTime();
+
+		for (int i = 0; i < iterations; i++) {
+			candidates = index.query(scene, maxDistance, 1, executor);
+		}
+
+		final long indexQueryNanos = (System.nanoTime() - startTime) / iterations;
+
+		final int[] indexMatches = new int[templatesDescriptors.size()];
+		for (HammingIndex.Candidate candidate : candidates) {
+			indexMatches[candidate.templateIndex] = candidate.matches.size();
+		}
+
+		Result result = new Result(iterations, nativeNanos, indexBuildNanos, indexQueryNanos, nativeMatches, indexMatches);
+
+		logger.info("benchmark result: " + result);
+		return result;
+	}
+
+	/**
+	 * @param matcher matcher trained with all templates
+	 * @return cross-checked matches count of each template
+	 */
+	private static int[] crossCheckedMatches(DescriptorMatcher matcher, Mat scene, List<Mat> templates, int maxDistance) {
+
+		MatOfDMatch matches12 = new MatOfDMatch();
+		MatOfDMatch matches21 = new MatOfDMatch();
+
+		// nearest across all templates, imgIdx is template index
+		matcher.match(scene, matches12);
+
+		final List<List<DMatch>> backwardLists = new ArrayList<List<DMatch>>(templates.size());
+		for (Mat template : templates) {
+			matcher.match(template, scene, matches21);
+			backwardLists.add(matches21.toList());
+		}
+
+		final int[] counts = new int[templates.size()];
+
+		for (DMatch forward : matches12.toList()) {
+			if (forward.distance > maxDistance)
+				continue;
+			DMatch backward = backwardLists.get(forward.imgIdx).get(forward.trainIdx);
+			if (backward.trainIdx == forward.queryIdx)
+				counts[forward.imgIdx]++;
+		}
+
+		matches12.release();
+		matches21.release();
+
+		return counts;
+	}
+}
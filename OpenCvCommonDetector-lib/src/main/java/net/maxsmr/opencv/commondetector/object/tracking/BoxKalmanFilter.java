@@ -0,0 +1,89 @@
+package net.maxsmr.opencv.commondetector.object.tracking;
+
+import org.opencv.core.Rect;
+
+/**
+ * constant velocity Kalman filter of box center and size; each of 4 coordinates (cx, cy, w, h) has own decoupled
+ * [position, velocity] state, so filter is cheap enough to run on every frame
+ */
+class BoxKalmanFilter {
+
+	/** process noise of position / velocity */
+	private final double q;
+
+	/** measurement noise */
+	private final double r;
+
+	// state and covariance of each coordinate: x, v, p00, p01, p10, p11
+	private final double[][] s = new double[4][6];
+
+	BoxKalmanFilter(Rect initial, double processNoise, double measurementNoise) {
+
+		if (processNoise <= 0)
+			throw new IllegalArgumentException("incorrect processNoise: " + processNoise);
+
+		if (measurementNoise <= 0)
+			throw new IllegalArgumentException("incorrect measurementNoise: " + measurementNoise);
+
+		this.q = processNoise;
+		this.r = measurementNoise;
+
+		final double[] z = toMeasurement(initial);
+		for (int i = 0; i < 4; i++) {
+			s[i][0] = z[i];
+			s[i][1] = 0;
+			s[i][2] = measurementNoise;
+			s[i][3] = 0;
+			s[i][4] = 0;
+			// velocity is unknown at start
+			s[i][5] = measurementNoise * 10;
+		}
+	}
+
+	/**
+	 * @return predicted box for next frame
+	 */
+	Rect predict() {
+		for (double[] c : s) {
+			final double p00 = c[2], p01 = c[3], p10 = c[4], p11 = c[5];
+			c[0] += c[1];
+			// P = F * P * F' + Q, F = [[1, 1], [0, 1]]
+			c[2] = p00 + p01 + p10 + p11 + q;
+			c[3] = p01 + p11;
+			c[4] = p10 + p11;
+			c[5] = p11 + q;
+		}
+		return getBox();
+	}
+
+	/**
+	 * @return corrected box
+	 */
+	Rect correct(Rect measured) {
+		final double[] z = toMeasurement(measured);
+		for (int i = 0; i < 4; i++) {
+			final double[] c = s[i];
+			final double p00 = c[2], p01 = c[3], p10 = c[4], p11 = c[5];
+			final double innovation = z[i] - c[0];
+			final double k0 = p00 / (p00 + r);
+			final double k1 = p10 / (p00 + r);
+			c[0] += k0 * innovation;
+			c[1] += k1 * innovation;
+			c[2] = (1 - k0) * p00;
+			c[3] = (1 - k0) * p01;
+			c[4] = p10 - k1 * p00;
+			c[5] = p11 - k1 * p01;
+		}
+		return getBox();
+	}
+
+	Rect getBox() {
+		final double w = Math.max(1, s[2][0]);
+		final double h = Math.max(1, s[3][0]);
+		return new Rect((int) Math.round(s[0][0] - w / 2), (int) Math.round(s[1][0] - h / 2), (int) Math.round(w), (int) Math.round(h));
+	}
+
+	private static double[] toMeasurement(Rect rect) {
+		return new double[] { rect.x + rect.width / 2.0, rect.y + rect.height / 2.0, rect.width, rect.height };
+	}
+}
@@ -0,0 +1,432 @@
+package net.maxsmr.opencv.commondetector.object.tracking;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Core.MinMaxLocResult;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
+import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
+import net.maxsmr.opencv.commondetector.model.object.settings.ResultMode;
+import net.maxsmr.opencv.commondetector.object.MotionGatedObjectDetector.ObjectSearcher;
+import net.maxsmr.opencv.commondetector.object.cascade.AbstractClassifierDetector;
+import net.maxsmr.opencv.commondetector.utils.DetectorHelper;
+import net.maxsmr.opencv.commondetector.utils.MatPool;
+import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
+
+/**
+ * tracking layer over expensive object search: boxes of tracked objects are predicted by Kalman filter on each
+ * frame and verified by cheap template matching around predicted position; full search runs only every N frames,
+ * when there are no tracks or when confidence of some track drops; tracks have stable ids
+ */
+public class ObjectTracker {
+
+	private static final Logger logger = LoggerFactory.getLogger(ObjectTracker.class);
+
+	public static final int DEFAULT_DETECT_INTERVAL = 10;
+
+	/** template matching score (normed correlation) below which track is considered lost on this frame */
+	public static final double DEFAULT_MIN_MATCH_SCORE = 0.6;
+
+	/** if confidence of any track is lower, full search is made on next frame */
+	public static final double DEFAULT_MIN_CONFIDENCE = 0.5;
+
+	/** min intersection over union of predicted box and found object to associate them */
+	public static final double DEFAULT_MIN_IOU = 0.3;
+
+	public static final int DEFAULT_MAX_MISSES = 3;
+
+	/** search window is predicted box enlarged by this ratio of its size to each side */
+	public static final double DEFAULT_SEARCH_MARGIN_RATIO = 0.5;
+
+	public static final double DEFAULT_PROCESS_NOISE = 1.0;
+	public static final double DEFAULT_MEASUREMENT_NOISE = 4.0;
+
+	private static class Track {
+
+		final long id;
+		final BoxKalmanFilter filter;
+
+		Rect box;
+		Mat template;
+		double confidence = 1.0;
+		int misses = 0;
+
+		Track(long id, BoxKalmanFilter filter, Rect box) {
+			this.id = id;
+			this.filter = filter;
+			this.box = box;
+		}
+	}
+
+	private final ObjectSearcher searcher;
+
+	private final ObjectType objectType;
+
+	private int detectInterval = DEFAULT_DETECT_INTERVAL;
+	private double minMatchScore = DEFAULT_MIN_MATCH_SCORE;
+	private double minConfidence = DEFAULT_MIN_CONFIDENCE;
+	private double minIou = DEFAULT_MIN_IOU;
+	private int maxMisses = DEFAULT_MAX_MISSES;
+	private double searchMarginRatio = DEFAULT_SEARCH_MARGIN_RATIO;
+
+	private Scalar contourColor = AbstractClassifierDetector.CONTOUR_COLOR_DEFAULT;
+	private int contourThickness = AbstractClassifierDetector.CONTOUR_THICKNESS_DEFAULT;
+
+	private MatPool matPool = MatPool.getShared();
+
+	private Mat gray = null;
+
+	private final List<Track> tracks = new ArrayList<Track>();
+
+	private long nextTrackId = 1;
+
+	private int framesSinceSearch = 0;
+
+	private boolean searchRequested = true;
+
+	private long searchesCount = 0;
+
+	public ObjectTracker(ObjectSearcher searcher, ObjectType objectType) {
+
+		if (searcher == null)
+			throw new NullPointerException("searcher is null");
+
+		this.searcher = searcher;
+		this.objectType = objectType != null ? objectType : ObjectType.UNKNOWN;
+	}
+
+	public synchronized int getDetectInterval() {
+		return detectInterval;
+	}
+
+	/** @param interval full search is made at least every interval frames */
+	public synchronized void setDetectInterval(int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("incorrect detectInterval: " + interval);
+		this.detectInterval = interval;
+	}
+
+	public synchronized double getMinMatchScore() {
+		return minMatchScore;
+	}
+
+	public synchronized void setMinMatchScore(double score) {
+		if (score < -1 || score > 1)
+			throw new IllegalArgumentException("incorrect minMatchScore: " + score);
+		this.minMatchScore = score;
+	}
+
+	public synchronized double getMinConfidence() {
+		return minConfidence;
+	}
+
+	public synchronized void setMinConfidence(double confidence) {
+		if (confidence < 0 || confidence > 1)
+			throw new IllegalArgumentException("incorrect minConfidence: " + confidence);
+		this.minConfidence = confidence;
+	}
+
+	public synchronized double getMinIou() {
+		return minIou;
+	}
+
+	public synchronized void setMinIou(double iou) {
+		if (iou <= 0 || iou > 1)
+			throw new IllegalArgumentException("incorrect minIou: " + iou);
+		this.minIou = iou;
+	}
+
+	public synchronized int getMaxMisses() {
+		return maxMisses;
+	}
+
+	public synchronized void setMaxMisses(int misses) {
+		if (misses < 0)
+			throw new IllegalArgumentException("incorrect maxMisses: " + misses);
+		this.maxMisses = misses;
+	}
+
+	public synchronized double getSearchMarginRatio() {
+		return searchMarginRatio;
+	}
+
+	public synchronized void setSearchMarginRatio(double ratio) {
+		if (ratio < 0)
+			throw new IllegalArgumentException("incorrect searchMarginRatio: " + ratio);
+		this.searchMarginRatio = ratio;
+	}
+
+	public synchronized void setContourColor(Scalar color) {
+		if (color != null)
+			this.contourColor = color;
+	}
+
+	public synchronized void setContourThickness(int thickness) {
+		if (thickness >= 1)
+			this.contourThickness = thickness;
+	}
+
+	/** @param pool pool for frame buffers and templates; {@link MatPool#getShared()} if null */
+	public synchronized void setMatPool(MatPool pool) {
+		reset();
+		this.matPool = pool != null ? pool : MatPool.getShared();
+	}
+
+	public synchronized int getTracksCount() {
+		return tracks.size();
+	}
+
+	/**
+	 * @return number of full searches made
+	 */
+	public synchronized long getSearchesCount() {
+		return searchesCount;
+	}
+
+	/**
+	 * forces full search on next frame
+	 */
+	public synchronized void requestSearch() {
+		searchRequested = true;
+	}
+
+	/**
+	 * @param frame 1, 3 or 4 channel mat; annotated with tracked objects and their ids unless
+	 *              {@link ResultMode#RESULT_ONLY}
+	 * @param region polygon to which objects are restricted, may be null
+	 * @return info with objects and corresponding track ids
+	 */
+	public synchronized ObjectDetectFrameInfo track(Mat frame, List<org.opencv.core.Point> region, ResultMode resultMode) {
+
+		if (frame == null)
+			throw new NullPointerException("frame mat is null");
+
+		if (frame.empty())
+			throw new IllegalArgumentException("frame mat is empty");
+
+		final long startTime = System.currentTimeMillis();
+
+		toGray(frame);
+
+		for (Track t : tracks) {
+			t.box = clip(t.filter.predict(), frame.cols(), frame.rows());
+		}
+
+		if (searchRequested || tracks.isEmpty() || framesSinceSearch + 1 >= detectInterval) {
+			search(frame, region);
+		} else {
+			framesSinceSearch++;
+			verify();
+		}
+
+		final boolean resultOnly = resultMode == ResultMode.RESULT_ONLY;
+
+		List<net.maxsmr.opencv.commondetector.model.graphic.Rect> objects = new ArrayList<net.maxsmr.opencv.commondetector.model.graphic.Rect>();
+		List<Long> trackIds = new ArrayList<Long>();
+
+		for (Track t : tracks) {
+			if (t.misses > 0)
+				continue;
+			if (!resultOnly) {
+				Core.rectangle(frame, t.box.tl(), t.box.br(), contourColor, contourThickness);
+				Core.putText(frame, String.valueOf(t.id), new Point(t.box.x, t.box.y - 4), Core.FONT_HERSHEY_PLAIN,
+						OpenCvUtils.getFontScaleByImgSize(frame.cols(), frame.rows(), null), contourColor, contourThickness);
+			}
+			objects.add(new net.maxsmr.opencv.commondetector.model.graphic.Rect(t.box.x, t.box.y, t.box.width, t.box.height));
+			trackIds.add(t.id);
+		}
+
+		ObjectDetectFrameInfo info = new ObjectDetectFrameInfo(!resultOnly ? OpenCvUtils.convertMatToByteArray(frame) : null,
+				frame.type(), frame.cols(), frame.rows(), !objects.isEmpty(), objectType, objects, System.currentTimeMillis() - startTime);
+		info.setTrackIds(trackIds);
+		return info;
+	}
+
+	private void search(Mat frame, List<org.opencv.core.Point> region) {
+
+		searchesCount++;
+		framesSinceSearch = 0;
+		searchRequested = false;
+
+		List<Rect> found = DetectorHelper.filterRects(searcher.search(frame), region);
+		logger.debug("full search: " + found.size() + " objects, " + tracks.size() + " tracks");
+
+		boolean[] matched = new boolean[found.size()];
+
+		for (Track t : tracks) {
+
+			int best = -1;
+			double bestIou = minIou;
+
+			for (int i = 0; i < found.size(); i++) {
+				if (matched[i])
+					continue;
+				final double iou = iou(t.box, found.get(i));
+				if (iou >= bestIou) {
+					bestIou = iou;
+					best = i;
+				}
+			}
+
+			if (best >= 0) {
+				matched[best] = true;
+				t.box = clip(t.filter.correct(found.get(best)), frame.cols(), frame.rows());
+				t.confidence = 1.0;
+				t.misses = 0;
+				updateTemplate(t);
+			} else {
+				t.misses++;
+				t.confidence = 0;
+			}
+		}
+
+		removeLostTracks();
+
+		for (int i = 0; i < found.size(); i++) {
+			if (!matched[i]) {
+				final Rect box = clip(found.get(i), frame.cols(), frame.rows());
+				Track t = new Track(nextTrackId++, new BoxKalmanFilter(box, DEFAULT_PROCESS_NOISE, DEFAULT_MEASUREMENT_NOISE), box);
+				updateTemplate(t);
+				tracks.add(t);
+			}
+		}
+	}
+
+	/**
+	 * matches stored template of each track around its predicted box
+	 */
+	private void verify() {
+
+		final Mat result = new Mat();
+
+		for (Track t : tracks) {
+
+			if (t.template == null) {
+				t.misses++;
+				t.confidence = 0;
+				continue;
+			}
+
+			final int marginX = (int) Math.round(t.template.cols() * searchMarginRatio);
+			final int marginY = (int) Math.round(t.template.rows() * searchMarginRatio);
+			final Rect window = clip(new Rect(t.box.x - marginX, t.box.y - marginY, t.template.cols() + 2 * marginX, t.template.rows() + 2
+					* marginY), gray.cols(), gray.rows());
+
+			double score = -1;
+			Rect measured = null;
+
+			if (window.width >= t.template.cols() && window.height >= t.template.rows()) {
+				Mat windowMat = gray.submat(window);
+				Imgproc.matchTemplate(windowMat, t.template, result, Imgproc.TM_CCOEFF_NORMED);
+				MinMaxLocResult mm = Core.minMaxLoc(result);
+				windowMat.release();
+				score = mm.maxVal;
+				measured = new Rect(window.x + (int) mm.maxLoc.x, window.y + (int) mm.maxLoc.y, t.template.cols(), t.template.rows());
+			}
+
+			if (measured != null && score >= minMatchScore) {
+				t.box = clip(t.filter.correct(measured), gray.cols(), gray.rows());
+				t.confidence = score;
+				t.misses = 0;
+			} else {
+				t.confidence = Math.max(0, score);
+				t.misses++;
+			}
+
+			if (t.confidence < minConfidence) {
+				searchRequested = true;
+			}
+		}
+
+		result.release();
+
+		removeLostTracks();
+	}
+
+	private void removeLostTracks() {
+		Iterator<Track> it = tracks.iterator();
+		while (it.hasNext()) {
+			Track t = it.next();
+			if (t.misses > maxMisses) {
+				logger.debug("track " + t.id + " is lost");
+				matPool.release(t.template);
+				t.template = null;
+				it.remove();
+			}
+		}
+	}
+
+	private void updateTemplate(Track t) {
+		matPool.release(t.template);
+		t.template = matPool.lease(t.box.height, t.box.width, CvType.CV_8UC1);
+		Mat patch = gray.submat(t.box);
+		patch.copyTo(t.template);
+		patch.release();
+	}
+
+	private void toGray(Mat frame) {
+
+		if (gray == null || gray.rows() != frame.rows() || gray.cols() != frame.cols()) {
+			// tracks are meaningless on frame of another size
+			reset();
+			gray = matPool.lease(frame.rows(), frame.cols(), CvType.CV_8UC1);
+		}
+
+		switch (frame.channels()) {
+		case 4:
+			Imgproc.cvtColor(frame, gray, Imgproc.COLOR_RGBA2GRAY);
+			break;
+		case 3:
+			Imgproc.cvtColor(frame, gray, Imgproc.COLOR_RGB2GRAY);
+			break;
+		case 1:
+			frame.copyTo(gray);
+			break;
+		default:
+			throw new IllegalArgumentException("incorrect frame mat channels number: " + frame.channels());
+		}
+	}
+
+	private static double iou(Rect a, Rect b) {
+		final int x1 = Math.max(a.x, b.x);
+		final int y1 = Math.max(a.y, b.y);
+		final int x2 = Math.min(a.x + a.width, b.x + b.width);
+		final int y2 = Math.min(a.y + a.height, b.y + b.height);
+		if (x2 <= x1 || y2 <= y1)
+			return 0;
+		final double intersection = (double) (x2 - x1) * (y2 - y1);
+		return intersection / (a.area() + b.area() - intersection);
+	}
+
+	private static Rect clip(Rect r, int width, int height) {
+		final int x = Math.min(Math.max(0, r.x), width - 1);
+		final int y = Math.min(Math.max(0, r.y), height - 1);
+		return new Rect(x, y, Math.max(1, Math.min(width, r.x + r.width) - x), Math.max(1, Math.min(height, r.y + r.height) - y));
+	}
+
+	/**
+	 * drops all tracks and releases buffers; next frame starts with full search
+	 */
+	public synchronized void reset() {
+		for (Track t : tracks) {
+			matPool.release(t.template);
+			t.template = null;
+		}
+		tracks.clear();
+		matPool.release(gray);
+		gray = null;
+		framesSinceSearch = 0;
+		searchRequested = true;
+	}
+}
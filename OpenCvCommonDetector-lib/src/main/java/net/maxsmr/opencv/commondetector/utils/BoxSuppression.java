@@ -0,0 +1,186 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.util.Arrays;
+
+/**
+ * non-maximum suppression and weighted box fusion over primitive arrays; boxes are packed as {x, y, width, height}
+ * quadruples, candidates are sorted by score once (stable, so equal scores keep input order)
+ */
+public final class BoxSuppression {
+
+    public enum Mode {
+
+        /** all candidates are kept */
+        NONE,
+
+        /** only best scored box of each overlapping group is kept */
+        NMS,
+
+        /** boxes of each overlapping group are averaged with score weights, scores are summed */
+        FUSION
+    }
+
+    private BoxSuppression() {
+        throw new AssertionError("no instances.");
+    }
+
+    public static double iou(int[] boxes, int a, int b) {
+        return iou(boxes, a, boxes, b);
+    }
+
+    private static double iou(int[] boxesA, int a, int[] boxesB, int b) {
+        final int ai = a * 4, bi = b * 4;
+        final int x1 = Math.max(boxesA[ai], boxesB[bi]);
+        final int y1 = Math.max(boxesA[ai + 1], boxesB[bi + 1]);
+        final int x2 = Math.min(boxesA[ai] + boxesA[ai + 2], boxesB[bi] + boxesB[bi + 2]);
+        final int y2 = Math.min(boxesA[ai + 1] + boxesA[ai + 3], boxesB[bi + 1] + boxesB[bi + 3]);
+        if (x2 <= x1 || y2 <= y1) {
+            return 0;
+        }
+        final double intersection = (double) (x2 - x1) * (y2 - y1);
+        final double union = (double) boxesA[ai + 2] * boxesA[ai + 3] + (double) boxesB[bi + 2] * boxesB[bi + 3] - intersection;
+        return union > 0 ? intersection / union : 0;
+    }
+
+    /**
+     * @return indices of candidates in descending score order; bottom-up merge sort on primitive indices, stable
+     */
+    private static int[] sortByScore(double[] scores, int count) {
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final int[] tmp = new int[count];
+        for (int width = 1; width < count; width *= 2) {
+            for (int lo = 0; lo < count - width; lo += 2 * width) {
+                merge(scores, order, tmp, lo, lo + width, Math.min(lo + 2 * width, count));
+            }
+        }
+        return order;
+    }
+
+    /**
+     * merges sorted order[lo..mid) and order[mid..hi); on equal scores left one goes first
+     */
+    private static void merge(double[] scores, int[] order, int[] tmp, int lo, int mid, int hi) {
+        System.arraycopy(order, lo, tmp, lo, hi - lo);
+        int i = lo, j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (j >= hi || (i < mid && Double.compare(scores[tmp[i]], scores[tmp[j]]) >= 0)) {
+                order[k] = tmp[i++];
+            } else {
+                order[k] = tmp[j++];
+            }
+        }
+    }
+
+    private static int checkArgs(int[] boxes, double[] scores, double iouThreshold) {
+
+        if (boxes == null || scores == null) {
+            throw new NullPointerException("boxes or scores is null");
+        }
+
+        if (boxes.length % 4 != 0 || boxes.length / 4 != scores.length) {
+            throw new IllegalArgumentException("boxes length " + boxes.length + " doesn't match scores length " + scores.length);
+        }
+
+        if (iouThreshold <= 0 || iouThreshold > 1) {
+            throw new IllegalArgumentException("incorrect iouThreshold: " + iouThreshold);
+        }
+
+        return scores.length;
+    }
+
+    /**
+     * @param boxes        {x, y, width, height} of each candidate
+     * @param scores       score of each candidate
+     * @param iouThreshold candidate is suppressed if its IoU with already kept box is not less than this
+     * @return indices of kept candidates, in descending score order
+     */
+    public static int[] nonMaxSuppression(int[] boxes, double[] scores, double iouThreshold) {
+
+        final int count = checkArgs(boxes, scores, iouThreshold);
+        final int[] order = sortByScore(scores, count);
+
+        final int[] kept = new int[count];
+        int keptCount = 0;
+
+        for (int i = 0; i < count; i++) {
+            final int candidate = order[i];
+            boolean suppressed = false;
+            for (int k = 0; k < keptCount && !suppressed; k++) {
+                suppressed = iou(boxes, candidate, kept[k]) >= iouThreshold;
+            }
+            if (!suppressed) {
+                kept[keptCount++] = candidate;
+            }
+        }
+
+        return Arrays.copyOf(kept, keptCount);
+    }
+
+    /**
+     * weighted box fusion: each candidate (in descending score order) joins first cluster which fused box has IoU
+     * with it not less than threshold, otherwise starts new cluster
+     *
+     * @param outBoxes  fused {x, y, width, height}, must have capacity of boxes
+     * @param outScores summed scores of clusters, must have capacity of scores
+     * @param outLeads  index of best scored candidate of each cluster, may be null
+     * @return number of clusters
+     */
+    public static int fuse(int[] boxes, double[] scores, double iouThreshold, int[] outBoxes, double[] outScores, int[] outLeads) {
+
+        final int count = checkArgs(boxes, scores, iouThreshold);
+
+        if (outBoxes == null || outBoxes.length < boxes.length || outScores == null || outScores.length < count
+                || (outLeads != null && outLeads.length < count)) {
+            throw new IllegalArgumentException("output arrays are null or too small");
+        }
+
+        final int[] order = sortByScore(scores, count);
+
+        // weighted sums of x1, y1, x2, y2 of each cluster
+        final double[] sums = new double[count * 4];
+        int clusters = 0;
+
+        for (int i = 0; i < count; i++) {
+
+            final int candidate = order[i];
+            final int ci = candidate * 4;
+            // zero scores would give no weight at all
+            final double w = Math.max(scores[candidate], Double.MIN_VALUE);
+
+            int cluster = -1;
+            for (int c = 0; c < clusters && cluster < 0; c++) {
+                if (iou(outBoxes, c, boxes, candidate) >= iouThreshold) {
+                    cluster = c;
+                }
+            }
+
+            if (cluster < 0) {
+                cluster = clusters++;
+                outScores[cluster] = 0;
+                if (outLeads != null) {
+                    outLeads[cluster] = candidate;
+                }
+            }
+
+            final int si = cluster * 4;
+            sums[si] += boxes[ci] * w;
+            sums[si + 1] += boxes[ci + 1] * w;
+            sums[si + 2] += (boxes[ci] + boxes[ci + 2]) * w;
+            sums[si + 3] += (boxes[ci + 1] + boxes[ci + 3]) * w;
+            outScores[cluster] += w;
+
+            final double total = outScores[cluster];
+            final int x1 = (int) Math.round(sums[si] / total);
+            final int y1 = (int) Math.round(sums[si + 1] / total);
+            outBoxes[si] = x1;
+            outBoxes[si + 1] = y1;
+            outBoxes[si + 2] = Math.max(1, (int) Math.round(sums[si + 2] / total) - x1);
+            outBoxes[si + 3] = Math.max(1, (int) Math.round(sums[si + 3] / total) - y1);
+        }
+
+        return clusters;
+    }
+}
@@ -0,0 +1,39 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * executor shared by detectors for splitting one frame processing into parallel parts; tasks submitted to it must not
+ * wait for other tasks of the same executor
+ */
+public final class DetectorExecutors {
+
+    private static ExecutorService sharedExecutor;
+
+    private DetectorExecutors() {
+        throw new AssertionError("no instances");
+    }
+
+    /**
+     * @return fixed pool of daemon threads, one per available core
+     */
+    public static ExecutorService getShared() {
+        synchronized (DetectorExecutors.class) {
+            if (sharedExecutor == null) {
+                final AtomicInteger threadNumber = new AtomicInteger(1);
+                sharedExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, DetectorExecutors.class.getSimpleName() + "-" + threadNumber.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+            return sharedExecutor;
+        }
+    }
+}
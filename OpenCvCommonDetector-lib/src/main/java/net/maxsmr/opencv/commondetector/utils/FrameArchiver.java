@@ -0,0 +1,382 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.Locale;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.highgui.Highgui;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.maxsmr.commonutils.data.FileHelper;
+
+/**
+ * background writer of debug frames: {@link #archive(Mat, String)} copies the frame into a bounded memory queue and
+ * returns immediately, frames are encoded and written by single worker thread; when queue is full, oldest or newest
+ * frame is dropped according to {@link DropPolicy}
+ */
+public final class FrameArchiver {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameArchiver.class);
+
+    public enum Format {
+
+        PNG(".png"), JPEG(".jpg");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+    public enum DropPolicy {
+        /** oldest queued frame is dropped in favour of new one */
+        DROP_OLDEST,
+        /** new frame is dropped, queued frames are kept */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
+
+    public static final Format DEFAULT_FORMAT = Format.PNG;
+
+    public static final DropPolicy DEFAULT_DROP_POLICY = DropPolicy.DROP_OLDEST;
+
+    public static final int DEFAULT_JPEG_QUALITY = 90;
+
+    public static final int DEFAULT_PNG_COMPRESSION = 3;
+
+    private static FrameArchiver sharedInstance;
+
+    /**
+     * @return archiver used by detectors for saving frames
+     */
+    public static FrameArchiver getShared() {
+        synchronized (FrameArchiver.class) {
+            if (sharedInstance == null) {
+                sharedInstance = new FrameArchiver(DEFAULT_QUEUE_CAPACITY, MatPool.getShared());
+            }
+            return sharedInstance;
+        }
+    }
+
+    private final SimpleDateFormat dateFormatter = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss.SSS", Locale.getDefault());
+
+    private final LinkedList<Task> queue = new LinkedList<Task>();
+
+    private final int queueCapacity;
+
+    private final MatPool matPool;
+
+    private Format format = DEFAULT_FORMAT;
+
+    private DropPolicy dropPolicy = DEFAULT_DROP_POLICY;
+
+    private int jpegQuality = DEFAULT_JPEG_QUALITY;
+
+    private int pngCompression = DEFAULT_PNG_COMPRESSION;
+
+    private Thread worker;
+
+    /** tasks being written now; old worker may still finish its task after {@link #shutdown()} */
+    private int writingCount = 0;
+
+    private long submittedCount = 0;
+
+    private long writtenCount = 0;
+
+    private long droppedCount = 0;
+
+    private long failedCount = 0;
+
+    /**
+     * @param matPool pool for frame copies; {@link MatPool#getShared()} if null
+     */
+    public FrameArchiver(int queueCapacity, MatPool matPool) {
+
+        if (queueCapacity <= 0)
+            throw new IllegalArgumentException("incorrect queueCapacity: " + queueCapacity);
+
+        this.queueCapacity = queueCapacity;
+        this.matPool = matPool != null ? matPool : MatPool.getShared();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public synchronized Format getFormat() {
+        return format;
+    }
+
+    public synchronized void setFormat(Format format) {
+        if (format == null)
+            throw new NullPointerException("format is null");
+        this.format = format;
+    }
+
+    public synchronized DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    public synchronized void setDropPolicy(DropPolicy dropPolicy) {
+        if (dropPolicy == null)
+            throw new NullPointerException("dropPolicy is null");
+        this.dropPolicy = dropPolicy;
+    }
+
+    public synchronized int getJpegQuality() {
+        return jpegQuality;
+    }
+
+    /** @param quality 0..100 */
+    public synchronized void setJpegQuality(int quality) {
+        if (quality < 0 || quality > 100)
+            throw new IllegalArgumentException("incorrect jpeg quality: " + quality);
+        this.jpegQuality = quality;
+    }
+
+    public synchronized int getPngCompression() {
+        return pngCompression;
+    }
+
+    /** @param compression 0..9 */
+    public synchronized void setPngCompression(int compression) {
+        if (compression < 0 || compression > 9)
+            throw new IllegalArgumentException("incorrect png compression: " + compression);
+        this.pngCompression = compression;
+    }
+
+    public synchronized int getQueueSize() {
+        return queue.size();
+    }
+
+    public synchronized long getSubmittedCount() {
+        return submittedCount;
+    }
+
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public synchronized long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * copies frame and queues it for writing to given directory with name "frame_[timestamp]"; does not block on
+     * encoding or I/O
+     *
+     * @return false if frame was dropped or incorrect
+     */
+    public boolean archive(Mat frame, String dirPath) {
+
+        if (frame == null || frame.empty()) {
+            logger.error("frame is null or empty");
+            return false;
+        }
+
+        if (dirPath == null || dirPath.length() == 0) {
+            logger.error("dirPath is null or empty");
+            return false;
+        }
+
+        final Mat copy = matPool.lease(frame.rows(), frame.cols(), frame.type());
+        frame.copyTo(copy);
+
+        Task dropped = null;
+        boolean accepted = true;
+
+        synchronized (this) {
+
+            submittedCount++;
+
+            final Task task = new Task(copy, dirPath, "frame_" + dateFormatter.format(new Date()) + format.extension, format,
+                    format == Format.JPEG ? jpegQuality : pngCompression);
+
+            if (queue.size() >= queueCapacity) {
+                droppedCount++;
+                if (dropPolicy == DropPolicy.DROP_OLDEST) {
+                    dropped = queue.removeFirst();
+                    queue.addLast(task);
+                } else {
+                    dropped = task;
+                    accepted = false;
+                }
+                logger.warn("frames queue is full (" + queueCapacity + "), dropped frame " + dropped.fileName + ", total dropped: " + droppedCount);
+            } else {
+                queue.addLast(task);
+            }
+
+            startWorkerIfNeeded();
+            notifyAll();
+        }
+
+        if (dropped != null) {
+            matPool.release(dropped.frame);
+        }
+
+        return accepted;
+    }
+
+    /**
+     * waits until queued frames are written
+     *
+     * @return false if timeout expired
+     */
+    public synchronized boolean flush(long timeoutMs) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!queue.isEmpty() || writingCount > 0) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * drops queued frames and stops worker thread; archiver may be used after that
+     */
+    public void shutdown() {
+
+        final Thread w;
+        final LinkedList<Task> pending;
+
+        synchronized (this) {
+            w = worker;
+            worker = null;
+            pending = new LinkedList<Task>(queue);
+            droppedCount += queue.size();
+            queue.clear();
+            notifyAll();
+        }
+
+        if (w != null) {
+            w.interrupt();
+        }
+
+        for (Task task : pending) {
+            matPool.release(task.frame);
+        }
+    }
+
+    private void startWorkerIfNeeded() {
+        if (worker == null) {
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, FrameArchiver.class.getSimpleName());
+            worker.setDaemon(true);
+            worker.setPriority(Thread.MIN_PRIORITY);
+            worker.start();
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+
+            final Task task;
+
+            synchronized (this) {
+                while (true) {
+                    // worker replaced after shutdown() must not take tasks of the new one
+                    if (worker != Thread.currentThread()) {
+                        return;
+                    }
+                    if (!queue.isEmpty()) {
+                        break;
+                    }
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // next archive() starts new worker
+                        if (worker == Thread.currentThread()) {
+                            worker = null;
+                        }
+                        return;
+                    }
+                }
+                task = queue.removeFirst();
+                writingCount++;
+            }
+
+            boolean written = false;
+
+            try {
+                written = write(task);
+            } catch (RuntimeException e) {
+                logger.error("a RuntimeException occurred during writing " + task.fileName, e);
+            } finally {
+                matPool.release(task.frame);
+            }
+
+            synchronized (this) {
+                writingCount--;
+                if (written) {
+                    writtenCount++;
+                } else {
+                    failedCount++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private static boolean write(Task task) {
+
+        if (FileHelper.createNewFile(task.fileName, task.dirPath) == null) {
+            logger.error("can't create file " + task.fileName + " in " + task.dirPath);
+            return false;
+        }
+
+        final MatOfInt params = new MatOfInt(task.format == Format.JPEG ? Highgui.CV_IMWRITE_JPEG_QUALITY
+                : Highgui.CV_IMWRITE_PNG_COMPRESSION, task.quality);
+
+        try {
+            return Highgui.imwrite(task.dirPath + File.separator + task.fileName, task.frame, params);
+        } finally {
+            params.release();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FrameArchiver [queueCapacity=" + queueCapacity + ", queueSize=" + queue.size() + ", format=" + format + ", dropPolicy="
+                + dropPolicy + ", submittedCount=" + submittedCount + ", writtenCount=" + writtenCount + ", droppedCount=" + droppedCount
+                + ", failedCount=" + failedCount + "]";
+    }
+
+    private static final class Task {
+
+        final Mat frame;
+
+        final String dirPath;
+
+        final String fileName;
+
+        final Format format;
+
+        final int quality;
+
+        Task(Mat frame, String dirPath, String fileName, Format format, int quality) {
+            this.frame = frame;
+            this.dirPath = dirPath;
+            this.fileName = fileName;
+            this.format = format;
+            this.quality = quality;
+        }
+    }
+}
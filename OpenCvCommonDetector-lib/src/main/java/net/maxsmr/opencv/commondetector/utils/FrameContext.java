@@ -0,0 +1,271 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * per-frame cache of pre-processed images shared by detectors working on the same frame: each derived image (gray,
+ * equalized, scaled copies, pyramid levels) is computed on first request only; derived images are leased from
+ * {@link MatPool} and must not be modified by callers
+ * <p>
+ * images are derived from source as it is at the moment of request, so detectors that draw on source should be run
+ * after the others or request images they need before drawing
+ */
+public final class FrameContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(FrameContext.class);
+
+    private final Mat source;
+
+    private final MatPool matPool;
+
+    private Mat gray;
+
+    private Mat equalized;
+
+    private final Map<Size, Mat> scaled = new HashMap<Size, Mat>();
+
+    private final Map<Size, Mat> scaledGray = new HashMap<Size, Mat>();
+
+    private final Map<Size, Mat> scaledEqualized = new HashMap<Size, Mat>();
+
+    /** gray pyramid, level 0 is full size gray */
+    private final List<Mat> pyramid = new ArrayList<Mat>();
+
+    /** derived images owned by this context */
+    private final List<Mat> leased = new ArrayList<Mat>();
+
+    private boolean released = false;
+
+    /**
+     * @param source 1, 3 (RGB) or 4 (RGBA) channel frame; is not owned by context
+     */
+    public FrameContext(Mat source) {
+        this(source, null);
+    }
+
+    /**
+     * @param source 1, 3 (RGB) or 4 (RGBA) channel frame; is not owned by context
+     * @param gray   already available gray image of the same frame (e.g. camera luma plane), may be null; is not owned by
+     *               context
+     */
+    public FrameContext(Mat source, Mat gray) {
+        this(source, gray, MatPool.getShared());
+    }
+
+    public FrameContext(Mat source, Mat gray, MatPool matPool) {
+
+        if (source == null)
+            throw new NullPointerException("source mat is null");
+
+        if (source.empty())
+            throw new IllegalArgumentException("source mat is empty");
+
+        if (!(source.channels() == 1 || source.channels() == 3 || source.channels() == 4))
+            throw new IllegalArgumentException("incorrect source mat channels number: " + source.channels());
+
+        if (gray != null && (gray.empty() || gray.type() != CvType.CV_8UC1 || gray.cols() != source.cols() || gray.rows() != source.rows()))
+            throw new IllegalArgumentException("incorrect gray mat: " + gray);
+
+        if (matPool == null)
+            throw new NullPointerException("matPool is null");
+
+        this.source = source;
+        this.matPool = matPool;
+
+        if (source.channels() == 1) {
+            this.gray = source;
+        } else {
+            this.gray = gray;
+        }
+    }
+
+    public Mat getSource() {
+        return source;
+    }
+
+    /**
+     * @return gray image of source; source itself if it's 1 channel
+     */
+    public synchronized Mat getGray() {
+        checkReleased();
+
+        if (gray == null) {
+            gray = lease(source.size(), CvType.CV_8UC1);
+            logger.debug("converting " + (source.channels() == 4 ? "RGBA" : "RGB") + " color space to gray...");
+            Imgproc.cvtColor(source, gray, source.channels() == 4 ? Imgproc.COLOR_RGBA2GRAY : Imgproc.COLOR_RGB2GRAY);
+        }
+
+        return gray;
+    }
+
+    /**
+     * @return gray image of source with equalized histogram
+     */
+    public synchronized Mat getEqualized() {
+        checkReleased();
+
+        if (equalized == null) {
+            final Mat g = getGray();
+            equalized = lease(g.size(), CvType.CV_8UC1);
+            Imgproc.equalizeHist(g, equalized);
+        }
+
+        return equalized;
+    }
+
+    /**
+     * @param size target size; if null or same as source size, source is returned
+     * @return source resized to given size
+     */
+    public synchronized Mat getScaled(Size size) {
+        checkReleased();
+
+        if (isSourceSize(size)) {
+            return source;
+        }
+
+        Mat m = scaled.get(size);
+
+        if (m == null) {
+            m = resize(source, size);
+            scaled.put(size.clone(), m);
+        }
+
+        return m;
+    }
+
+    /**
+     * @param size target size; if null or same as source size, {@link #getGray()} is returned
+     * @return gray image resized to given size
+     */
+    public synchronized Mat getGray(Size size) {
+        checkReleased();
+
+        if (isSourceSize(size)) {
+            return getGray();
+        }
+
+        Mat m = scaledGray.get(size);
+
+        if (m == null) {
+            // converting smaller color image is cheaper than resizing full gray one, if it's already here
+            final Mat color = source.channels() != 1 && gray == null ? scaled.get(size) : null;
+            if (color != null) {
+                m = lease(size, CvType.CV_8UC1);
+                Imgproc.cvtColor(color, m, color.channels() == 4 ? Imgproc.COLOR_RGBA2GRAY : Imgproc.COLOR_RGB2GRAY);
+            } else {
+                m = resize(getGray(), size);
+            }
+            scaledGray.put(size.clone(), m);
+        }
+
+        return m;
+    }
+
+    /**
+     * @param size target size; if null or same as source size, {@link #getEqualized()} is returned
+     * @return gray image resized to given size with equalized histogram
+     */
+    public synchronized Mat getEqualized(Size size) {
+        checkReleased();
+
+        if (isSourceSize(size)) {
+            return getEqualized();
+        }
+
+        Mat m = scaledEqualized.get(size);
+
+        if (m == null) {
+            final Mat g = getGray(size);
+            m = lease(g.size(), CvType.CV_8UC1);
+            Imgproc.equalizeHist(g, m);
+            scaledEqualized.put(size.clone(), m);
+        }
+
+        return m;
+    }
+
+    /**
+     * @param level 0 - full size gray image, each next level is half of previous one
+     * @return gray image of given pyramid level
+     */
+    public synchronized Mat getPyramidLevel(int level) {
+        checkReleased();
+
+        if (level < 0)
+            throw new IllegalArgumentException("incorrect pyramid level: " + level);
+
+        if (pyramid.isEmpty()) {
+            pyramid.add(getGray());
+        }
+
+        while (pyramid.size() <= level) {
+            final Mat prev = pyramid.get(pyramid.size() - 1);
+            if (prev.cols() < 2 || prev.rows() < 2)
+                throw new IllegalArgumentException("pyramid level " + level + " is too small for " + source.cols() + "x" + source.rows());
+            final Mat next = lease(new Size((prev.cols() + 1) / 2, (prev.rows() + 1) / 2), CvType.CV_8UC1);
+            Imgproc.pyrDown(prev, next, next.size());
+            pyramid.add(next);
+        }
+
+        return pyramid.get(level);
+    }
+
+    /**
+     * returns derived images to the pool; they must not be used after that, source is not released
+     */
+    public synchronized void release() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (Mat m : leased) {
+            matPool.release(m);
+        }
+        leased.clear();
+        scaled.clear();
+        scaledGray.clear();
+        scaledEqualized.clear();
+        pyramid.clear();
+        gray = null;
+        equalized = null;
+    }
+
+    private boolean isSourceSize(Size size) {
+        return size == null || ((int) size.width == source.cols() && (int) size.height == source.rows());
+    }
+
+    private Mat resize(Mat m, Size size) {
+        if (size.width < 1 || size.height < 1)
+            throw new IllegalArgumentException("incorrect size: " + size);
+        final Mat result = lease(size, m.type());
+        Imgproc.resize(m, result, result.size(), 0, 0, Imgproc.INTER_AREA);
+        return result;
+    }
+
+    private Mat lease(Size size, int type) {
+        final Mat m = matPool.lease(size, type);
+        leased.add(m);
+        return m;
+    }
+
+    private void checkReleased() {
+        if (released)
+            throw new IllegalStateException("frame context is released");
+    }
+
+    @Override
+    public String toString() {
+        return "FrameContext [source=" + source + ", derived=" + leased.size() + "]";
+    }
+}
@@ -0,0 +1,212 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * pool of native matrices keyed by (rows, cols, type); returned matrices are kept for reuse until total pooled bytes
+ * reaches the limit, after that they are released immediately
+ */
+public final class MatPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatPool.class);
+
+    public static final long DEFAULT_MAX_POOLED_BYTES = 32 * 1024 * 1024;
+
+    private static MatPool sharedInstance;
+
+    /**
+     * @return pool shared by detectors by default
+     */
+    public static MatPool getShared() {
+        synchronized (MatPool.class) {
+            if (sharedInstance == null) {
+                sharedInstance = new MatPool(DEFAULT_MAX_POOLED_BYTES);
+            }
+            return sharedInstance;
+        }
+    }
+
+    private final Map<Key, LinkedList<Mat>> pooled = new HashMap<Key, LinkedList<Mat>>();
+
+    private final long maxPooledBytes;
+
+    private long pooledBytes = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    public MatPool(long maxPooledBytes) {
+        if (maxPooledBytes < 0)
+            throw new IllegalArgumentException("incorrect maxPooledBytes: " + maxPooledBytes);
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return matrix with given size and type; content is undefined
+     */
+    public synchronized Mat lease(int rows, int cols, int type) {
+
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("incorrect mat size: " + cols + "x" + rows);
+
+        if (type < 0)
+            throw new IllegalArgumentException("incorrect mat type: " + type);
+
+        LinkedList<Mat> mats = pooled.get(new Key(rows, cols, type));
+
+        if (mats != null && !mats.isEmpty()) {
+            Mat m = mats.removeFirst();
+            pooledBytes -= byteCount(m);
+            hits++;
+            return m;
+        }
+
+        misses++;
+        return new Mat(rows, cols, type);
+    }
+
+    public Mat lease(Size size, int type) {
+        return lease((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * @return matrix with given size and type filled by zeros
+     */
+    public Mat leaseZeros(Size size, int type) {
+        Mat m = lease(size, type);
+        m.setTo(new Scalar(0));
+        return m;
+    }
+
+    /**
+     * returns matrix to the pool; caller must not use it after that
+     */
+    public synchronized void release(Mat m) {
+
+        if (m == null) {
+            return;
+        }
+
+        if (m.empty() || m.isSubmatrix() || !m.isContinuous()) {
+            m.release();
+            return;
+        }
+
+        final long bytes = byteCount(m);
+
+        if (pooledBytes + bytes > maxPooledBytes) {
+            logger.debug("pool is full (" + pooledBytes + " / " + maxPooledBytes + " bytes), releasing mat " + m);
+            m.release();
+            return;
+        }
+
+        Key key = new Key(m.rows(), m.cols(), m.type());
+        LinkedList<Mat> mats = pooled.get(key);
+
+        if (mats == null) {
+            mats = new LinkedList<Mat>();
+            pooled.put(key, mats);
+        }
+
+        for (Mat pooledMat : mats) {
+            if (pooledMat == m) {
+                logger.error("mat " + m + " is already in pool");
+                return;
+            }
+        }
+
+        mats.addLast(m);
+        pooledBytes += bytes;
+    }
+
+    public void release(Mat[] mats) {
+        if (mats != null) {
+            for (Mat m : mats) {
+                release(m);
+            }
+        }
+    }
+
+    /**
+     * releases all pooled matrices
+     */
+    public synchronized void clear() {
+        Iterator<LinkedList<Mat>> it = pooled.values().iterator();
+        while (it.hasNext()) {
+            for (Mat m : it.next()) {
+                m.release();
+            }
+            it.remove();
+        }
+        pooledBytes = 0;
+    }
+
+    private static long byteCount(Mat m) {
+        return m.total() * m.elemSize();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MatPool [pooledBytes=" + pooledBytes + ", maxPooledBytes=" + maxPooledBytes + ", hits=" + hits + ", misses=" + misses
+                + "]";
+    }
+
+    private static final class Key {
+
+        final int rows;
+        final int cols;
+        final int type;
+
+        Key(int rows, int cols, int type) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + rows;
+            result = prime * result + cols;
+            result = prime * result + type;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return rows == other.rows && cols == other.cols && type == other.type;
+        }
+    }
+}
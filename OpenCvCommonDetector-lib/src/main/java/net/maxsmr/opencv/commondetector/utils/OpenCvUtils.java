@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.ImageFormat;
 
 import net.maxsmr.commonutils.data.FileHelper;
 import net.maxsmr.commonutils.graphic.GraphicUtils;
@@ -129,6 +130,153 @@ public final class OpenCvUtils {
         return b;
     }
 
+    /**
+     * @param width frame width; YV12 rows of Android preview are aligned to 16 bytes, so YV12 frame is supported only if
+     *              neither luma nor chroma rows are padded
+     * @return true if frames in given YUV format can be converted by
+     * {@link #convertYuvToRgba(byte[], int, int, int, Mat, Mat, Mat)} directly, without JPEG round trip
+     */
+    public static boolean isYuvFormatSupported(int yuvFormat, int width) {
+        return yuvFormat == ImageFormat.NV21 || yuvFormat == ImageFormat.YUY2 || (yuvFormat == ImageFormat.YV12 && isYv12Packed(width));
+    }
+
+    /**
+     * @return true if YV12 frame of given width has luma stride equal to width and chroma stride equal to width / 2,
+     * i.e. both strides are already aligned to 16 bytes
+     */
+    private static boolean isYv12Packed(int width) {
+        return width > 0 && width % 32 == 0;
+    }
+
+    /**
+     * converts preview frame to the same RGBA color space as JPEG decoded frame (see {@link #convertBitmapToMat(Bitmap)})
+     * and optionally to gray color space, uploading raw data only once
+     *
+     * @param data      preview frame in NV21, YV12 (only without padded rows, see {@link #isYuvFormatSupported(int, int)}) or
+     *                  YUY2 format
+     * @param yuvBuffer reusable matrix for raw YUV data; reallocated only if frame size or format is changed
+     * @param dst       result CV_8UC4 RGBA matrix
+     * @param dstGray   result CV_8UC1 matrix, may be null if gray image is not needed
+     * @return true if conversion succeeded
+     */
+    public static boolean convertYuvToRgba(byte[] data, int yuvFormat, int width, int height, Mat yuvBuffer, Mat dst, Mat dstGray) {
+
+        if (dst == null) {
+            logger.error("dst is null");
+            return false;
+        }
+
+        if (!putYuvData(data, yuvFormat, width, height, yuvBuffer)) {
+            return false;
+        }
+
+        Imgproc.cvtColor(yuvBuffer, dst, getYuvToRgbaCode(yuvFormat));
+
+        if (dstGray != null) {
+            Imgproc.cvtColor(yuvBuffer, dstGray, getYuvToGrayCode(yuvFormat));
+        }
+
+        return !dst.empty() && (dstGray == null || !dstGray.empty());
+    }
+
+    private static boolean putYuvData(byte[] data, int yuvFormat, int width, int height, Mat yuvBuffer) {
+
+        if (data == null || data.length == 0) {
+            logger.error("data is null or empty");
+            return false;
+        }
+
+        if (width <= 0 || height <= 0) {
+            logger.error("incorrect frame size: " + width + "x" + height);
+            return false;
+        }
+
+        if (yuvBuffer == null) {
+            logger.error("yuvBuffer is null");
+            return false;
+        }
+
+        if (yuvFormat == ImageFormat.YV12 && !isYv12Packed(width)) {
+            logger.error("YV12 frame " + width + "x" + height + " has padded rows");
+            return false;
+        }
+
+        final int type = getYuvBufferType(yuvFormat);
+
+        if (type < 0) {
+            logger.error("unsupported yuv format: " + yuvFormat);
+            return false;
+        }
+
+        yuvBuffer.create(getYuvBufferRows(yuvFormat, height), width, type);
+
+        if (data.length < yuvBuffer.total() * yuvBuffer.channels()) {
+            logger.error("incorrect data length: " + data.length + " for frame " + width + "x" + height);
+            return false;
+        }
+
+        yuvBuffer.put(0, 0, data);
+        return true;
+    }
+
+    /**
+     * @return buffer for raw data of YUV frame leased from pool, can be passed as yuvBuffer to
+     * {@link #convertYuvToRgba(byte[], int, int, int, Mat, Mat, Mat)} without reallocation; must be returned to pool
+     * after conversion
+     * @throws IllegalArgumentException if format is not supported
+     */
+    public static Mat leaseYuvBuffer(MatPool pool, int yuvFormat, int width, int height) {
+
+        final int type = getYuvBufferType(yuvFormat);
+
+        if (type < 0)
+            throw new IllegalArgumentException("unsupported yuv format: " + yuvFormat);
+
+        return pool.lease(getYuvBufferRows(yuvFormat, height), width, type);
+    }
+
+    /**
+     * @return type of matrix for raw data of YUV frame or -1 if format is not supported
+     */
+    private static int getYuvBufferType(int yuvFormat) {
+        switch (yuvFormat) {
+            case ImageFormat.NV21:
+            case ImageFormat.YV12:
+                return CvType.CV_8UC1;
+            case ImageFormat.YUY2:
+                return CvType.CV_8UC2;
+            default:
+                return -1;
+        }
+    }
+
+    private static int getYuvBufferRows(int yuvFormat, int height) {
+        // planar and semi-planar 4:2:0 formats keep chroma in additional half of luma rows
+        return yuvFormat == ImageFormat.YUY2 ? height : height + height / 2;
+    }
+
+    private static int getYuvToGrayCode(int yuvFormat) {
+        switch (yuvFormat) {
+            case ImageFormat.NV21:
+                return Imgproc.COLOR_YUV2GRAY_NV21;
+            case ImageFormat.YV12:
+                return Imgproc.COLOR_YUV2GRAY_YV12;
+            default:
+                return Imgproc.COLOR_YUV2GRAY_YUY2;
+        }
+    }
+
+    private static int getYuvToRgbaCode(int yuvFormat) {
+        switch (yuvFormat) {
+            case ImageFormat.NV21:
+                return Imgproc.COLOR_YUV2RGBA_NV21;
+            case ImageFormat.YV12:
+                return Imgproc.COLOR_YUV2RGBA_YV12;
+            default:
+                return Imgproc.COLOR_YUV2RGBA_YUY2;
+        }
+    }
+
     public static File writeMatToTempFile(Mat mat, String name, Context ctx) {
 
         if (mat == null || mat.empty()) {
@@ -267,6 +415,39 @@ public final class OpenCvUtils {
         return temp;
     }
 
+    /**
+     * morphological opening and closing without allocating result matrix
+     *
+     * @param src source matrix
+     * @param dst result matrix with same type as source; may be the same as src
+     * @return true if succeeded
+     */
+    public static boolean doMorphology(Mat src, Mat dst, int kernelSize) {
+
+        if (src == null || src.empty()) {
+            logger.error("input image is null or empty");
+            return false;
+        }
+
+        if (dst == null) {
+            logger.error("output image is null");
+            return false;
+        }
+
+        if (kernelSize <= 0) {
+            logger.error("incorrect kernel size: " + kernelSize);
+            return false;
+        }
+
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(kernelSize, kernelSize));
+
+        Imgproc.morphologyEx(src, dst, Imgproc.MORPH_OPEN, kernel);
+        Imgproc.morphologyEx(dst, dst, Imgproc.MORPH_CLOSE, kernel);
+
+        kernel.release();
+        return true;
+    }
+
     // public static Bitmap doMorphology(Bitmap imageBitmap, boolean grayscale, int kernelSize) {
     // return convertMatToBitmap(doMorphology(convertBitmapToMat(imageBitmap), grayscale, kernelSize), false);
     // }
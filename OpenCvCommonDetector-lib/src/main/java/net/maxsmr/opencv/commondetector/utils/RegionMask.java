@@ -0,0 +1,124 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * polygon region rasterized to 8-bit mask (255 inside region, 0 outside); mask is built once and reused while frame
+ * size and region are unchanged, so region can be applied to foreground at pixel level instead of testing every
+ * contour point by {@link DetectorHelper#isContourInPolygon(MatOfPoint, List)}
+ */
+public final class RegionMask {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegionMask.class);
+
+    private static final Scalar INSIDE = new Scalar(255);
+
+    private static final Scalar OUTSIDE = new Scalar(0);
+
+    private final MatPool matPool;
+
+    private Mat mask;
+
+    private List<Point> region;
+
+    private int version = 0;
+
+    public RegionMask() {
+        this(null);
+    }
+
+    /**
+     * @param matPool pool for mask; {@link MatPool#getShared()} if null
+     */
+    public RegionMask(MatPool matPool) {
+        this.matPool = matPool != null ? matPool : MatPool.getShared();
+    }
+
+    /**
+     * @return mask for given frame size and region or null if region is null or empty
+     */
+    public synchronized Mat getMask(int rows, int cols, List<Point> region) {
+
+        if (region == null || region.isEmpty()) {
+            return null;
+        }
+
+        if (mask != null && mask.rows() == rows && mask.cols() == cols && region.equals(this.region)) {
+            return mask;
+        }
+
+        logger.debug("compiling region mask " + cols + "x" + rows + ", region=" + region);
+
+        if (mask == null || mask.rows() != rows || mask.cols() != cols) {
+            matPool.release(mask);
+            mask = matPool.lease(rows, cols, CvType.CV_8UC1);
+        }
+
+        mask.setTo(OUTSIDE);
+
+        MatOfPoint polygon = new MatOfPoint();
+        polygon.fromList(region);
+        List<MatOfPoint> polygons = new ArrayList<MatOfPoint>(1);
+        polygons.add(polygon);
+        Core.fillPoly(mask, polygons, INSIDE);
+        polygon.release();
+
+        this.region = new ArrayList<Point>(region.size());
+        for (Point p : region) {
+            this.region.add(p.clone());
+        }
+
+        version++;
+
+        return mask;
+    }
+
+    /**
+     * @return number of times mask was compiled; is changed whenever content of mask returned by
+     *         {@link #getMask(int, int, List)} is changed, so values derived from mask can be cached by it
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * clears pixels of 8-bit single channel foreground outside region
+     *
+     * @return false if region is null or empty and foreground is not changed
+     */
+    public synchronized boolean apply(Mat foreground, List<Point> region) {
+
+        if (foreground == null || foreground.empty()) {
+            throw new IllegalArgumentException("foreground is null or empty");
+        }
+
+        if (foreground.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("incorrect foreground type: " + foreground.type());
+        }
+
+        Mat m = getMask(foreground.rows(), foreground.cols(), region);
+
+        if (m == null) {
+            return false;
+        }
+
+        Core.bitwise_and(foreground, m, foreground);
+        return true;
+    }
+
+    public synchronized void release() {
+        matPool.release(mask);
+        mask = null;
+        region = null;
+    }
+}
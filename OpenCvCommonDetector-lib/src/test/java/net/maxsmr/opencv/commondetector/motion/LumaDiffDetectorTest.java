@@ -0,0 +1,258 @@
+package net.maxsmr.opencv.commondetector.motion;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import net.maxsmr.opencv.commondetector.model.graphic.Rect;
+
+public class LumaDiffDetectorTest {
+
+	private static final int WIDTH = 64;
+	private static final int HEIGHT = 48;
+
+	private static final int THRESHOLD = 25;
+
+	private static final int BACKGROUND = 100;
+	private static final int FOREGROUND = 200;
+
+	private static final int SIDE = 8;
+
+	/** background frame with optional square of given side at (x, y) */
+	private static byte[] frame(int squareX, int squareY) {
+		final byte[] luma = new byte[WIDTH * HEIGHT];
+		Arrays.fill(luma, (byte) BACKGROUND);
+		if (squareX >= 0) {
+			for (int y = squareY; y < squareY + SIDE; y++) {
+				for (int x = squareX; x < squareX + SIDE; x++) {
+					luma[y * WIDTH + x] = (byte) FOREGROUND;
+				}
+			}
+		}
+		return luma;
+	}
+
+	private static byte[] empty() {
+		return frame(-1, -1);
+	}
+
+	@Test
+	public void firstFrameIsComparedWithItself() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		assertFalse(detector.detect(frame(10, 10), WIDTH, HEIGHT, null));
+		assertEquals(0, detector.getChangedPixelsCount());
+		assertEquals(0, detector.getChangedRatio(), 0);
+		assertNull(detector.getForegroundBounds());
+	}
+
+	@Test
+	public void maskRatioAndBoundsOfChangedSquare() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		detector.detect(empty(), WIDTH, HEIGHT, null);
+		assertTrue(detector.detect(frame(10, 20), WIDTH, HEIGHT, null));
+		assertTrue(detector.isDetected());
+
+		assertEquals(SIDE * SIDE, detector.getChangedPixelsCount());
+		assertEquals((double) SIDE * SIDE / (WIDTH * HEIGHT), detector.getChangedRatio(), 1e-12);
+
+		Rect bounds = detector.getForegroundBounds();
+		assertEquals(10, bounds.x);
+		assertEquals(20, bounds.y);
+		assertEquals(SIDE, bounds.width);
+		assertEquals(SIDE, bounds.height);
+
+		final byte[] mask = detector.getForegroundMask();
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				final boolean inside = x >= 10 && x < 10 + SIDE && y >= 20 && y < 20 + SIDE;
+				assertEquals("mask at " + x + "," + y, inside ? LumaDiffDetector.FOREGROUND : 0, mask[y * WIDTH + x]);
+			}
+		}
+	}
+
+	@Test
+	public void differenceEqualToThresholdIsNotChange() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		final byte[] same = empty();
+		final byte[] atThreshold = empty();
+		final byte[] aboveThreshold = empty();
+		atThreshold[0] = (byte) (BACKGROUND + THRESHOLD);
+		aboveThreshold[0] = (byte) (BACKGROUND - THRESHOLD - 1);
+
+		detector.detect(same, WIDTH, HEIGHT, null);
+		assertFalse(detector.detect(atThreshold, WIDTH, HEIGHT, null));
+		assertTrue(detector.detect(aboveThreshold, WIDTH, HEIGHT, null));
+		assertEquals(1, detector.getChangedPixelsCount());
+	}
+
+	@Test
+	public void ringIsWarmedUpWithFirstFrame() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		// while ring is not full, frames are compared with the first one
+		assertFalse(detector.detect(empty(), WIDTH, HEIGHT, null));
+		assertTrue(detector.detect(frame(0, 0), WIDTH, HEIGHT, null));
+		for (int i = 2; i < LumaDiffDetector.N; i++) {
+			assertFalse("frame " + i, detector.detect(empty(), WIDTH, HEIGHT, null));
+		}
+
+		// then with the oldest of N buffered ones: frame N is compared with frame 1 containing square
+		assertTrue(detector.detect(empty(), WIDTH, HEIGHT, null));
+		assertEquals(SIDE * SIDE, detector.getChangedPixelsCount());
+
+		assertFalse(detector.detect(empty(), WIDTH, HEIGHT, null));
+	}
+
+	@Test
+	public void frameSizeChangeRestartsRing() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		detector.detect(empty(), WIDTH, HEIGHT, null);
+
+		final byte[] other = new byte[(WIDTH / 2) * (HEIGHT / 2)];
+		Arrays.fill(other, (byte) FOREGROUND);
+
+		assertFalse(detector.detect(other, WIDTH / 2, HEIGHT / 2, null));
+		assertEquals(0, detector.getChangedPixelsCount());
+	}
+
+	@Test
+	public void regionLimitsChangedPixelsAndRatio() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+
+		// left half of frame, edges between pixels so no pixel is on polygon boundary
+		final int regionWidth = WIDTH / 2;
+		final List<Point> region = Arrays.asList(new Point(-0.5, -0.5), new Point(regionWidth - 0.5, -0.5), new Point(regionWidth - 0.5,
+				HEIGHT - 0.5), new Point(-0.5, HEIGHT - 0.5));
+
+		// square crosses region edge: only 4 columns of it are inside
+		final int squareX = regionWidth - 4;
+
+		detector.detect(empty(), WIDTH, HEIGHT, region);
+		assertTrue(detector.detect(frame(squareX, 10), WIDTH, HEIGHT, region));
+
+		assertEquals(4 * SIDE, detector.getChangedPixelsCount());
+		assertEquals((double) 4 * SIDE / (regionWidth * HEIGHT), detector.getChangedRatio(), 1e-12);
+
+		Rect bounds = detector.getForegroundBounds();
+		assertEquals(squareX, bounds.x);
+		assertEquals(10, bounds.y);
+		assertEquals(4, bounds.width);
+		assertEquals(SIDE, bounds.height);
+
+		// square outside region is not accounted
+		detector.detect(empty(), WIDTH, HEIGHT, region);
+		detector.detect(empty(), WIDTH, HEIGHT, region);
+		detector.detect(empty(), WIDTH, HEIGHT, region);
+		assertFalse(detector.detect(frame(WIDTH - SIDE, 10), WIDTH, HEIGHT, region));
+	}
+
+	@Test
+	public void minChangedRatioGatesDetection() {
+		LumaDiffDetector detector = new LumaDiffDetector(THRESHOLD);
+		detector.setMinChangedRatio(0.5);
+
+		detector.detect(empty(), WIDTH, HEIGHT, null);
+		assertFalse(detector.detect(frame(0, 0), WIDTH, HEIGHT, null));
+		assertEquals(SIDE * SIDE, detector.getChangedPixelsCount());
+	}
+
+	@Test
+	public void benchmarkDetectsMovingSquare() {
+		final int framesCount = 10;
+		LumaDiffBenchmark.Result result = LumaDiffBenchmark.run(WIDTH, HEIGHT, framesCount, 2);
+		// noise is below threshold, square moves every frame
+		assertEquals(framesCount, result.detectedFrames);
+		assertTrue(result.nanosPerFrame > 0);
+	}
+
+	private static boolean loadOpenCv() {
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+			return true;
+		} catch (UnsatisfiedLinkError e) {
+			return false;
+		}
+	}
+
+	/**
+	 * {@link BasicDetector} starts with zero filled ring, so results are compared starting from frame N - 1, when both
+	 * detectors compare with the same oldest frame
+	 */
+	@Test
+	public void sameResultAsBasicDetector() {
+		Assume.assumeTrue("OpenCV natives are not available", loadOpenCv());
+
+		final byte[][] frames = LumaDiffBenchmark.createFrames(WIDTH, HEIGHT, 12, 1);
+
+		LumaDiffDetector lumaDetector = new LumaDiffDetector(THRESHOLD);
+		BasicDetector basicDetector = new BasicDetector(THRESHOLD);
+		// not gray, so drawn contours can be told from frame pixels
+		final Scalar contourColor = new Scalar(255, 0, 255);
+		basicDetector.setContourColor(contourColor);
+
+		final Mat gray = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+		final Mat source = new Mat();
+		final byte[] before = new byte[WIDTH * HEIGHT * 3];
+		final byte[] after = new byte[WIDTH * HEIGHT * 3];
+
+		for (int f = 0; f < frames.length; f++) {
+
+			gray.put(0, 0, frames[f]);
+			Imgproc.cvtColor(gray, source, Imgproc.COLOR_GRAY2BGR);
+			source.get(0, 0, before);
+
+			basicDetector.detect(source, null);
+			lumaDetector.detect(frames[f], WIDTH, HEIGHT, null);
+
+			if (f < LumaDiffDetector.N - 1) {
+				continue;
+			}
+
+			assertEquals("frame " + f, basicDetector.isDetected(), lumaDetector.isDetected());
+
+			// outer contours of foreground drawn by BasicDetector have the same bounds as foreground
+			source.get(0, 0, after);
+			int minX = WIDTH, minY = HEIGHT, maxX = -1, maxY = -1;
+			for (int i = 0; i < WIDTH * HEIGHT; i++) {
+				if (before[i * 3] != after[i * 3] || before[i * 3 + 1] != after[i * 3 + 1] || before[i * 3 + 2] != after[i * 3 + 2]) {
+					final int x = i % WIDTH, y = i / WIDTH;
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+				}
+			}
+
+			Rect bounds = lumaDetector.getForegroundBounds();
+			if (maxX < 0) {
+				assertNull("frame " + f, bounds);
+			} else {
+				assertArrayEquals("frame " + f, new int[] { minX, minY, maxX - minX + 1, maxY - minY + 1 }, new int[] { bounds.x, bounds.y,
+						bounds.width, bounds.height });
+			}
+		}
+
+		basicDetector.release();
+		lumaDetector.release();
+		gray.release();
+		source.release();
+	}
+}
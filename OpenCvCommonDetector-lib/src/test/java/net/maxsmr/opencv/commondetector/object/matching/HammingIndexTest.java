@@ -0,0 +1,286 @@
+package net.maxsmr.opencv.commondetector.object.matching;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+public class HammingIndexTest {
+
+	/** ORB descriptor length */
+	private static final int BYTES = 32;
+
+	private static final int WORDS = HammingIndex.wordsCount(BYTES);
+
+	private static byte[] randomDescriptors(Random random, int rows) {
+		final byte[] data = new byte[rows * BYTES];
+		random.nextBytes(data);
+		return data;
+	}
+
+	private static long[] randomPacked(Random random, int rows) {
+		return HammingIndex.pack(randomDescriptors(random, rows), rows, BYTES);
+	}
+
+	private static long[] row(long[] packed, int row) {
+		final long[] result = new long[WORDS];
+		System.arraycopy(packed, row * WORDS, result, 0, WORDS);
+		return result;
+	}
+
+	private static void flip(long[] packed, int row, int bit) {
+		packed[row * WORDS + bit / 64] ^= 1L << (bit % 64);
+	}
+
+	@Test
+	public void packIsLittleEndianAndZeroPadded() {
+		final byte[] data = {
+				1, 2, 3, 4, 5, 6, 7, 8, 9, (byte) 0xFF,
+				(byte) 0x80, 0, 0, 0, 0, 0, 0, 0, 0, 0
+		};
+
+		assertEquals(2, HammingIndex.wordsCount(10));
+		assertArrayEquals(new long[] { 0x0807060504030201L, 0xFF09L, 0x80L, 0 }, HammingIndex.pack(data, 2, 10));
+		assertArrayEquals(new long[] { 0x0807060504030201L, 0xFF09L }, HammingIndex.pack(data, 1, 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void packRejectsShortData() {
+		HammingIndex.pack(new byte[BYTES], 2, BYTES);
+	}
+
+	@Test
+	public void distanceCountsDifferentBits() {
+		final long[] a = { 0, 0xFL, 0 };
+		final long[] b = { 0, -1L };
+
+		assertEquals(0, HammingIndex.distance(a, 1, a, 1, 2));
+		assertEquals(4 + 64, HammingIndex.distance(a, 1, b, 0, 2));
+		assertEquals(64 - 4, HammingIndex.distance(a, 0, b, 0, 2));
+		assertEquals(1, HammingIndex.distance(new long[] { Long.MIN_VALUE }, 0, new long[] { 0 }, 0, 1));
+	}
+
+	@Test
+	public void descriptorWithinSubstringsDistanceIsAlwaysFound() {
+		final HammingIndex index = new HammingIndex(BYTES);
+		final int substrings = index.getSubstringsCount();
+		assertEquals(BYTES * 8 / HammingIndex.SUBSTRING_BITS, substrings);
+
+		final long[] template = randomPacked(new Random(1), 5);
+		index.add("template", template);
+
+		// one flip in each substring but the last: distance is substrings - 1, last substring is the same
+		final long[] scene = row(template, 2);
+		for (int s = 0; s < substrings - 1; s++) {
+			flip(scene, 0, s * HammingIndex.SUBSTRING_BITS + s % HammingIndex.SUBSTRING_BITS);
+		}
+
+		List<HammingIndex.Candidate> candidates = index.query(scene, substrings - 1, 1, null);
+		assertEquals(1, candidates.size());
+		assertEquals("template", candidates.get(0).templateId);
+		assertEquals(1, candidates.get(0).matches.size());
+
+		HammingIndex.Match match = candidates.get(0).matches.get(0);
+		assertEquals(0, match.queryIdx);
+		assertEquals(2, match.trainIdx);
+		assertEquals(substrings - 1, match.distance);
+
+		// with flip in every substring no bucket is shared, so it is missed even within maxDistance
+		flip(scene, 0, (substrings - 1) * HammingIndex.SUBSTRING_BITS);
+		assertEquals(substrings, HammingIndex.distance(scene, 0, template, 2 * WORDS, WORDS));
+		assertTrue(index.query(scene, HammingIndex.DEFAULT_MAX_DISTANCE, 1, null).isEmpty());
+	}
+
+	@Test
+	public void templatesAreRankedByCrossCheckedMatches() {
+		final Random random = new Random(2);
+
+		final HammingIndex index = new HammingIndex(BYTES);
+		final long[] first = randomPacked(random, 3);
+		final long[] second = randomPacked(random, 3);
+		index.add("first", first);
+		index.add("second", second);
+
+		// copies of two descriptors of second template, one of first one, and unrelated one
+		final long[] scene = new long[4 * WORDS];
+		System.arraycopy(first, 1 * WORDS, scene, 0, WORDS);
+		System.arraycopy(second, 0, scene, WORDS, WORDS);
+		System.arraycopy(randomPacked(random, 1), 0, scene, 2 * WORDS, WORDS);
+		System.arraycopy(second, 2 * WORDS, scene, 3 * WORDS, WORDS);
+
+		List<HammingIndex.Candidate> candidates = index.query(scene, 0, 1, null);
+		assertEquals(2, candidates.size());
+		assertEquals("second", candidates.get(0).templateId);
+		assertEquals(1, candidates.get(0).templateIndex);
+		assertEquals(2, candidates.get(0).matches.size());
+		assertEquals("first", candidates.get(1).templateId);
+		assertEquals(1, candidates.get(1).matches.size());
+		assertEquals(1, candidates.get(1).matches.get(0).trainIdx);
+
+		candidates = index.query(scene, 0, 2, null);
+		assertEquals(1, candidates.size());
+		assertEquals("second", candidates.get(0).templateId);
+	}
+
+	/**
+	 * @return cross-checked matches count of each template: nearest descriptor across all templates (first one of
+	 *         equal), not farther than maxDistance, which nearest scene descriptor (first one of equal) is the same
+	 */
+	private static int[] bruteForceMatches(long[] scene, List<long[]> templates, int maxDistance) {
+
+		final int rows = scene.length / WORDS;
+		final int[] counts = new int[templates.size()];
+
+		for (int q = 0; q < rows; q++) {
+
+			int bestTemplate = -1, bestRow = -1, bestDistance = Integer.MAX_VALUE;
+			for (int t = 0; t < templates.size(); t++) {
+				final long[] template = templates.get(t);
+				for (int r = 0; r < template.length / WORDS; r++) {
+					final int d = HammingIndex.distance(scene, q * WORDS, template, r * WORDS, WORDS);
+					if (d < bestDistance) {
+						bestDistance = d;
+						bestTemplate = t;
+						bestRow = r;
+					}
+				}
+			}
+
+			if (bestDistance > maxDistance)
+				continue;
+
+			int reverse = -1, reverseDistance = Integer.MAX_VALUE;
+			for (int r = 0; r < rows; r++) {
+				final int d = HammingIndex.distance(scene, r * WORDS, templates.get(bestTemplate), bestRow * WORDS, WORDS);
+				if (d < reverseDistance) {
+					reverseDistance = d;
+					reverse = r;
+				}
+			}
+
+			if (reverse == q)
+				counts[bestTemplate]++;
+		}
+
+		return counts;
+	}
+
+	private static int[] queryMatches(HammingIndex index, long[] scene, int maxDistance, ExecutorService executor) {
+		final int[] counts = new int[index.getTemplatesCount()];
+		for (HammingIndex.Candidate candidate : index.query(scene, maxDistance, 1, executor)) {
+			counts[candidate.templateIndex] = candidate.matches.size();
+		}
+		return counts;
+	}
+
+	/**
+	 * @return scene of noisy copies of random template descriptors (distance less than substrings) and unrelated ones
+	 */
+	private static long[] createScene(Random random, List<long[]> templates, int rows, int substrings) {
+		final long[] scene = randomPacked(random, rows);
+		for (int q = 0; q < rows; q += 2) {
+			final long[] template = templates.get(random.nextInt(templates.size()));
+			final int r = random.nextInt(template.length / WORDS);
+			System.arraycopy(template, r * WORDS, scene, q * WORDS, WORDS);
+			final int flips = random.nextInt(substrings);
+			for (int s = 0; s < flips; s++) {
+				flip(scene, q, s * HammingIndex.SUBSTRING_BITS + random.nextInt(HammingIndex.SUBSTRING_BITS));
+			}
+		}
+		return scene;
+	}
+
+	@Test
+	public void queryEqualsBruteForceBelowSubstringsDistance() throws Exception {
+		final Random random = new Random(3);
+
+		final HammingIndex index = new HammingIndex(BYTES);
+		final List<long[]> templates = new ArrayList<long[]>();
+		for (int t = 0; t < 6; t++) {
+			final long[] template = randomPacked(random, 40);
+			templates.add(template);
+			index.add(String.valueOf(t), template);
+		}
+
+		final int maxDistance = index.getSubstringsCount() - 1;
+		// more rows than one task takes, so query is split on executor
+		final long[] scene = createScene(random, templates, 3 * HammingIndex.DEFAULT_ROWS_PER_TASK + 10, index.getSubstringsCount());
+
+		final int[] expected = bruteForceMatches(scene, templates, maxDistance);
+		int total = 0;
+		for (int count : expected) {
+			total += count;
+		}
+		assertTrue(total > 0);
+
+		assertArrayEquals(expected, queryMatches(index, scene, maxDistance, null));
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			assertArrayEquals(expected, queryMatches(index, scene, maxDistance, executor));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean loadOpenCv() {
+		try {
+			System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+			return true;
+		} catch (UnsatisfiedLinkError e) {
+			return false;
+		}
+	}
+
+	private static Mat toMat(byte[] data) {
+		final Mat mat = new Mat(data.length / BYTES, BYTES, CvType.CV_8UC1);
+		mat.put(0, 0, data);
+		return mat;
+	}
+
+	@Test
+	public void benchmarkSidesAgreeBelowSubstringsDistance() {
+		Assume.assumeTrue("OpenCV natives are not available", loadOpenCv());
+
+		final Random random = new Random(4);
+
+		final List<Mat> templates = new ArrayList<Mat>();
+		final List<long[]> packedTemplates = new ArrayList<long[]>();
+		for (int t = 0; t < 4; t++) {
+			final byte[] data = randomDescriptors(random, 30);
+			templates.add(toMat(data));
+			packedTemplates.add(HammingIndex.pack(data, 30, BYTES));
+		}
+
+		final int substrings = BYTES * 8 / HammingIndex.SUBSTRING_BITS;
+		final long[] packedScene = createScene(random, packedTemplates, 100, substrings);
+
+		// unpacking little-endian words back to bytes
+		final byte[] sceneData = new byte[100 * BYTES];
+		for (int b = 0; b < sceneData.length; b++) {
+			sceneData[b] = (byte) (packedScene[b >> 3] >>> ((b & 7) << 3));
+		}
+		final Mat scene = toMat(sceneData);
+
+		HammingIndexBenchmark.Result result = HammingIndexBenchmark.run(scene, templates, substrings - 1, 1, null);
+		assertArrayEquals(bruteForceMatches(packedScene, packedTemplates, substrings - 1), result.nativeMatches);
+		assertEquals(0, result.mismatchedTemplates);
+		assertEquals(result.nativeBestTemplate, result.indexBestTemplate);
+
+		scene.release();
+		for (Mat template : templates) {
+			template.release();
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package net.maxsmr.opencv.commondetector.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class BoxSuppressionTest {
+
+    private static final double IOU_THRESHOLD = 0.5;
+
+    @Test
+    public void iouOfOverlappingNestedAndDisjointBoxes() {
+        final int[] boxes = {
+                0, 0, 10, 10,
+                5, 0, 10, 10, // half of the first one
+                0, 0, 20, 20, // contains the first one
+                10, 0, 10, 10, // touches the first one
+                50, 50, 10, 10 // far from others
+        };
+
+        assertEquals(1, BoxSuppression.iou(boxes, 0, 0), 1e-12);
+        assertEquals(50.0 / 150, BoxSuppression.iou(boxes, 0, 1), 1e-12);
+        assertEquals(BoxSuppression.iou(boxes, 0, 1), BoxSuppression.iou(boxes, 1, 0), 0);
+        assertEquals(100.0 / 400, BoxSuppression.iou(boxes, 0, 2), 1e-12);
+        assertEquals(0, BoxSuppression.iou(boxes, 0, 3), 0);
+        assertEquals(0, BoxSuppression.iou(boxes, 0, 4), 0);
+    }
+
+    @Test
+    public void nmsKeepsBestOfOverlappingBoxes() {
+        final int[] boxes = {
+                0, 0, 10, 10,
+                1, 0, 10, 10,
+                50, 50, 10, 10
+        };
+        final double[] scores = { 0.5, 0.9, 0.7 };
+
+        assertArrayEquals(new int[] { 1, 2 }, BoxSuppression.nonMaxSuppression(boxes, scores, IOU_THRESHOLD));
+    }
+
+    @Test
+    public void nmsOfNestedBoxesDependsOnThreshold() {
+        final int[] boxes = {
+                0, 0, 10, 10,
+                0, 0, 20, 20
+        };
+        final double[] scores = { 0.9, 0.8 };
+
+        // IoU is 0.25
+        assertArrayEquals(new int[] { 0, 1 }, BoxSuppression.nonMaxSuppression(boxes, scores, IOU_THRESHOLD));
+        assertArrayEquals(new int[] { 0 }, BoxSuppression.nonMaxSuppression(boxes, scores, 0.25));
+    }
+
+    @Test
+    public void nmsKeepsDisjointBoxesInDescendingScoreOrder() {
+        final int[] boxes = {
+                0, 0, 10, 10,
+                20, 0, 10, 10,
+                40, 0, 10, 10,
+                60, 0, 10, 10,
+                80, 0, 10, 10
+        };
+        final double[] scores = { 0.1, 0.5, 0.3, 0.9, 0.2 };
+
+        assertArrayEquals(new int[] { 3, 1, 2, 4, 0 }, BoxSuppression.nonMaxSuppression(boxes, scores, IOU_THRESHOLD));
+    }
+
+    @Test
+    public void equalScoresKeepInputOrder() {
+        final int count = 7;
+        final int[] boxes = new int[count * 4];
+        final double[] scores = new double[count];
+        for (int i = 0; i < count; i++) {
+            boxes[i * 4] = i * 20;
+            boxes[i * 4 + 2] = 10;
+            boxes[i * 4 + 3] = 10;
+            scores[i] = i % 2 == 0 ? 0.5 : 0.8;
+        }
+
+        assertArrayEquals(new int[] { 1, 3, 5, 0, 2, 4, 6 }, BoxSuppression.nonMaxSuppression(boxes, scores, IOU_THRESHOLD));
+
+        // of overlapping boxes with equal scores the first one is kept
+        final int[] overlapping = {
+                1, 0, 10, 10,
+                0, 0, 10, 10,
+                2, 0, 10, 10
+        };
+        assertArrayEquals(new int[] { 0 }, BoxSuppression.nonMaxSuppression(overlapping, new double[] { 1, 1, 1 }, IOU_THRESHOLD));
+    }
+
+    @Test
+    public void fuseAveragesOverlappingBoxesWithScoreWeights() {
+        final int[] boxes = {
+                2, 0, 10, 10,
+                0, 0, 10, 10,
+                50, 50, 10, 10
+        };
+        final double[] scores = { 1, 3, 2 };
+
+        final int[] outBoxes = new int[boxes.length];
+        final double[] outScores = new double[scores.length];
+        final int[] outLeads = new int[scores.length];
+
+        assertEquals(2, BoxSuppression.fuse(boxes, scores, IOU_THRESHOLD, outBoxes, outScores, outLeads));
+
+        // x1 = (0 * 3 + 2 * 1) / 4 = 0.5, x2 = (10 * 3 + 12 * 1) / 4 = 10.5
+        assertArrayEquals(new int[] { 1, 0, 10, 10 }, new int[] { outBoxes[0], outBoxes[1], outBoxes[2], outBoxes[3] });
+        assertEquals(4, outScores[0], 1e-12);
+        assertEquals(1, outLeads[0]);
+
+        assertArrayEquals(new int[] { 50, 50, 10, 10 }, new int[] { outBoxes[4], outBoxes[5], outBoxes[6], outBoxes[7] });
+        assertEquals(2, outScores[1], 1e-12);
+        assertEquals(2, outLeads[1]);
+    }
+
+    @Test
+    public void fuseKeepsNestedBoxesBelowThresholdApart() {
+        final int[] boxes = {
+                0, 0, 20, 20,
+                5, 5, 10, 10
+        };
+        final double[] scores = { 0.6, 0.6 };
+
+        final int[] outBoxes = new int[boxes.length];
+        final double[] outScores = new double[scores.length];
+
+        assertEquals(2, BoxSuppression.fuse(boxes, scores, IOU_THRESHOLD, outBoxes, outScores, null));
+        assertArrayEquals(boxes, outBoxes);
+        assertArrayEquals(scores, outScores, 0);
+    }
+
+    @Test
+    public void emptyInput() {
+        assertArrayEquals(new int[0], BoxSuppression.nonMaxSuppression(new int[0], new double[0], IOU_THRESHOLD));
+        assertEquals(0, BoxSuppression.fuse(new int[0], new double[0], IOU_THRESHOLD, new int[0], new double[0], null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mismatchedLengthsAreRejected() {
+        BoxSuppression.nonMaxSuppression(new int[] { 0, 0, 10, 10 }, new double[] { 1, 1 }, IOU_THRESHOLD);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void incorrectThresholdIsRejected() {
+        BoxSuppression.nonMaxSuppression(new int[] { 0, 0, 10, 10 }, new double[] { 1 }, 0);
+    }
+}
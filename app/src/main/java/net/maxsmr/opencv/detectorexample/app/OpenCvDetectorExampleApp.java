@@ -8,7 +8,9 @@ import org.slf4j.LoggerFactory;
 
 import net.maxsmr.commonutils.android.logging.ConfigureLog4J;
 import net.maxsmr.opencv.androiddetector.OpenCvInit;
+import net.maxsmr.opencv.commondetector.object.cascade.CascadeModelStore;
 import net.maxsmr.opencv.detectorexample.BuildConfig;
+import net.maxsmr.opencv.detectorexample.R;
 
 
 public class OpenCvDetectorExampleApp extends Application {
@@ -33,6 +35,8 @@ public class OpenCvDetectorExampleApp extends Application {
         logger.debug("onCreate()");
         applyLog4JConf();
         OpenCvInit.initInstance(this);
+        // native library may be not loaded yet, so models are only extracted here
+        CascadeModelStore.getInstance(this).preloadAsync(false, R.raw.hogcascade_pedestrians, R.raw.haarcascade_frontalface_alt);
     }
 
 }
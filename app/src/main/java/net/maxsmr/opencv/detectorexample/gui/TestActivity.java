@@ -67,6 +67,7 @@ import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectFrameInfo;
 import net.maxsmr.opencv.commondetector.model.object.info.ObjectDetectVideoInfo;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectType;
 import net.maxsmr.opencv.commondetector.model.object.settings.ObjectDetectorSettings;
+import net.maxsmr.opencv.commondetector.object.cascade.CascadeModelStore;
 import net.maxsmr.opencv.commondetector.utils.OpenCvUtils;
 import net.maxsmr.opencv.detectorexample.app.DefaultSettings;
 import net.maxsmr.opencv.detectorexample.R;
@@ -675,9 +676,9 @@ public class TestActivity extends AppCompatActivity implements View.OnClickListe
                         break;
 
                     case OBJECT:
-                        File humanClassifierFile = FileHelper.createNewFile("hogcascade_pedestrians.xml", Paths.getDefaultWorkingDir().getAbsolutePath());
+                        final File humanClassifierFile;
                         try {
-                            FileHelper.copyRawFile(TestActivity.this, R.raw.hogcascade_pedestrians, humanClassifierFile, FileHelper.FILE_PERMISSIONS_ALL);
+                            humanClassifierFile = CascadeModelStore.getInstance(TestActivity.this).getFile(R.raw.hogcascade_pedestrians);
                         } catch (Exception e) {
                             runOnUiThread(new Runnable() {
                                 @Override
@@ -696,8 +697,7 @@ public class TestActivity extends AppCompatActivity implements View.OnClickListe
 
                             ClassifierDetector detector;
                             try {
-                                File faceClassifierFile = FileHelper.createNewFile("haarcascade_frontalface_alt.xml", Paths.getDefaultWorkingDir().getAbsolutePath());
-                                FileHelper.copyRawFile(TestActivity.this, R.raw.haarcascade_frontalface_alt, faceClassifierFile, FileHelper.FILE_PERMISSIONS_ALL);
+                                File faceClassifierFile = CascadeModelStore.getInstance(TestActivity.this).getFile(R.raw.haarcascade_frontalface_alt);
                                 detector = new ClassifierDetector(TestActivity.this, ObjectType.FACE, faceClassifierFile, false, null);
                             } catch (Exception e) {
                                 runOnUiThread(new Runnable() {